@@ -430,6 +430,53 @@ class AreaNode implements AreaObject {
 		return false;
 	}
 
+	/**
+	 * Appends all objects that overlap a circle and pass the {@link Matcher}'s test to
+	 * <code>result</code>.
+	 *
+	 * @param x The horizontal center of the circle.
+	 * @param y The vertical center of the circle.
+	 * @param radiusSquared The square of the radius of the circle.
+	 * @param result The list to add matches to. May not be <code>null</code>.
+	 * @param matcher The {@link Matcher} to use. May be <code>null</code>.
+	 */
+	protected void search(double x, double y, double radiusSquared, ArrayList<AreaObject> result, Matcher<AreaObject> matcher) {
+		for (int i = 0; i < mStorageCount; i++) {
+			if (distanceSquared(x, y, mStorage[i]) <= radiusSquared) {
+				if (!mLeafNode) {
+					((AreaNode) mStorage[i]).search(x, y, radiusSquared, result, matcher);
+				} else if (matcher == null || matcher.matches(mStorage[i])) {
+					result.add(mStorage[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the children of this node that overlap a circle to a nearest-neighbour search. Objects
+	 * are only added if they pass the {@link Matcher}'s test.
+	 *
+	 * @param x The horizontal center of the circle.
+	 * @param y The vertical center of the circle.
+	 * @param radiusSquared The square of the radius of the circle.
+	 * @param matcher The {@link Matcher} to use. May be <code>null</code>.
+	 * @param queue The queue to add the candidates to. Nodes are added with a type of
+	 *            <code>0</code> and objects with a type of <code>1</code>.
+	 */
+	protected void addNearestCandidates(double x, double y, double radiusSquared, Matcher<AreaObject> matcher, NearestQueue queue) {
+		for (int i = 0; i < mStorageCount; i++) {
+			double distance = distanceSquared(x, y, mStorage[i]);
+			if (distance <= radiusSquared && (!mLeafNode || matcher == null || matcher.matches(mStorage[i]))) {
+				queue.add(distance, mStorage[i], mLeafNode ? 1 : 0);
+			}
+		}
+	}
+
+	private static double distanceSquared(double x, double y, AreaObject obj) {
+		Rectangle bounds = obj.getBounds();
+		return NearestQueue.distanceSquared(x, y, bounds.x, bounds.y, bounds.x + (double) bounds.width, bounds.y + (double) bounds.height);
+	}
+
 	/**
 	 * @param bounds The bounds to search with.
 	 * @param exactMatch <code>true</code> to match coordinates exactly, <code>false</code> to only
@@ -228,6 +228,74 @@ public class AreaTree {
 		return !result.isEmpty();
 	}
 
+	/**
+	 * @param circle The area to search with.
+	 * @return All objects that overlap the <code>circle</code>.
+	 */
+	public ArrayList<AreaObject> search(Circle circle) {
+		return search(circle, null);
+	}
+
+	/**
+	 * @param circle The area to search with.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches. May be
+	 *            <code>null</code>.
+	 * @return All objects that overlap the <code>circle</code> and pass the {@link Matcher}'s
+	 *         test.
+	 */
+	public ArrayList<AreaObject> search(Circle circle, Matcher<AreaObject> matcher) {
+		ArrayList<AreaObject> list = new ArrayList<>();
+		double radius = circle.getRadius();
+		mRoot.search(circle.getCenterX(), circle.getCenterY(), radius * radius, list, matcher);
+		return list;
+	}
+
+	/**
+	 * @param circle The area to search with. Use a radius of {@link Double#POSITIVE_INFINITY} to
+	 *            consider every object.
+	 * @param count The maximum number of objects to return.
+	 * @return Up to <code>count</code> objects that overlap the <code>circle</code>, nearest to its
+	 *         center first.
+	 */
+	public ArrayList<AreaObject> searchNearest(Circle circle, int count) {
+		return searchNearest(circle, count, null);
+	}
+
+	/**
+	 * @param circle The area to search with. Use a radius of {@link Double#POSITIVE_INFINITY} to
+	 *            consider every object.
+	 * @param count The maximum number of objects to return.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches. May be
+	 *            <code>null</code>.
+	 * @return Up to <code>count</code> objects that overlap the <code>circle</code> and pass the
+	 *         {@link Matcher}'s test, nearest to its center first.
+	 */
+	public ArrayList<AreaObject> searchNearest(Circle circle, int count, Matcher<AreaObject> matcher) {
+		ArrayList<AreaObject> list = new ArrayList<>();
+		if (count > 0) {
+			double x = circle.getCenterX();
+			double y = circle.getCenterY();
+			double radius = circle.getRadius();
+			double radiusSquared = radius * radius;
+			NearestQueue queue = new NearestQueue();
+			mRoot.addNearestCandidates(x, y, radiusSquared, matcher, queue);
+			while (!queue.isEmpty()) {
+				Object candidate = queue.object();
+				int type = queue.type();
+				queue.remove();
+				if (type == 0) {
+					((AreaNode) candidate).addNearestCandidates(x, y, radiusSquared, matcher, queue);
+				} else {
+					list.add((AreaObject) candidate);
+					if (list.size() == count) {
+						break;
+					}
+				}
+			}
+		}
+		return list;
+	}
+
 	/**
 	 * @param x The x coordinate to search with.
 	 * @param y The y coordinate to search with.
@@ -12,13 +12,29 @@
 package com.trollworks.toolkit.collections;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * Provides a {@link LRUCache} for {@link BufferedImage}s, flushing their contents when removed from
  * the cache.
+ * <p>
+ * Optionally, images removed from the cache can have their pixels moved into a second tier held in
+ * direct {@link ByteBuffer}s outside of the Java heap, itself bounded by a total number of bytes.
+ * Looking up a key found only in the second tier recreates its {@link BufferedImage} and moves it
+ * back into the cache. Only {@link #get(Object)}, {@link #containsKey(Object)}, {@link #remove(Object)}
+ * and {@link #clear()} consider the second tier; other methods only see the images on the heap.
  */
 public class BufferedImageLRUCache<K> extends LRUCache<K, BufferedImage> {
+	private LinkedHashMap<K, OffHeapImage<K>>	mOffHeap;
+	private long								mMaxOffHeapBytes;
+	private long								mOffHeapBytes;
+
 	/**
 	 * Creates a new {@link BufferedImageLRUCache}.
 	 *
@@ -29,12 +45,184 @@ public class BufferedImageLRUCache<K> extends LRUCache<K, BufferedImage> {
 		super(maxEntries);
 	}
 
+	/**
+	 * Creates a new {@link BufferedImageLRUCache} with a second tier of images held outside of the
+	 * Java heap.
+	 *
+	 * @param maxEntries The maximum number of entries to be kept on the heap. Older entries are
+	 *            moved to the second tier first.
+	 * @param maxOffHeapBytes The maximum number of bytes of pixel data to keep in the second tier.
+	 *            Older entries are discarded first.
+	 */
+	public BufferedImageLRUCache(int maxEntries, long maxOffHeapBytes) {
+		super(maxEntries);
+		if (maxOffHeapBytes > 0) {
+			mOffHeap = new LinkedHashMap<>(16, 0.75f, true);
+			mMaxOffHeapBytes = maxOffHeapBytes;
+		}
+	}
+
+	/** @return The number of bytes of pixel data currently held outside of the Java heap. */
+	public long getOffHeapBytes() {
+		return mOffHeapBytes;
+	}
+
+	@Override
+	public BufferedImage get(Object key) {
+		BufferedImage image = super.get(key);
+		if (image == null && mOffHeap != null) {
+			OffHeapImage<K> offHeap = mOffHeap.remove(key);
+			if (offHeap != null) {
+				mOffHeapBytes -= offHeap.mPixels.capacity();
+				image = offHeap.createImage();
+				super.put(offHeap.mKey, image);
+			}
+		}
+		return image;
+	}
+
+	@Override
+	public BufferedImage put(K key, BufferedImage value) {
+		discardOffHeap(key);
+		return super.put(key, value);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return super.containsKey(key) || mOffHeap != null && mOffHeap.containsKey(key);
+	}
+
+	@Override
+	public BufferedImage remove(Object key) {
+		discardOffHeap(key);
+		return super.remove(key);
+	}
+
+	@Override
+	public void clear() {
+		if (mOffHeap != null) {
+			mOffHeap.clear();
+			mOffHeapBytes = 0;
+		}
+		super.clear();
+	}
+
 	@Override
 	protected boolean removeEldestEntry(Map.Entry<K, BufferedImage> eldest) {
 		if (super.removeEldestEntry(eldest)) {
-			eldest.getValue().flush();
+			BufferedImage image = eldest.getValue();
+			if (mOffHeap != null) {
+				moveOffHeap(eldest.getKey(), image);
+			}
+			image.flush();
 			return true;
 		}
 		return false;
 	}
+
+	private void discardOffHeap(Object key) {
+		if (mOffHeap != null) {
+			OffHeapImage<K> offHeap = mOffHeap.remove(key);
+			if (offHeap != null) {
+				mOffHeapBytes -= offHeap.mPixels.capacity();
+			}
+		}
+	}
+
+	private void moveOffHeap(K key, BufferedImage image) {
+		OffHeapImage<K> offHeap = new OffHeapImage<>(key, image, mMaxOffHeapBytes);
+		if (offHeap.mPixels != null) {
+			mOffHeapBytes += offHeap.mPixels.capacity();
+			mOffHeap.put(key, offHeap);
+			Iterator<OffHeapImage<K>> iterator = mOffHeap.values().iterator();
+			while (mOffHeapBytes > mMaxOffHeapBytes) {
+				mOffHeapBytes -= iterator.next().mPixels.capacity();
+				iterator.remove();
+			}
+		}
+	}
+
+	/** The pixels of an image, held outside of the Java heap. */
+	private static final class OffHeapImage<K> {
+		final K		mKey;
+		final int	mWidth;
+		final int	mHeight;
+		int			mType;
+		int			mTransferType;
+		ByteBuffer	mPixels;
+
+		/**
+		 * @param key The key the image is stored under.
+		 * @param image The image to copy.
+		 * @param maxBytes The maximum number of bytes to use. If more are needed, nothing is
+		 *            allocated and {@link #mPixels} is left <code>null</code>.
+		 */
+		OffHeapImage(K key, BufferedImage image, long maxBytes) {
+			mKey = key;
+			mWidth = image.getWidth();
+			mHeight = image.getHeight();
+			mType = image.getType();
+			WritableRaster raster = image.getRaster();
+			mTransferType = raster.getTransferType();
+			Object data;
+			if (mType == BufferedImage.TYPE_CUSTOM || mType == BufferedImage.TYPE_BYTE_BINARY || mType == BufferedImage.TYPE_BYTE_INDEXED || mTransferType != DataBuffer.TYPE_BYTE && mTransferType != DataBuffer.TYPE_USHORT && mTransferType != DataBuffer.TYPE_INT) {
+				// These can't be recreated from their type alone, so keep them as plain ARGB.
+				if ((long) mWidth * mHeight * 4 > maxBytes) {
+					return;
+				}
+				mType = BufferedImage.TYPE_INT_ARGB;
+				mTransferType = DataBuffer.TYPE_INT;
+				data = image.getRGB(0, 0, mWidth, mHeight, null, 0, mWidth);
+			} else {
+				if ((long) mWidth * mHeight * raster.getNumDataElements() * DataBuffer.getDataTypeSize(mTransferType) / 8 > maxBytes) {
+					return;
+				}
+				data = raster.getDataElements(0, 0, mWidth, mHeight, null);
+			}
+			switch (mTransferType) {
+				case DataBuffer.TYPE_BYTE:
+					byte[] bytes = (byte[]) data;
+					mPixels = ByteBuffer.allocateDirect(bytes.length);
+					mPixels.put(bytes);
+					break;
+				case DataBuffer.TYPE_USHORT:
+					short[] shorts = (short[]) data;
+					mPixels = ByteBuffer.allocateDirect(shorts.length * 2).order(ByteOrder.nativeOrder());
+					mPixels.asShortBuffer().put(shorts);
+					break;
+				default:
+					int[] ints = (int[]) data;
+					mPixels = ByteBuffer.allocateDirect(ints.length * 4).order(ByteOrder.nativeOrder());
+					mPixels.asIntBuffer().put(ints);
+					break;
+			}
+		}
+
+		BufferedImage createImage() {
+			BufferedImage image = new BufferedImage(mWidth, mHeight, mType);
+			Object data;
+			mPixels.clear();
+			switch (mTransferType) {
+				case DataBuffer.TYPE_BYTE:
+					byte[] bytes = new byte[mPixels.capacity()];
+					mPixels.get(bytes);
+					data = bytes;
+					break;
+				case DataBuffer.TYPE_USHORT:
+					short[] shorts = new short[mPixels.capacity() / 2];
+					mPixels.asShortBuffer().get(shorts);
+					data = shorts;
+					break;
+				default:
+					int[] ints = new int[mPixels.capacity() / 4];
+					mPixels.asIntBuffer().get(ints);
+					data = ints;
+					break;
+			}
+			// Going through the raster rather than its DataBuffer keeps the image eligible for
+			// hardware acceleration.
+			image.getRaster().setDataElements(0, 0, mWidth, mHeight, data);
+			return image;
+		}
+	}
 }
@@ -0,0 +1,415 @@
+/*
+ * Copyright (c) 1998-2014 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.collections;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * A cache that may be shared between threads, bounded by the total weight of its entries rather
+ * than just their count.
+ * <p>
+ * Reads never lock and do not restructure anything; they merely mark the entry as recently used.
+ * When room is needed, entries are evicted in CLOCK order, which skips over (and unmarks) those
+ * that were used since the hand last passed them. A new entry is only admitted if its key has been
+ * requested more often recently than the key of the entry it would displace, so a burst of one-off
+ * requests cannot flush out the entries that are used regularly. This means {@link #put(Object,
+ * Object)} may decline to keep a value.
+ * <p>
+ * Entries may optionally expire once they have gone unused for a given time.
+ */
+public class ConcurrentCache<K, V> {
+	private final ConcurrentHashMap<K, Entry<K, V>>	mMap		= new ConcurrentHashMap<>();
+	private final ReentrantLock						mLock		= new ReentrantLock();
+	private final FrequencySketch					mSketch		= new FrequencySketch();
+	private final LongAdder							mHits		= new LongAdder();
+	private final LongAdder							mMisses		= new LongAdder();
+	private final LongAdder							mEvictions	= new LongAdder();
+	private final long								mMaximumWeight;
+	private final Weigher<? super K, ? super V>		mWeigher;
+	private final long								mExpireAfterAccess;
+	private volatile EvictionListener<K, V>			mEvictionListener;
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Entry<K, V>[]	mRing	= new Entry[16];
+	private int				mRingSize;
+	private int				mHand;
+	private long			mWeight;
+
+	/** Determines the weight of cache entries. */
+	public interface Weigher<K, V> {
+		/**
+		 * @param key The key.
+		 * @param value The value.
+		 * @return The weight of the entry. Must not be negative.
+		 */
+		int weigh(K key, V value);
+	}
+
+	/** Objects that want to be notified of evictions must implement this interface. */
+	public interface EvictionListener<K, V> {
+		/**
+		 * Called after an entry has been evicted, either to make room or because it expired. Not
+		 * called for entries that are explicitly removed or replaced.
+		 *
+		 * @param key The key.
+		 * @param value The value.
+		 */
+		void evicted(K key, V value);
+	}
+
+	/**
+	 * Creates a new {@link ConcurrentCache} where every entry has a weight of one.
+	 *
+	 * @param maximumEntries The maximum number of entries.
+	 */
+	public ConcurrentCache(int maximumEntries) {
+		this(maximumEntries, (key, value) -> 1, 0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Creates a new {@link ConcurrentCache}.
+	 *
+	 * @param maximumWeight The maximum total weight of the entries.
+	 * @param weigher The {@link Weigher} to use.
+	 */
+	public ConcurrentCache(long maximumWeight, Weigher<? super K, ? super V> weigher) {
+		this(maximumWeight, weigher, 0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Creates a new {@link ConcurrentCache}.
+	 *
+	 * @param maximumWeight The maximum total weight of the entries.
+	 * @param weigher The {@link Weigher} to use.
+	 * @param expireAfterAccess The amount of time an entry may go unused before it expires. Use 0
+	 *            to never expire entries.
+	 * @param unit The {@link TimeUnit} of <code>expireAfterAccess</code>.
+	 */
+	public ConcurrentCache(long maximumWeight, Weigher<? super K, ? super V> weigher, long expireAfterAccess, TimeUnit unit) {
+		mMaximumWeight = maximumWeight;
+		mWeigher = weigher;
+		mExpireAfterAccess = unit.toNanos(expireAfterAccess);
+	}
+
+	/** @param listener The {@link EvictionListener} to notify. May be <code>null</code>. */
+	public void setEvictionListener(EvictionListener<K, V> listener) {
+		mEvictionListener = listener;
+	}
+
+	/**
+	 * @param key The key to look up.
+	 * @return The value associated with the key, or <code>null</code>.
+	 */
+	public V get(K key) {
+		mSketch.increment(key.hashCode());
+		Entry<K, V> entry = mMap.get(key);
+		if (entry != null) {
+			if (mExpireAfterAccess == 0) {
+				entry.mReferenced = true;
+				mHits.increment();
+				return entry.mValue;
+			}
+			long now = System.nanoTime();
+			if (!entry.isExpired(now, mExpireAfterAccess)) {
+				entry.mReferenced = true;
+				entry.mAccessTime = now;
+				mHits.increment();
+				return entry.mValue;
+			}
+			expire(entry);
+		}
+		mMisses.increment();
+		return null;
+	}
+
+	/**
+	 * @param key The key to look up.
+	 * @param loader Called to create the value if it is not present. It may return
+	 *            <code>null</code>, in which case nothing is cached. Note that the value it
+	 *            creates is subject to the same admission check as {@link #put(Object, Object)},
+	 *            so for keys that are rarely requested, the loader may be called again on each
+	 *            request.
+	 * @return The value associated with the key.
+	 */
+	public V get(K key, Function<? super K, ? extends V> loader) {
+		V value = get(key);
+		if (value == null) {
+			value = loader.apply(key);
+			if (value != null) {
+				put(key, value);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Associates a value with a key. If the key is not yet present and room must be made for it,
+	 * the value may not be kept; see the class description. The decision is made against the first
+	 * entry that would be evicted, before anything is, so a declined value never costs the cache
+	 * any of its existing entries. Nothing indicates to the caller that a value was declined; use
+	 * {@link #get(Object)} to find out whether it was kept.
+	 *
+	 * @param key The key.
+	 * @param value The value.
+	 * @return The value previously associated with the key, or <code>null</code>.
+	 */
+	public V put(K key, V value) {
+		int weight = mWeigher.weigh(key, value);
+		long now = mExpireAfterAccess != 0 ? System.nanoTime() : 0;
+		List<Entry<K, V>> evicted = null;
+		mLock.lock();
+		try {
+			Entry<K, V> entry = mMap.get(key);
+			V previous = null;
+			int needed = weight;
+			if (entry != null) {
+				previous = entry.mValue;
+				if (weight > mMaximumWeight) {
+					unlink(entry);
+					return previous;
+				}
+				mWeight += weight - entry.mWeight;
+				entry.mWeight = weight;
+				entry.mValue = value;
+				entry.mReferenced = true;
+				entry.mAccessTime = now;
+				needed = 0;
+			} else if (weight > mMaximumWeight) {
+				return null;
+			}
+			boolean admitted = entry != null;
+			while (mWeight + needed > mMaximumWeight) {
+				Entry<K, V> victim = selectVictim(entry, now);
+				if (victim == null) {
+					break;
+				}
+				if (!admitted) {
+					if (!victim.isExpired(now, mExpireAfterAccess) && mSketch.frequency(key.hashCode()) <= mSketch.frequency(victim.mKey.hashCode())) {
+						// Not admitted; the entry that would have been evicted is worth more.
+						victim.mReferenced = true;
+						return null;
+					}
+					admitted = true;
+				}
+				unlink(victim);
+				if (evicted == null) {
+					evicted = new ArrayList<>();
+				}
+				evicted.add(victim);
+			}
+			if (entry == null) {
+				link(new Entry<>(key, value, weight, now));
+			}
+			return previous;
+		} finally {
+			mLock.unlock();
+			if (evicted != null) {
+				notifyEvicted(evicted);
+			}
+		}
+	}
+
+	/**
+	 * @param key The key to remove.
+	 * @return The value that was associated with the key, or <code>null</code>.
+	 */
+	public V remove(K key) {
+		mLock.lock();
+		try {
+			Entry<K, V> entry = mMap.get(key);
+			if (entry != null) {
+				unlink(entry);
+				return entry.mValue;
+			}
+			return null;
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/** Removes all entries. */
+	public void clear() {
+		mLock.lock();
+		try {
+			mMap.clear();
+			Arrays.fill(mRing, 0, mRingSize, null);
+			mRingSize = 0;
+			mHand = 0;
+			mWeight = 0;
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/** Evicts any entries that have expired. */
+	public void cleanUp() {
+		if (mExpireAfterAccess != 0) {
+			List<Entry<K, V>> evicted = new ArrayList<>();
+			mLock.lock();
+			try {
+				long now = System.nanoTime();
+				for (int i = mRingSize; --i >= 0;) {
+					Entry<K, V> entry = mRing[i];
+					if (entry.isExpired(now, mExpireAfterAccess)) {
+						unlink(entry);
+						evicted.add(entry);
+					}
+				}
+			} finally {
+				mLock.unlock();
+			}
+			notifyEvicted(evicted);
+		}
+	}
+
+	/** @return The number of entries. */
+	public int size() {
+		return mMap.size();
+	}
+
+	/** @return The total weight of the entries. */
+	public long getWeight() {
+		mLock.lock();
+		try {
+			return mWeight;
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/** @return The maximum total weight of the entries. */
+	public long getMaximumWeight() {
+		return mMaximumWeight;
+	}
+
+	/** @return The number of times {@link #get(Object)} found a value. */
+	public long getHitCount() {
+		return mHits.sum();
+	}
+
+	/** @return The number of times {@link #get(Object)} did not find a value. */
+	public long getMissCount() {
+		return mMisses.sum();
+	}
+
+	/** @return The number of entries that have been evicted. */
+	public long getEvictionCount() {
+		return mEvictions.sum();
+	}
+
+	private void expire(Entry<K, V> entry) {
+		boolean removed = false;
+		mLock.lock();
+		try {
+			if (entry.mIndex != -1 && entry.isExpired(System.nanoTime(), mExpireAfterAccess)) {
+				unlink(entry);
+				removed = true;
+			}
+		} finally {
+			mLock.unlock();
+		}
+		if (removed) {
+			List<Entry<K, V>> evicted = new ArrayList<>(1);
+			evicted.add(entry);
+			notifyEvicted(evicted);
+		}
+	}
+
+	/**
+	 * Advances the CLOCK hand to the next entry that has not been used since the hand last passed
+	 * it, or that has expired.
+	 */
+	private Entry<K, V> selectVictim(Entry<K, V> exclude, long now) {
+		// Two passes are always enough, unless readers keep marking entries concurrently.
+		for (int i = mRingSize * 2; i > 0; i--) {
+			if (mHand >= mRingSize) {
+				mHand = 0;
+			}
+			Entry<K, V> entry = mRing[mHand++];
+			if (entry != exclude) {
+				if (!entry.mReferenced || entry.isExpired(now, mExpireAfterAccess)) {
+					return entry;
+				}
+				entry.mReferenced = false;
+			}
+		}
+		for (int i = mRingSize; i > 0; i--) {
+			if (mHand >= mRingSize) {
+				mHand = 0;
+			}
+			Entry<K, V> entry = mRing[mHand++];
+			if (entry != exclude) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	private void link(Entry<K, V> entry) {
+		if (mRingSize == mRing.length) {
+			mRing = Arrays.copyOf(mRing, mRingSize * 2);
+		}
+		entry.mIndex = mRingSize;
+		mRing[mRingSize++] = entry;
+		mWeight += entry.mWeight;
+		mMap.put(entry.mKey, entry);
+		mSketch.ensureCapacity(mRingSize);
+	}
+
+	private void unlink(Entry<K, V> entry) {
+		int index = entry.mIndex;
+		Entry<K, V> last = mRing[--mRingSize];
+		mRing[index] = last;
+		last.mIndex = index;
+		mRing[mRingSize] = null;
+		entry.mIndex = -1;
+		mWeight -= entry.mWeight;
+		mMap.remove(entry.mKey, entry);
+	}
+
+	private void notifyEvicted(List<Entry<K, V>> evicted) {
+		mEvictions.add(evicted.size());
+		EvictionListener<K, V> listener = mEvictionListener;
+		if (listener != null) {
+			for (Entry<K, V> entry : evicted) {
+				listener.evicted(entry.mKey, entry.mValue);
+			}
+		}
+	}
+
+	private static final class Entry<K, V> {
+		final K				mKey;
+		volatile V			mValue;
+		volatile boolean	mReferenced;
+		volatile long		mAccessTime;
+		int					mWeight;
+		int					mIndex;
+
+		Entry(K key, V value, int weight, long now) {
+			mKey = key;
+			mValue = value;
+			mWeight = weight;
+			mAccessTime = now;
+			mIndex = -1;
+		}
+
+		boolean isExpired(long now, long expireAfterAccess) {
+			return expireAfterAccess != 0 && now - mAccessTime >= expireAfterAccess;
+		}
+	}
+}
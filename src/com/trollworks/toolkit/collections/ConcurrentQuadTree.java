@@ -0,0 +1,627 @@
+/*
+ * Copyright (c) 1998-2014 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.collections;
+
+import com.trollworks.toolkit.annotation.Localize;
+import com.trollworks.toolkit.utility.Localization;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Provides a thread-safe variant of {@link QuadTree}. Each change produces a new, immutable
+ * {@link Snapshot} that shares all untouched nodes with the previous one, and then publishes it.
+ * Readers never lock: every query runs against whichever {@link Snapshot} was current when it
+ * started, and a {@link Snapshot} retrieved with {@link #snapshot()} may be used for several
+ * queries that need to see the same contents. Changes are serialized with each other.
+ */
+public class ConcurrentQuadTree<T extends Bounds> {
+	@Localize("Objects must have a width and height greater than zero.")
+	@Localize(locale = "de", value = "Objekte müssen eine Höhe und Breite größer als Null haben.")
+	private static String	MUST_HAVE_SIZE_GREATER_THAN_ZERO;
+
+	static {
+		Localization.initialize();
+	}
+
+	private static final Object[]	EMPTY	= new Object[0];
+	private final int				mThreshold;
+	private volatile Snapshot<T>	mSnapshot;
+
+	/** Creates a new, empty {@link ConcurrentQuadTree} with a threshold of 64. */
+	public ConcurrentQuadTree() {
+		this(64);
+	}
+
+	/**
+	 * Creates a new, empty {@link ConcurrentQuadTree} with the specified threshold.
+	 *
+	 * @param threshold The number of objects that may be contained within a single node before a
+	 *            split occurs.
+	 */
+	public ConcurrentQuadTree(int threshold) {
+		mThreshold = threshold;
+		clear();
+	}
+
+	/** @return The current contents, which will not change. */
+	public final Snapshot<T> snapshot() {
+		return mSnapshot;
+	}
+
+	/**
+	 * Adds an object to the {@link ConcurrentQuadTree}.
+	 * <p>
+	 * <b>Note</b>: Once an object is added to the {@link ConcurrentQuadTree}, the values it returns
+	 * from calls to {@link Bounds#getX()}, {@link Bounds#getY()}, {@link Bounds#getWidth()}, and
+	 * {@link Bounds#getHeight()} <b>MUST REMAIN THE SAME</b> as when the object was added. When the
+	 * object is removed from the {@link ConcurrentQuadTree}, it is safe to once again allow those
+	 * values to change.
+	 *
+	 * @param obj The object to add to the tree.
+	 */
+	public final synchronized void add(T obj) {
+		Snapshot<T> snapshot = mSnapshot;
+		if (snapshot.mRoot.containsBounds(obj)) {
+			mSnapshot = new Snapshot<>(snapshot.mRoot.add(obj, mThreshold), snapshot.mOutside);
+		} else {
+			Object[] outside = append(snapshot.mOutside, obj);
+			if (outside != snapshot.mOutside) {
+				mSnapshot = new Snapshot<>(snapshot.mRoot, outside);
+				if (outside.length > mThreshold) {
+					reorganize();
+				}
+			}
+		}
+	}
+
+	/** Forces the {@link ConcurrentQuadTree} to reorganize itself to optimally fit its contents. */
+	public final synchronized void reorganize() {
+		Set<T> all = mSnapshot.all();
+
+		// Determine the union of all contained bounds
+		int x = 0;
+		int y = 0;
+		int width = 0;
+		int height = 0;
+		for (T one : all) {
+			int otherWidth = one.getWidth();
+			if (otherWidth > 0) {
+				int otherHeight = one.getHeight();
+				if (otherHeight > 0) {
+					int otherX = one.getX();
+					int otherY = one.getY();
+					if (width <= 0 || height <= 0) {
+						x = otherX;
+						y = otherY;
+						width = otherWidth;
+						height = otherHeight;
+					} else {
+						int x1 = Math.min(x, otherX);
+						int y1 = Math.min(y, otherY);
+						width = Math.max(x + width, otherX + otherWidth) - x1;
+						height = Math.max(y + height, otherY + otherHeight) - y1;
+						x = x1;
+						y = y1;
+					}
+				}
+			}
+		}
+
+		Node<T> root = new Node<>(x, y, width, height, EMPTY, null);
+		for (T one : all) {
+			root = root.add(one, mThreshold);
+		}
+		mSnapshot = new Snapshot<>(root, EMPTY);
+	}
+
+	/** @param obj The object to remove. */
+	public final synchronized void remove(T obj) {
+		Snapshot<T> snapshot = mSnapshot;
+		int index = indexOf(snapshot.mOutside, obj);
+		if (index != -1) {
+			mSnapshot = new Snapshot<>(snapshot.mRoot, remove(snapshot.mOutside, index));
+		} else {
+			Node<T> root = snapshot.mRoot.remove(obj);
+			if (root != snapshot.mRoot) {
+				mSnapshot = new Snapshot<>(root, snapshot.mOutside);
+			}
+		}
+	}
+
+	/** Removes all objects from the {@link ConcurrentQuadTree}. */
+	public final synchronized void clear() {
+		mSnapshot = new Snapshot<>(new Node<>(0, 0, 0, 0, EMPTY, null), EMPTY);
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @return <code>true</code> if this {@link ConcurrentQuadTree} has at least one object that
+	 *         contains the specified coordinates.
+	 */
+	public final boolean contains(int x, int y) {
+		return mSnapshot.contains(x, y);
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @return <code>true</code> if this {@link ConcurrentQuadTree} has at least one object that
+	 *         intersects with the specified bounds.
+	 */
+	public final boolean intersects(int x, int y, int width, int height) {
+		return mSnapshot.intersects(x, y, width, height);
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @return <code>true</code> if this {@link ConcurrentQuadTree} has at least one object that
+	 *         would be contained by the specified bounds.
+	 */
+	public final boolean containedBy(int x, int y, int width, int height) {
+		return mSnapshot.containedBy(x, y, width, height);
+	}
+
+	/** @return All objects that have been added to this {@link ConcurrentQuadTree}. */
+	public final Set<T> all() {
+		return mSnapshot.all();
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @return All objects in this {@link ConcurrentQuadTree} that contain the specified
+	 *         coordinates.
+	 */
+	public final Set<T> findContains(int x, int y) {
+		return mSnapshot.findContains(x, y);
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @return All objects in this {@link ConcurrentQuadTree} that intersect with the specified
+	 *         bounds.
+	 */
+	public final Set<T> findIntersects(int x, int y, int width, int height) {
+		return mSnapshot.findIntersects(x, y, width, height);
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @return All objects in this {@link ConcurrentQuadTree} that would be contained by the
+	 *         specified bounds.
+	 */
+	public final Set<T> findContainedBy(int x, int y, int width, int height) {
+		return mSnapshot.findContainedBy(x, y, width, height);
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param visitor The {@link Visitor} to call with each object that contains the specified
+	 *            coordinates.
+	 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+	 */
+	public final boolean visitContains(int x, int y, Visitor<? super T> visitor) {
+		return mSnapshot.visitContains(x, y, visitor);
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @param visitor The {@link Visitor} to call with each object that intersects with the
+	 *            specified bounds.
+	 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+	 */
+	public final boolean visitIntersects(int x, int y, int width, int height, Visitor<? super T> visitor) {
+		return mSnapshot.visitIntersects(x, y, width, height, visitor);
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @param visitor The {@link Visitor} to call with each object that would be contained by the
+	 *            specified bounds.
+	 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+	 */
+	public final boolean visitContainedBy(int x, int y, int width, int height, Visitor<? super T> visitor) {
+		return mSnapshot.visitContainedBy(x, y, width, height, visitor);
+	}
+
+	static int indexOf(Object[] array, Object obj) {
+		for (int i = 0; i < array.length; i++) {
+			if (array[i].equals(obj)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/** @return A copy of the array with the object added, or the array itself if already present. */
+	static Object[] append(Object[] array, Object obj) {
+		if (indexOf(array, obj) != -1) {
+			return array;
+		}
+		Object[] result = Arrays.copyOf(array, array.length + 1);
+		result[array.length] = obj;
+		return result;
+	}
+
+	static Object[] remove(Object[] array, int index) {
+		if (array.length == 1) {
+			return EMPTY;
+		}
+		Object[] result = new Object[array.length - 1];
+		System.arraycopy(array, 0, result, 0, index);
+		System.arraycopy(array, index + 1, result, index, result.length - index);
+		return result;
+	}
+
+	/** The immutable contents of a {@link ConcurrentQuadTree} at a point in time. */
+	public static final class Snapshot<T extends Bounds> {
+		final Node<T>	mRoot;
+		final Object[]	mOutside;
+
+		Snapshot(Node<T> root, Object[] outside) {
+			mRoot = root;
+			mOutside = outside;
+		}
+
+		/**
+		 * @param x The horizontal coordinate to check.
+		 * @param y The vertical coordinate to check.
+		 * @return <code>true</code> if this {@link Snapshot} has at least one object that contains
+		 *         the specified coordinates.
+		 */
+		public boolean contains(int x, int y) {
+			return !visitContains(x, y, obj -> false);
+		}
+
+		/**
+		 * @param x The horizontal coordinate to check.
+		 * @param y The vertical coordinate to check.
+		 * @param width The width of the space to check.
+		 * @param height The height of the space to check.
+		 * @return <code>true</code> if this {@link Snapshot} has at least one object that
+		 *         intersects with the specified bounds.
+		 */
+		public boolean intersects(int x, int y, int width, int height) {
+			return !visitIntersects(x, y, width, height, obj -> false);
+		}
+
+		/**
+		 * @param x The horizontal coordinate to check.
+		 * @param y The vertical coordinate to check.
+		 * @param width The width of the space to check.
+		 * @param height The height of the space to check.
+		 * @return <code>true</code> if this {@link Snapshot} has at least one object that would be
+		 *         contained by the specified bounds.
+		 */
+		public boolean containedBy(int x, int y, int width, int height) {
+			return !visitContainedBy(x, y, width, height, obj -> false);
+		}
+
+		/** @return All objects in this {@link Snapshot}. */
+		@SuppressWarnings("unchecked")
+		public Set<T> all() {
+			Set<T> result = new HashSet<>();
+			mRoot.all(result);
+			for (Object one : mOutside) {
+				result.add((T) one);
+			}
+			return result;
+		}
+
+		/**
+		 * @param x The horizontal coordinate to check.
+		 * @param y The vertical coordinate to check.
+		 * @return All objects in this {@link Snapshot} that contain the specified coordinates.
+		 */
+		public Set<T> findContains(int x, int y) {
+			Set<T> result = new HashSet<>();
+			visitContains(x, y, collector(result));
+			return result;
+		}
+
+		/**
+		 * @param x The horizontal coordinate to check.
+		 * @param y The vertical coordinate to check.
+		 * @param width The width of the space to check.
+		 * @param height The height of the space to check.
+		 * @return All objects in this {@link Snapshot} that intersect with the specified bounds.
+		 */
+		public Set<T> findIntersects(int x, int y, int width, int height) {
+			Set<T> result = new HashSet<>();
+			visitIntersects(x, y, width, height, collector(result));
+			return result;
+		}
+
+		/**
+		 * @param x The horizontal coordinate to check.
+		 * @param y The vertical coordinate to check.
+		 * @param width The width of the space to check.
+		 * @param height The height of the space to check.
+		 * @return All objects in this {@link Snapshot} that would be contained by the specified
+		 *         bounds.
+		 */
+		public Set<T> findContainedBy(int x, int y, int width, int height) {
+			Set<T> result = new HashSet<>();
+			visitContainedBy(x, y, width, height, collector(result));
+			return result;
+		}
+
+		/**
+		 * @param x The horizontal coordinate to check.
+		 * @param y The vertical coordinate to check.
+		 * @param visitor The {@link Visitor} to call with each object that contains the specified
+		 *            coordinates.
+		 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+		 */
+		@SuppressWarnings("unchecked")
+		public boolean visitContains(int x, int y, Visitor<? super T> visitor) {
+			if (!mRoot.visitContains(x, y, visitor)) {
+				return false;
+			}
+			for (Object one : mOutside) {
+				if (((T) one).containsLocation(x, y) && !visitor.visit((T) one)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @param x The horizontal coordinate to check.
+		 * @param y The vertical coordinate to check.
+		 * @param width The width of the space to check.
+		 * @param height The height of the space to check.
+		 * @param visitor The {@link Visitor} to call with each object that intersects with the
+		 *            specified bounds.
+		 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+		 */
+		@SuppressWarnings("unchecked")
+		public boolean visitIntersects(int x, int y, int width, int height, Visitor<? super T> visitor) {
+			if (!mRoot.visitIntersects(x, y, width, height, visitor)) {
+				return false;
+			}
+			for (Object one : mOutside) {
+				if (((T) one).intersectsBounds(x, y, width, height) && !visitor.visit((T) one)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @param x The horizontal coordinate to check.
+		 * @param y The vertical coordinate to check.
+		 * @param width The width of the space to check.
+		 * @param height The height of the space to check.
+		 * @param visitor The {@link Visitor} to call with each object that would be contained by
+		 *            the specified bounds.
+		 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+		 */
+		@SuppressWarnings("unchecked")
+		public boolean visitContainedBy(int x, int y, int width, int height, Visitor<? super T> visitor) {
+			if (!mRoot.visitContainedBy(x, y, width, height, visitor)) {
+				return false;
+			}
+			for (Object one : mOutside) {
+				if (((T) one).containedBy(x, y, width, height) && !visitor.visit((T) one)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static <T> Visitor<T> collector(Set<T> result) {
+			return obj -> {
+				result.add(obj);
+				return true;
+			};
+		}
+	}
+
+	/** An immutable node. Changes return a copy, sharing any children that were not affected. */
+	static final class Node<T extends Bounds> implements Bounds {
+		private final int		mX;
+		private final int		mY;
+		private final int		mWidth;
+		private final int		mHeight;
+		private final Object[]	mContents;
+		private final Node<T>[]	mChildren;
+
+		Node(int x, int y, int width, int height, Object[] contents, Node<T>[] children) {
+			mX = x;
+			mY = y;
+			mWidth = width;
+			mHeight = height;
+			mContents = contents;
+			mChildren = children;
+		}
+
+		private Node<T> with(Object[] contents, Node<T>[] children) {
+			return new Node<>(mX, mY, mWidth, mHeight, contents, children);
+		}
+
+		@Override
+		public int getX() {
+			return mX;
+		}
+
+		@Override
+		public int getY() {
+			return mY;
+		}
+
+		@Override
+		public int getWidth() {
+			return mWidth;
+		}
+
+		@Override
+		public int getHeight() {
+			return mHeight;
+		}
+
+		Node<T> add(T obj, int threshold) {
+			if (obj.getWidth() < 1 || obj.getHeight() < 1) {
+				throw new IllegalArgumentException(MUST_HAVE_SIZE_GREATER_THAN_ZERO);
+			}
+			if (mChildren == null) {
+				// Do we have to split?
+				if (mContents.length >= threshold && mWidth > 1 && mHeight > 1) {
+					return split(threshold).add(obj, threshold);
+				}
+				return with(append(mContents, obj), null);
+			}
+			if (obj.containsBounds(this)) {
+				return with(append(mContents, obj), mChildren);
+			}
+			Node<T>[] children = mChildren.clone();
+			for (int i = 0; i < children.length; i++) {
+				if (children[i].intersectsBounds(obj)) {
+					children[i] = children[i].add(obj, threshold);
+				}
+			}
+			return with(mContents, children);
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private Node<T> split(int threshold) {
+			int hw = mWidth / 2;
+			int hh = mHeight / 2;
+			Node<T>[] children = new Node[4];
+			children[0] = new Node<>(mX, mY, hw, hh, EMPTY, null);
+			children[1] = new Node<>(mX + hw, mY, mWidth - hw, hh, EMPTY, null);
+			children[2] = new Node<>(mX, mY + hh, hw, mHeight - hh, EMPTY, null);
+			children[3] = new Node<>(mX + hw, mY + hh, mWidth - hw, mHeight - hh, EMPTY, null);
+			Node<T> node = with(EMPTY, children);
+			for (Object one : mContents) {
+				node = node.add((T) one, threshold);
+			}
+			return node;
+		}
+
+		Node<T> remove(T obj) {
+			int index = indexOf(mContents, obj);
+			if (index != -1) {
+				return with(ConcurrentQuadTree.remove(mContents, index), mChildren);
+			}
+			if (mChildren == null || !intersectsBounds(obj)) {
+				return this;
+			}
+			Node<T>[] children = null;
+			for (int i = 0; i < mChildren.length; i++) {
+				Node<T> child = mChildren[i].remove(obj);
+				if (child != mChildren[i]) {
+					if (children == null) {
+						children = mChildren.clone();
+					}
+					children[i] = child;
+				}
+			}
+			return children == null ? this : with(mContents, children);
+		}
+
+		@SuppressWarnings("unchecked")
+		void all(Set<T> result) {
+			for (Object one : mContents) {
+				result.add((T) one);
+			}
+			if (mChildren != null) {
+				for (Node<T> child : mChildren) {
+					child.all(result);
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		boolean visitContains(int x, int y, Visitor<? super T> visitor) {
+			if (containsLocation(x, y)) {
+				for (Object one : mContents) {
+					if (((T) one).containsLocation(x, y) && !visitor.visit((T) one)) {
+						return false;
+					}
+				}
+				if (mChildren != null) {
+					for (Node<T> child : mChildren) {
+						if (!child.visitContains(x, y, visitor)) {
+							return false;
+						}
+					}
+				}
+			}
+			return true;
+		}
+
+		@SuppressWarnings("unchecked")
+		boolean visitIntersects(int x, int y, int width, int height, Visitor<? super T> visitor) {
+			if (intersectsBounds(x, y, width, height)) {
+				for (Object one : mContents) {
+					T obj = (T) one;
+					// As in QuadTree, an object that spans several nodes is only reported by the one
+					// holding the top-left corner of its overlap with the query.
+					if (obj.intersectsBounds(x, y, width, height) && containsLocation(Math.max(obj.getX(), x), Math.max(obj.getY(), y)) && !visitor.visit(obj)) {
+						return false;
+					}
+				}
+				if (mChildren != null) {
+					for (Node<T> child : mChildren) {
+						if (!child.visitIntersects(x, y, width, height, visitor)) {
+							return false;
+						}
+					}
+				}
+			}
+			return true;
+		}
+
+		@SuppressWarnings("unchecked")
+		boolean visitContainedBy(int x, int y, int width, int height, Visitor<? super T> visitor) {
+			if (intersectsBounds(x, y, width, height)) {
+				for (Object one : mContents) {
+					T obj = (T) one;
+					if (obj.containedBy(x, y, width, height) && containsLocation(obj.getX(), obj.getY()) && !visitor.visit(obj)) {
+						return false;
+					}
+				}
+				if (mChildren != null) {
+					for (Node<T> child : mChildren) {
+						if (!child.visitContainedBy(x, y, width, height, visitor)) {
+							return false;
+						}
+					}
+				}
+			}
+			return true;
+		}
+	}
+}
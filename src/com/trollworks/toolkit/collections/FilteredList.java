@@ -14,7 +14,9 @@ package com.trollworks.toolkit.collections;
 import java.util.ArrayList;
 
 /**
- * A list that filters an {@link Iterable} to only contain objects of a specific type.
+ * A list that filters an {@link Iterable} to only contain objects of a specific type. This is a
+ * copy made at construction time; use {@link FilteredListView} for a view that follows changes to
+ * its source, or {@link FilteredIterator} when the result only needs to be iterated once.
  *
  * @param <T> The type of object the list should contain.
  */
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 1998-2014 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.collections;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A live, read-only view of the objects of a specific type within another {@link List}. Unlike
+ * {@link FilteredList}, no copy of the matching objects is made; instead, the view tracks where
+ * they are within the source list, so {@link #size()} and {@link #get(int)} take constant time.
+ * <p>
+ * Since a {@link List} cannot report its own changes, whoever modifies the source list must tell
+ * the view about it via {@link #sourceInserted(int, int)}, {@link #sourceRemoved(int, int)} or
+ * {@link #sourceChanged(int)}, which only re-examine the affected part of the source. Arbitrary
+ * changes can be handled with {@link #refresh()}. The source list should support fast random
+ * access.
+ *
+ * @param <T> The type of object the view should contain.
+ */
+public class FilteredListView<T> extends AbstractList<T> implements RandomAccess {
+	private List<?>		mSource;
+	private Class<T>	mContentClass;
+	private boolean		mOmitNulls;
+	private int[]		mIndexes;
+	private int			mSize;
+
+	/**
+	 * Creates a new {@link FilteredListView}. Will not include <code>null</code> values.
+	 *
+	 * @param source The {@link List} to filter by type.
+	 * @param contentClass The class of objects to extract from the list.
+	 */
+	public FilteredListView(List<?> source, Class<T> contentClass) {
+		this(source, contentClass, true);
+	}
+
+	/**
+	 * Creates a new {@link FilteredListView}.
+	 *
+	 * @param source The {@link List} to filter by type.
+	 * @param contentClass The class of objects to extract from the list.
+	 * @param omitNulls Whether to omit <code>null</code> values or not.
+	 */
+	public FilteredListView(List<?> source, Class<T> contentClass, boolean omitNulls) {
+		mSource = source;
+		mContentClass = contentClass;
+		mOmitNulls = omitNulls;
+		mIndexes = new int[16];
+		refresh();
+	}
+
+	@Override
+	public T get(int index) {
+		return mContentClass.cast(mSource.get(getSourceIndex(index)));
+	}
+
+	@Override
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * @param index An index within this view.
+	 * @return The index of the same object within the source list.
+	 */
+	public int getSourceIndex(int index) {
+		if (index < 0 || index >= mSize) {
+			throw new IndexOutOfBoundsException(Integer.toString(index));
+		}
+		return mIndexes[index];
+	}
+
+	/** Re-examines the entire source list. */
+	public void refresh() {
+		int count = mSource.size();
+		mSize = 0;
+		for (int i = 0; i < count; i++) {
+			if (accepts(mSource.get(i))) {
+				append(i);
+			}
+		}
+		modCount++;
+	}
+
+	/**
+	 * Must be called after objects have been inserted into the source list.
+	 *
+	 * @param index The index within the source list of the first inserted object.
+	 * @param count The number of objects that were inserted.
+	 */
+	public void sourceInserted(int index, int count) {
+		int pos = position(index);
+		int matches = 0;
+		for (int i = 0; i < count; i++) {
+			if (accepts(mSource.get(index + i))) {
+				matches++;
+			}
+		}
+		for (int i = pos; i < mSize; i++) {
+			mIndexes[i] += count;
+		}
+		if (matches > 0) {
+			openGap(pos, matches);
+			for (int i = 0; i < count; i++) {
+				if (accepts(mSource.get(index + i))) {
+					mIndexes[pos++] = index + i;
+				}
+			}
+		}
+		modCount++;
+	}
+
+	/**
+	 * Must be called after objects have been removed from the source list.
+	 *
+	 * @param index The index within the source list of the first removed object.
+	 * @param count The number of objects that were removed.
+	 */
+	public void sourceRemoved(int index, int count) {
+		int start = position(index);
+		int end = position(index + count);
+		System.arraycopy(mIndexes, end, mIndexes, start, mSize - end);
+		mSize -= end - start;
+		for (int i = start; i < mSize; i++) {
+			mIndexes[i] -= count;
+		}
+		modCount++;
+	}
+
+	/**
+	 * Must be called after an object within the source list has been replaced.
+	 *
+	 * @param index The index within the source list of the replaced object.
+	 */
+	public void sourceChanged(int index) {
+		int pos = position(index);
+		boolean present = pos < mSize && mIndexes[pos] == index;
+		if (accepts(mSource.get(index))) {
+			if (!present) {
+				openGap(pos, 1);
+				mIndexes[pos] = index;
+				modCount++;
+			}
+		} else if (present) {
+			System.arraycopy(mIndexes, pos + 1, mIndexes, pos, mSize - pos - 1);
+			mSize--;
+			modCount++;
+		}
+	}
+
+	private boolean accepts(Object obj) {
+		return obj == null ? !mOmitNulls : mContentClass.isInstance(obj);
+	}
+
+	private void append(int sourceIndex) {
+		if (mSize == mIndexes.length) {
+			mIndexes = Arrays.copyOf(mIndexes, mSize * 2);
+		}
+		mIndexes[mSize++] = sourceIndex;
+	}
+
+	private void openGap(int pos, int count) {
+		if (mSize + count > mIndexes.length) {
+			mIndexes = Arrays.copyOf(mIndexes, Math.max(mSize + count, mIndexes.length * 2));
+		}
+		System.arraycopy(mIndexes, pos, mIndexes, pos + count, mSize - pos);
+		mSize += count;
+	}
+
+	/** @return The position of the first tracked source index that is at least the one given. */
+	private int position(int sourceIndex) {
+		int pos = Arrays.binarySearch(mIndexes, 0, mSize, sourceIndex);
+		return pos < 0 ? -(pos + 1) : pos;
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 1998-2014 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.collections;
+
+/**
+ * An approximate count of how often keys have been seen recently, used by {@link ConcurrentCache}
+ * to decide whether a new entry is worth more than the one it would evict. Counts are held as
+ * 4-bit values in a count-min sketch and are periodically halved, so older activity fades away.
+ * Updates are not synchronized; the occasional lost increment under contention is harmless.
+ */
+final class FrequencySketch {
+	private static final int[]	SEEDS	= { 0x97CB3127, 0xB8A5C9D3, 0x5B9A7E8D, 0xC2B2AE35 };
+	private volatile int[]		mTable	= new int[16];
+	private int					mAdditions;
+
+	/**
+	 * Grows the sketch, if needed, to track about the specified number of keys accurately. Any
+	 * counts gathered so far are discarded when it grows.
+	 *
+	 * @param count The number of keys.
+	 */
+	void ensureCapacity(int count) {
+		if (count > mTable.length && mTable.length < 1 << 30) {
+			mTable = new int[Integer.highestOneBit(Math.min(count, 1 << 29) - 1) << 1];
+			mAdditions = 0;
+		}
+	}
+
+	/** @param hash The hash of the key that was seen. */
+	void increment(int hash) {
+		int[] table = mTable;
+		boolean added = false;
+		for (int i = 0; i < SEEDS.length; i++) {
+			int h = rehash(hash, i);
+			int index = h & table.length - 1;
+			int shift = (h >>> 29) << 2;
+			int value = table[index];
+			if ((value >>> shift & 0xF) != 0xF) {
+				table[index] = value + (1 << shift);
+				added = true;
+			}
+		}
+		// Sample over ten times as many additions as there are counters per row, then age.
+		if (added && ++mAdditions >= table.length * 10) {
+			mAdditions = 0;
+			for (int i = 0; i < table.length; i++) {
+				table[i] = table[i] >>> 1 & 0x77777777;
+			}
+		}
+	}
+
+	/**
+	 * @param hash The hash of the key.
+	 * @return The estimated number of times the key was seen recently, from 0 to 15.
+	 */
+	int frequency(int hash) {
+		int[] table = mTable;
+		int frequency = 0xF;
+		for (int i = 0; i < SEEDS.length; i++) {
+			int h = rehash(hash, i);
+			frequency = Math.min(frequency, table[h & table.length - 1] >>> ((h >>> 29) << 2) & 0xF);
+		}
+		return frequency;
+	}
+
+	private static int rehash(int hash, int i) {
+		int h = (hash ^ SEEDS[i]) * 0x9E3779B1;
+		return h ^ h >>> 15;
+	}
+}
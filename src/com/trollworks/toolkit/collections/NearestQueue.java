@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 1998-2014 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.collections;
+
+import java.util.Arrays;
+
+/**
+ * A priority queue of the candidates for a nearest-neighbour search, ordered from nearest to
+ * farthest. Candidates are kept in parallel arrays, so adding one does not allocate.
+ */
+final class NearestQueue {
+	private double[]	mDistances	= new double[32];
+	private Object[]	mObjects	= new Object[32];
+	private int[]		mTypes		= new int[32];
+	private int			mSize;
+
+	/**
+	 * @param x The horizontal coordinate of the point.
+	 * @param y The vertical coordinate of the point.
+	 * @param left The left edge of the area.
+	 * @param top The top edge of the area.
+	 * @param right The right edge of the area.
+	 * @param bottom The bottom edge of the area.
+	 * @return The square of the distance from the point to the nearest part of the area, which is
+	 *         zero if the point is within it.
+	 */
+	static double distanceSquared(double x, double y, double left, double top, double right, double bottom) {
+		double dx = x < left ? left - x : x > right ? x - right : 0;
+		double dy = y < top ? top - y : y > bottom ? y - bottom : 0;
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * @param distance The distance to the candidate. Any value that increases with the distance,
+	 *            such as its square, may be used.
+	 * @param obj The candidate.
+	 * @param type A value that identifies what kind of candidate this is.
+	 */
+	void add(double distance, Object obj, int type) {
+		if (mSize == mDistances.length) {
+			int length = mSize * 2;
+			mDistances = Arrays.copyOf(mDistances, length);
+			mObjects = Arrays.copyOf(mObjects, length);
+			mTypes = Arrays.copyOf(mTypes, length);
+		}
+		int index = mSize++;
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (mDistances[parent] <= distance) {
+				break;
+			}
+			move(parent, index);
+			index = parent;
+		}
+		mDistances[index] = distance;
+		mObjects[index] = obj;
+		mTypes[index] = type;
+	}
+
+	/** @return <code>true</code> if there are no candidates left. */
+	boolean isEmpty() {
+		return mSize == 0;
+	}
+
+	/** @return The distance to the nearest candidate. */
+	double distance() {
+		return mDistances[0];
+	}
+
+	/** @return The nearest candidate. */
+	Object object() {
+		return mObjects[0];
+	}
+
+	/** @return The type of the nearest candidate. */
+	int type() {
+		return mTypes[0];
+	}
+
+	/** Removes the nearest candidate. */
+	void remove() {
+		int last = --mSize;
+		double distance = mDistances[last];
+		Object obj = mObjects[last];
+		int type = mTypes[last];
+		mObjects[last] = null;
+		int index = 0;
+		int half = last >>> 1;
+		while (index < half) {
+			int child = 2 * index + 1;
+			if (child + 1 < last && mDistances[child + 1] < mDistances[child]) {
+				child++;
+			}
+			if (distance <= mDistances[child]) {
+				break;
+			}
+			move(child, index);
+			index = child;
+		}
+		if (last > 0) {
+			mDistances[index] = distance;
+			mObjects[index] = obj;
+			mTypes[index] = type;
+		}
+	}
+
+	private void move(int from, int to) {
+		mDistances[to] = mDistances[from];
+		mObjects[to] = mObjects[from];
+		mTypes[to] = mTypes[from];
+	}
+}
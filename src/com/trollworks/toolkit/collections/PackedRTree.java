@@ -0,0 +1,894 @@
+/*
+ * Copyright (c) 1998-2014 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.collections;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Provides a read-only R-tree of rectangular areas that is built in a single pass from a known set
+ * of objects. Objects are ordered along a Hilbert curve and packed into full nodes, and the bounds
+ * of every object and node are held in a single flat <code>int</code> array, so the tree loads
+ * much faster and uses far less memory than {@link QuadTree} or {@link AreaTree} for large, static
+ * sets of objects. Its queries follow the same semantics as those of {@link QuadTree}.
+ * <p>
+ * The bounds of each object are captured when the tree is built; later changes to them are not
+ * seen by the tree.
+ */
+public class PackedRTree<T extends Bounds> {
+	/** The default number of children held by each node. */
+	public static final int			DEFAULT_NODE_SIZE	= 16;
+	private static final int		MODE_CONTAINS		= 0;
+	private static final int		MODE_INTERSECTS		= 1;
+	private static final int		MODE_CONTAINED_BY	= 2;
+	private static final int		HILBERT_MAX			= (1 << 16) - 1;
+	private static final Visitor<?>	STOP				= obj -> false;
+	private final int				mNodeSize;
+	private final Object[]			mObjects;
+	private final int[]				mBoxes;
+	private final int[]				mLevelStarts;
+
+	/**
+	 * Creates a new {@link PackedRTree} with a node size of {@link #DEFAULT_NODE_SIZE}.
+	 *
+	 * @param objects The objects to place in the tree.
+	 */
+	public PackedRTree(Collection<? extends T> objects) {
+		this(objects, DEFAULT_NODE_SIZE);
+	}
+
+	/**
+	 * Creates a new {@link PackedRTree}.
+	 *
+	 * @param objects The objects to place in the tree.
+	 * @param nodeSize The number of children held by each node. Values less than 2 are treated as
+	 *            2.
+	 */
+	public PackedRTree(Collection<? extends T> objects, int nodeSize) {
+		mNodeSize = Math.max(nodeSize, 2);
+		Object[] input = objects.toArray();
+		int count = input.length;
+		int total = count;
+		int levels = 1;
+		int levelCount = count;
+		while (levelCount > 1 || levels == 1 && count > 0) {
+			levelCount = (levelCount + mNodeSize - 1) / mNodeSize;
+			total += levelCount;
+			levels++;
+		}
+		mLevelStarts = new int[levels + 1];
+		mBoxes = new int[total * 4];
+		mObjects = new Object[count];
+		if (count > 0) {
+			sortAlongHilbertCurve(input);
+			pack();
+		}
+	}
+
+	private void sortAlongHilbertCurve(Object[] input) {
+		int count = input.length;
+		int[] boxes = new int[count * 4];
+		int minX = Integer.MAX_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE;
+		int maxY = Integer.MIN_VALUE;
+		for (int i = 0; i < count; i++) {
+			Bounds one = (Bounds) input[i];
+			int x = one.getX();
+			int y = one.getY();
+			int j = i * 4;
+			boxes[j] = x;
+			boxes[j + 1] = y;
+			boxes[j + 2] = x + one.getWidth();
+			boxes[j + 3] = y + one.getHeight();
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+		}
+		long width = Math.max((long) maxX - minX, 1);
+		long height = Math.max((long) maxY - minY, 1);
+		long[] keys = new long[count];
+		for (int i = 0; i < count; i++) {
+			int j = i * 4;
+			long cx = (boxes[j] + (long) Math.max(boxes[j + 2], boxes[j])) / 2;
+			long cy = (boxes[j + 1] + (long) Math.max(boxes[j + 3], boxes[j + 1])) / 2;
+			int hx = (int) (Math.min(Math.max(cx - minX, 0), width) * HILBERT_MAX / width);
+			int hy = (int) (Math.min(Math.max(cy - minY, 0), height) * HILBERT_MAX / height);
+			// The index needs only 31 bits, leaving room for the unsigned curve position above it
+			// without touching the sign bit, so the keys sort in curve order.
+			keys[i] = (hilbert(hx, hy) & 0xFFFFFFFFL) << 31 | i;
+		}
+		Arrays.sort(keys);
+		for (int i = 0; i < count; i++) {
+			int index = (int) (keys[i] & Integer.MAX_VALUE);
+			mObjects[i] = input[index];
+			System.arraycopy(boxes, index * 4, mBoxes, i * 4, 4);
+		}
+	}
+
+	/** Fills in the bounds of each level of nodes from the level beneath it. */
+	private void pack() {
+		int start = 0;
+		int end = mObjects.length;
+		int levels = mLevelStarts.length - 1;
+		for (int level = 1; level < levels; level++) {
+			mLevelStarts[level] = end;
+			int node = end;
+			for (int child = start; child < end; child += mNodeSize) {
+				int minX = Integer.MAX_VALUE;
+				int minY = Integer.MAX_VALUE;
+				int maxX = Integer.MIN_VALUE;
+				int maxY = Integer.MIN_VALUE;
+				int last = Math.min(child + mNodeSize, end);
+				for (int i = child; i < last; i++) {
+					int j = i * 4;
+					minX = Math.min(minX, mBoxes[j]);
+					minY = Math.min(minY, mBoxes[j + 1]);
+					// Degenerate bounds still have a location, which must stay inside the node.
+					maxX = Math.max(maxX, Math.max(mBoxes[j + 2], mBoxes[j]));
+					maxY = Math.max(maxY, Math.max(mBoxes[j + 3], mBoxes[j + 1]));
+				}
+				int j = node++ * 4;
+				mBoxes[j] = minX;
+				mBoxes[j + 1] = minY;
+				mBoxes[j + 2] = maxX;
+				mBoxes[j + 3] = maxY;
+			}
+			start = end;
+			end = node;
+		}
+		mLevelStarts[levels] = end;
+	}
+
+	/**
+	 * @param x The horizontal position, from 0 to 65535.
+	 * @param y The vertical position, from 0 to 65535.
+	 * @return The distance along a Hilbert curve covering a 65536 by 65536 grid.
+	 */
+	private static int hilbert(int x, int y) {
+		int a = x ^ y;
+		int b = 0xFFFF ^ a;
+		int c = 0xFFFF ^ (x | y);
+		int d = x & (y ^ 0xFFFF);
+
+		int ta = a | b >> 1;
+		int tb = a >> 1 ^ a;
+		int tc = c >> 1 ^ b & d >> 1 ^ c;
+		int td = a & c >> 1 ^ d >> 1 ^ d;
+
+		a = ta;
+		b = tb;
+		c = tc;
+		d = td;
+		ta = a & a >> 2 ^ b & b >> 2;
+		tb = a & b >> 2 ^ b & (a ^ b) >> 2;
+		tc ^= a & c >> 2 ^ b & d >> 2;
+		td ^= b & c >> 2 ^ (a ^ b) & d >> 2;
+
+		a = ta;
+		b = tb;
+		c = tc;
+		d = td;
+		ta = a & a >> 4 ^ b & b >> 4;
+		tb = a & b >> 4 ^ b & (a ^ b) >> 4;
+		tc ^= a & c >> 4 ^ b & d >> 4;
+		td ^= b & c >> 4 ^ (a ^ b) & d >> 4;
+
+		a = ta;
+		b = tb;
+		c = tc;
+		d = td;
+		tc ^= a & c >> 8 ^ b & d >> 8;
+		td ^= b & c >> 8 ^ (a ^ b) & d >> 8;
+
+		a = tc ^ tc >> 1;
+		b = td ^ td >> 1;
+
+		int i0 = x ^ y;
+		int i1 = b | 0xFFFF ^ (i0 | a);
+
+		i0 = (i0 | i0 << 8) & 0x00FF00FF;
+		i0 = (i0 | i0 << 4) & 0x0F0F0F0F;
+		i0 = (i0 | i0 << 2) & 0x33333333;
+		i0 = (i0 | i0 << 1) & 0x55555555;
+
+		i1 = (i1 | i1 << 8) & 0x00FF00FF;
+		i1 = (i1 | i1 << 4) & 0x0F0F0F0F;
+		i1 = (i1 | i1 << 2) & 0x33333333;
+		i1 = (i1 | i1 << 1) & 0x55555555;
+
+		return i1 << 1 | i0;
+	}
+
+	/** @return The number of objects in this {@link PackedRTree}. */
+	public final int size() {
+		return mObjects.length;
+	}
+
+	/** @return <code>true</code> if this {@link PackedRTree} contains no objects. */
+	public final boolean isEmpty() {
+		return mObjects.length == 0;
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @return <code>true</code> if this {@link PackedRTree} has at least one object that contains
+	 *         the specified coordinates.
+	 */
+	public final boolean contains(int x, int y) {
+		return !search(MODE_CONTAINS, x, y, 1, 1, stop());
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return <code>true</code> if this {@link PackedRTree} has at least one object that contains
+	 *         the specified coordinates and passes the {@link Matcher}'s test.
+	 */
+	public final boolean contains(int x, int y, Matcher<T> matcher) {
+		return !search(MODE_CONTAINS, x, y, 1, 1, stop(matcher));
+	}
+
+	/**
+	 * @param bounds The bounds to check.
+	 * @return <code>true</code> if this {@link PackedRTree} has at least one object that intersects
+	 *         with the specified bounds.
+	 */
+	public final boolean intersects(Rectangle bounds) {
+		return intersects(bounds.x, bounds.y, bounds.width, bounds.height);
+	}
+
+	/**
+	 * @param bounds The bounds to check.
+	 * @return <code>true</code> if this {@link PackedRTree} has at least one object that intersects
+	 *         with the specified bounds.
+	 */
+	public final boolean intersects(Bounds bounds) {
+		return intersects(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight());
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @return <code>true</code> if this {@link PackedRTree} has at least one object that intersects
+	 *         with the specified bounds.
+	 */
+	public final boolean intersects(int x, int y, int width, int height) {
+		return !search(MODE_INTERSECTS, x, y, width, height, stop());
+	}
+
+	/**
+	 * @param bounds The bounds to check.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return <code>true</code> if this {@link PackedRTree} has at least one object that intersects
+	 *         with the specified bounds and passes the {@link Matcher}'s test.
+	 */
+	public final boolean intersects(Rectangle bounds, Matcher<T> matcher) {
+		return intersects(bounds.x, bounds.y, bounds.width, bounds.height, matcher);
+	}
+
+	/**
+	 * @param bounds The bounds to check.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return <code>true</code> if this {@link PackedRTree} has at least one object that intersects
+	 *         with the specified bounds and passes the {@link Matcher}'s test.
+	 */
+	public final boolean intersects(Bounds bounds, Matcher<T> matcher) {
+		return intersects(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight(), matcher);
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return <code>true</code> if this {@link PackedRTree} has at least one object that intersects
+	 *         with the specified bounds and passes the {@link Matcher}'s test.
+	 */
+	public final boolean intersects(int x, int y, int width, int height, Matcher<T> matcher) {
+		return !search(MODE_INTERSECTS, x, y, width, height, stop(matcher));
+	}
+
+	/**
+	 * @param bounds The bounds to check.
+	 * @return <code>true</code> if this {@link PackedRTree} has at least one object that would be
+	 *         contained by the specified bounds.
+	 */
+	public final boolean containedBy(Rectangle bounds) {
+		return containedBy(bounds.x, bounds.y, bounds.width, bounds.height);
+	}
+
+	/**
+	 * @param bounds The bounds to check.
+	 * @return <code>true</code> if this {@link PackedRTree} has at least one object that would be
+	 *         contained by the specified bounds.
+	 */
+	public final boolean containedBy(Bounds bounds) {
+		return containedBy(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight());
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @return <code>true</code> if this {@link PackedRTree} has at least one object that would be
+	 *         contained by the specified bounds.
+	 */
+	public final boolean containedBy(int x, int y, int width, int height) {
+		return !search(MODE_CONTAINED_BY, x, y, width, height, stop());
+	}
+
+	/**
+	 * @param bounds The bounds to check.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return <code>true</code> if this {@link PackedRTree} has at least one object that would be
+	 *         contained by the specified bounds and passes the {@link Matcher}'s test.
+	 */
+	public final boolean containedBy(Rectangle bounds, Matcher<T> matcher) {
+		return containedBy(bounds.x, bounds.y, bounds.width, bounds.height, matcher);
+	}
+
+	/**
+	 * @param bounds The bounds to check.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return <code>true</code> if this {@link PackedRTree} has at least one object that would be
+	 *         contained by the specified bounds and passes the {@link Matcher}'s test.
+	 */
+	public final boolean containedBy(Bounds bounds, Matcher<T> matcher) {
+		return containedBy(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight(), matcher);
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return <code>true</code> if this {@link PackedRTree} has at least one object that would be
+	 *         contained by the specified bounds and passes the {@link Matcher}'s test.
+	 */
+	public final boolean containedBy(int x, int y, int width, int height, Matcher<T> matcher) {
+		return !search(MODE_CONTAINED_BY, x, y, width, height, stop(matcher));
+	}
+
+	/** @return All objects in this {@link PackedRTree}. */
+	public final Set<T> all() {
+		Set<T> result = new HashSet<>();
+		for (int i = 0; i < mObjects.length; i++) {
+			result.add(get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return All objects in this {@link PackedRTree} that pass the {@link Matcher}'s test.
+	 */
+	public final Set<T> all(Matcher<T> matcher) {
+		Set<T> result = new HashSet<>();
+		for (int i = 0; i < mObjects.length; i++) {
+			T one = get(i);
+			if (matcher.matches(one)) {
+				result.add(one);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @return All objects in this {@link PackedRTree} that contain the specified coordinates.
+	 */
+	public final Set<T> findContains(int x, int y) {
+		Set<T> result = new HashSet<>();
+		findContains(x, y, result);
+		return result;
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return All objects in this {@link PackedRTree} that contain the specified coordinates and
+	 *         pass the {@link Matcher}'s test.
+	 */
+	public final Set<T> findContains(int x, int y, Matcher<T> matcher) {
+		Set<T> result = new HashSet<>();
+		search(MODE_CONTAINS, x, y, 1, 1, collector(result, matcher));
+		return result;
+	}
+
+	/**
+	 * Adds all objects in this {@link PackedRTree} that contain the specified coordinates to a
+	 * collection supplied by the caller, which may be reused between queries.
+	 *
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param result The collection to add the objects to.
+	 */
+	public final void findContains(int x, int y, Collection<? super T> result) {
+		search(MODE_CONTAINS, x, y, 1, 1, collector(result, null));
+	}
+
+	/**
+	 * Hands each object in this {@link PackedRTree} that contains the specified coordinates to a
+	 * {@link Visitor}, stopping early if the {@link Visitor} asks for it.
+	 *
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param visitor The {@link Visitor} to call.
+	 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+	 */
+	public final boolean visitContains(int x, int y, Visitor<? super T> visitor) {
+		return search(MODE_CONTAINS, x, y, 1, 1, visitor);
+	}
+
+	/**
+	 * @param bounds The bounds to check.
+	 * @return All objects in this {@link PackedRTree} that intersect with the specified bounds.
+	 */
+	public final Set<T> findIntersects(Rectangle bounds) {
+		return findIntersects(bounds.x, bounds.y, bounds.width, bounds.height);
+	}
+
+	/**
+	 * @param bounds The bounds to check.
+	 * @return All objects in this {@link PackedRTree} that intersect with the specified bounds.
+	 */
+	public final Set<T> findIntersects(Bounds bounds) {
+		return findIntersects(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight());
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @return All objects in this {@link PackedRTree} that intersect with the specified bounds.
+	 */
+	public final Set<T> findIntersects(int x, int y, int width, int height) {
+		Set<T> result = new HashSet<>();
+		findIntersects(x, y, width, height, result);
+		return result;
+	}
+
+	/**
+	 * @param bounds The bounds to check.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return All objects in this {@link PackedRTree} that intersect with the specified bounds
+	 *         and pass the {@link Matcher}'s test.
+	 */
+	public final Set<T> findIntersects(Rectangle bounds, Matcher<T> matcher) {
+		return findIntersects(bounds.x, bounds.y, bounds.width, bounds.height, matcher);
+	}
+
+	/**
+	 * @param bounds The bounds to check.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return All objects in this {@link PackedRTree} that intersect with the specified bounds
+	 *         and pass the {@link Matcher}'s test.
+	 */
+	public final Set<T> findIntersects(Bounds bounds, Matcher<T> matcher) {
+		return findIntersects(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight(), matcher);
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return All objects in this {@link PackedRTree} that intersect with the specified bounds
+	 *         and pass the {@link Matcher}'s test.
+	 */
+	public final Set<T> findIntersects(int x, int y, int width, int height, Matcher<T> matcher) {
+		Set<T> result = new HashSet<>();
+		search(MODE_INTERSECTS, x, y, width, height, collector(result, matcher));
+		return result;
+	}
+
+	/**
+	 * Adds all objects in this {@link PackedRTree} that intersect with the specified bounds to a
+	 * collection supplied by the caller, which may be reused between queries.
+	 *
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @param result The collection to add the objects to.
+	 */
+	public final void findIntersects(int x, int y, int width, int height, Collection<? super T> result) {
+		search(MODE_INTERSECTS, x, y, width, height, collector(result, null));
+	}
+
+	/**
+	 * Hands each object in this {@link PackedRTree} that intersects with the specified bounds to a
+	 * {@link Visitor}, stopping early if the {@link Visitor} asks for it.
+	 *
+	 * @param bounds The bounds to check.
+	 * @param visitor The {@link Visitor} to call.
+	 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+	 */
+	public final boolean visitIntersects(Rectangle bounds, Visitor<? super T> visitor) {
+		return visitIntersects(bounds.x, bounds.y, bounds.width, bounds.height, visitor);
+	}
+
+	/**
+	 * Hands each object in this {@link PackedRTree} that intersects with the specified bounds to a
+	 * {@link Visitor}, stopping early if the {@link Visitor} asks for it.
+	 *
+	 * @param bounds The bounds to check.
+	 * @param visitor The {@link Visitor} to call.
+	 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+	 */
+	public final boolean visitIntersects(Bounds bounds, Visitor<? super T> visitor) {
+		return visitIntersects(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight(), visitor);
+	}
+
+	/**
+	 * Hands each object in this {@link PackedRTree} that intersects with the specified bounds to a
+	 * {@link Visitor}, stopping early if the {@link Visitor} asks for it.
+	 *
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @param visitor The {@link Visitor} to call.
+	 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+	 */
+	public final boolean visitIntersects(int x, int y, int width, int height, Visitor<? super T> visitor) {
+		return search(MODE_INTERSECTS, x, y, width, height, visitor);
+	}
+
+	/**
+	 * @param bounds The bounds to check.
+	 * @return All objects in this {@link PackedRTree} that would be contained by the specified bounds.
+	 */
+	public final Set<T> findContainedBy(Rectangle bounds) {
+		return findContainedBy(bounds.x, bounds.y, bounds.width, bounds.height);
+	}
+
+	/**
+	 * @param bounds The bounds to check.
+	 * @return All objects in this {@link PackedRTree} that would be contained by the specified bounds.
+	 */
+	public final Set<T> findContainedBy(Bounds bounds) {
+		return findContainedBy(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight());
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @return All objects in this {@link PackedRTree} that would be contained by the specified bounds.
+	 */
+	public final Set<T> findContainedBy(int x, int y, int width, int height) {
+		Set<T> result = new HashSet<>();
+		findContainedBy(x, y, width, height, result);
+		return result;
+	}
+
+	/**
+	 * @param bounds The bounds to check.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return All objects in this {@link PackedRTree} that would be contained by the specified bounds
+	 *         and pass the {@link Matcher}'s test.
+	 */
+	public final Set<T> findContainedBy(Rectangle bounds, Matcher<T> matcher) {
+		return findContainedBy(bounds.x, bounds.y, bounds.width, bounds.height, matcher);
+	}
+
+	/**
+	 * @param bounds The bounds to check.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return All objects in this {@link PackedRTree} that would be contained by the specified bounds
+	 *         and pass the {@link Matcher}'s test.
+	 */
+	public final Set<T> findContainedBy(Bounds bounds, Matcher<T> matcher) {
+		return findContainedBy(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight(), matcher);
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return All objects in this {@link PackedRTree} that would be contained by the specified bounds
+	 *         and pass the {@link Matcher}'s test.
+	 */
+	public final Set<T> findContainedBy(int x, int y, int width, int height, Matcher<T> matcher) {
+		Set<T> result = new HashSet<>();
+		search(MODE_CONTAINED_BY, x, y, width, height, collector(result, matcher));
+		return result;
+	}
+
+	/**
+	 * Adds all objects in this {@link PackedRTree} that would be contained by the specified bounds to a
+	 * collection supplied by the caller, which may be reused between queries.
+	 *
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @param result The collection to add the objects to.
+	 */
+	public final void findContainedBy(int x, int y, int width, int height, Collection<? super T> result) {
+		search(MODE_CONTAINED_BY, x, y, width, height, collector(result, null));
+	}
+
+	/**
+	 * Hands each object in this {@link PackedRTree} that would be contained by the specified bounds to a
+	 * {@link Visitor}, stopping early if the {@link Visitor} asks for it.
+	 *
+	 * @param bounds The bounds to check.
+	 * @param visitor The {@link Visitor} to call.
+	 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+	 */
+	public final boolean visitContainedBy(Rectangle bounds, Visitor<? super T> visitor) {
+		return visitContainedBy(bounds.x, bounds.y, bounds.width, bounds.height, visitor);
+	}
+
+	/**
+	 * Hands each object in this {@link PackedRTree} that would be contained by the specified bounds to a
+	 * {@link Visitor}, stopping early if the {@link Visitor} asks for it.
+	 *
+	 * @param bounds The bounds to check.
+	 * @param visitor The {@link Visitor} to call.
+	 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+	 */
+	public final boolean visitContainedBy(Bounds bounds, Visitor<? super T> visitor) {
+		return visitContainedBy(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight(), visitor);
+	}
+
+	/**
+	 * Hands each object in this {@link PackedRTree} that would be contained by the specified bounds to a
+	 * {@link Visitor}, stopping early if the {@link Visitor} asks for it.
+	 *
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @param visitor The {@link Visitor} to call.
+	 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+	 */
+	public final boolean visitContainedBy(int x, int y, int width, int height, Visitor<? super T> visitor) {
+		return search(MODE_CONTAINED_BY, x, y, width, height, visitor);
+	}
+
+	/**
+	 * @param circle The area to check.
+	 * @return All objects in this {@link PackedRTree} that overlap the {@link Circle}.
+	 */
+	public final Set<T> findWithin(Circle circle) {
+		Set<T> result = new HashSet<>();
+		visitWithin(circle, collector(result, null));
+		return result;
+	}
+
+	/**
+	 * @param circle The area to check.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return All objects in this {@link PackedRTree} that overlap the {@link Circle} and pass the
+	 *         {@link Matcher}'s test.
+	 */
+	public final Set<T> findWithin(Circle circle, Matcher<T> matcher) {
+		Set<T> result = new HashSet<>();
+		visitWithin(circle, collector(result, matcher));
+		return result;
+	}
+
+	/**
+	 * Hands each object in this {@link PackedRTree} that overlaps the {@link Circle} to a
+	 * {@link Visitor}, stopping early if the {@link Visitor} asks for it.
+	 *
+	 * @param circle The area to check.
+	 * @param visitor The {@link Visitor} to call.
+	 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+	 */
+	public final boolean visitWithin(Circle circle, Visitor<? super T> visitor) {
+		if (mObjects.length == 0) {
+			return true;
+		}
+		double x = circle.getCenterX();
+		double y = circle.getCenterY();
+		double radius = circle.getRadius();
+		double radiusSquared = radius * radius;
+		int level = mLevelStarts.length - 2;
+		return distanceSquared(x, y, mLevelStarts[level]) > radiusSquared || visitWithin(level, mLevelStarts[level], x, y, radiusSquared, visitor);
+	}
+
+	private boolean visitWithin(int level, int node, double x, double y, double radiusSquared, Visitor<? super T> visitor) {
+		int levelStart = mLevelStarts[level];
+		int child = mLevelStarts[level - 1] + (node - levelStart) * mNodeSize;
+		int end = Math.min(child + mNodeSize, levelStart);
+		for (; child < end; child++) {
+			if (distanceSquared(x, y, child) <= radiusSquared) {
+				if (level == 1) {
+					if (hasArea(child) && !visitor.visit(get(child))) {
+						return false;
+					}
+				} else if (!visitWithin(level - 1, child, x, y, radiusSquared, visitor)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param circle The area to check. Use a radius of {@link Double#POSITIVE_INFINITY} to
+	 *            consider every object.
+	 * @param count The maximum number of objects to return.
+	 * @return Up to <code>count</code> objects in this {@link PackedRTree} that overlap the
+	 *         {@link Circle}, nearest to its center first.
+	 */
+	public final List<T> findNearest(Circle circle, int count) {
+		return findNearest(circle, count, null);
+	}
+
+	/**
+	 * @param circle The area to check. Use a radius of {@link Double#POSITIVE_INFINITY} to
+	 *            consider every object.
+	 * @param count The maximum number of objects to return.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches. May be
+	 *            <code>null</code>.
+	 * @return Up to <code>count</code> objects in this {@link PackedRTree} that overlap the
+	 *         {@link Circle} and pass the {@link Matcher}'s test, nearest to its center first.
+	 */
+	public final List<T> findNearest(Circle circle, int count, Matcher<T> matcher) {
+		List<T> result = new ArrayList<>();
+		if (count > 0 && mObjects.length > 0) {
+			double x = circle.getCenterX();
+			double y = circle.getCenterY();
+			double radius = circle.getRadius();
+			double radiusSquared = radius * radius;
+			NearestQueue queue = new NearestQueue();
+			int root = mLevelStarts[mLevelStarts.length - 2];
+			queue.add(distanceSquared(x, y, root), null, root);
+			// Entries come off the queue nearest first, and a node is never farther away than
+			// anything it holds, so objects are found in order.
+			while (!queue.isEmpty() && queue.distance() <= radiusSquared) {
+				int entry = queue.type();
+				queue.remove();
+				if (entry < mObjects.length) {
+					result.add(get(entry));
+					if (result.size() == count) {
+						break;
+					}
+				} else {
+					int level = 1;
+					while (mLevelStarts[level + 1] <= entry) {
+						level++;
+					}
+					int levelStart = mLevelStarts[level];
+					int child = mLevelStarts[level - 1] + (entry - levelStart) * mNodeSize;
+					int end = Math.min(child + mNodeSize, levelStart);
+					for (; child < end; child++) {
+						double distance = distanceSquared(x, y, child);
+						if (distance <= radiusSquared && (level > 1 || hasArea(child) && (matcher == null || matcher.matches(get(child))))) {
+							queue.add(distance, null, child);
+						}
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private double distanceSquared(double x, double y, int entry) {
+		int j = entry * 4;
+		return NearestQueue.distanceSquared(x, y, mBoxes[j], mBoxes[j + 1], mBoxes[j + 2], mBoxes[j + 3]);
+	}
+
+	private boolean hasArea(int index) {
+		int j = index * 4;
+		return mBoxes[j + 2] > mBoxes[j] && mBoxes[j + 3] > mBoxes[j + 1];
+	}
+
+	@SuppressWarnings("unchecked")
+	private T get(int index) {
+		return (T) mObjects[index];
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Visitor<T> stop() {
+		return (Visitor<T>) STOP;
+	}
+
+	private static <T> Visitor<T> stop(Matcher<T> matcher) {
+		return obj -> !matcher.matches(obj);
+	}
+
+	private static <T> Visitor<T> collector(Collection<? super T> result, Matcher<T> matcher) {
+		return obj -> {
+			if (matcher == null || matcher.matches(obj)) {
+				result.add(obj);
+			}
+			return true;
+		};
+	}
+
+	private boolean search(int mode, int x, int y, int width, int height, Visitor<? super T> visitor) {
+		if (mObjects.length == 0 || mode != MODE_CONTAINS && (width <= 0 || height <= 0)) {
+			return true;
+		}
+		int level = mLevelStarts.length - 2;
+		return !overlaps(mode, mLevelStarts[level], x, y, width, height) || search(level, mLevelStarts[level], mode, x, y, width, height, visitor);
+	}
+
+	private boolean search(int level, int node, int mode, int x, int y, int width, int height, Visitor<? super T> visitor) {
+		int levelStart = mLevelStarts[level];
+		int childLevelStart = mLevelStarts[level - 1];
+		int child = childLevelStart + (node - levelStart) * mNodeSize;
+		int end = Math.min(child + mNodeSize, levelStart);
+		if (level == 1) {
+			for (; child < end; child++) {
+				if (matches(mode, child, x, y, width, height) && !visitor.visit(get(child))) {
+					return false;
+				}
+			}
+		} else {
+			for (; child < end; child++) {
+				if (overlaps(mode, child, x, y, width, height) && !search(level - 1, child, mode, x, y, width, height, visitor)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/** @return <code>true</code> if the node may hold objects that satisfy the query. */
+	private boolean overlaps(int mode, int node, int x, int y, int width, int height) {
+		int j = node * 4;
+		if (mode == MODE_CONTAINS) {
+			return x >= mBoxes[j] && y >= mBoxes[j + 1] && x < mBoxes[j + 2] && y < mBoxes[j + 3];
+		}
+		return mBoxes[j] < x + width && mBoxes[j + 1] < y + height && mBoxes[j + 2] > x && mBoxes[j + 3] > y;
+	}
+
+	/**
+	 * @return <code>true</code> if the object satisfies the query, using the same tests as the
+	 *         default methods of {@link Bounds}.
+	 */
+	private boolean matches(int mode, int index, int x, int y, int width, int height) {
+		int j = index * 4;
+		int left = mBoxes[j];
+		int top = mBoxes[j + 1];
+		int right = mBoxes[j + 2];
+		int bottom = mBoxes[j + 3];
+		switch (mode) {
+			case MODE_CONTAINS:
+				return right > left && bottom > top && x >= left && x < right && y >= top && y < bottom;
+			case MODE_INTERSECTS:
+				return right > left && bottom > top && Math.min(right, x + width) > Math.max(left, x) && Math.min(bottom, y + height) > Math.max(top, y);
+			default:
+				int endX = x + width;
+				int endY = y + height;
+				return x <= left && y <= top && left < endX && top < endY && x < right && endX >= right && y < bottom && endY >= bottom;
+		}
+	}
+}
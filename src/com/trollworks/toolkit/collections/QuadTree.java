@@ -15,14 +15,21 @@ import com.trollworks.toolkit.annotation.Localize;
 import com.trollworks.toolkit.utility.Localization;
 
 import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /** Provides a {@link QuadTree} which contains rectangular areas. */
 public class QuadTree<T extends Bounds> {
-	private Node<T>	mRoot;
-	private Set<T>	mOutside;
-	private int		mThreshold;
+	private static final int	NEAREST_NODE	= 0;
+	private static final int	NEAREST_OBJECT	= 1;
+	private Node<T>				mRoot;
+	private Set<T>				mOutside;
+	private int					mThreshold;
 
 	/** Creates a new, empty {@link QuadTree} with a threshold of 64. */
 	public QuadTree() {
@@ -341,12 +348,7 @@ public class QuadTree<T extends Bounds> {
 	 */
 	public final Set<T> findContains(int x, int y) {
 		Set<T> result = new HashSet<>();
-		mRoot.findContains(x, y, result);
-		for (T one : mOutside) {
-			if (one.containsLocation(x, y)) {
-				result.add(one);
-			}
-		}
+		findContains(x, y, result);
 		return result;
 	}
 
@@ -359,13 +361,42 @@ public class QuadTree<T extends Bounds> {
 	 */
 	public final Set<T> findContains(int x, int y, Matcher<T> matcher) {
 		Set<T> result = new HashSet<>();
-		mRoot.findContains(x, y, result, matcher);
+		visitContains(x, y, new Collector<>(result, matcher));
+		return result;
+	}
+
+	/**
+	 * Adds all objects in this {@link QuadTree} that contain the specified coordinates to a
+	 * collection supplied by the caller, which may be reused between queries.
+	 *
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param result The collection to add the objects to. Each object is added at most once.
+	 */
+	public final void findContains(int x, int y, Collection<? super T> result) {
+		visitContains(x, y, new Collector<>(result, null));
+	}
+
+	/**
+	 * Hands each object in this {@link QuadTree} that contains the specified coordinates to a
+	 * {@link Visitor}, stopping early if the {@link Visitor} asks for it. No intermediate
+	 * collection is built and each object is visited at most once.
+	 *
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param visitor The {@link Visitor} to call.
+	 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+	 */
+	public final boolean visitContains(int x, int y, Visitor<? super T> visitor) {
+		if (!mRoot.visitContains(x, y, visitor)) {
+			return false;
+		}
 		for (T one : mOutside) {
-			if (one.containsLocation(x, y) && matcher.matches(one)) {
-				result.add(one);
+			if (one.containsLocation(x, y) && !visitor.visit(one)) {
+				return false;
 			}
 		}
-		return result;
+		return true;
 	}
 
 	/**
@@ -393,12 +424,7 @@ public class QuadTree<T extends Bounds> {
 	 */
 	public final Set<T> findIntersects(int x, int y, int width, int height) {
 		Set<T> result = new HashSet<>();
-		mRoot.findIntersects(x, y, width, height, result);
-		for (T one : mOutside) {
-			if (one.intersectsBounds(x, y, width, height)) {
-				result.add(one);
-			}
-		}
+		findIntersects(x, y, width, height, result);
 		return result;
 	}
 
@@ -433,13 +459,71 @@ public class QuadTree<T extends Bounds> {
 	 */
 	public final Set<T> findIntersects(int x, int y, int width, int height, Matcher<T> matcher) {
 		Set<T> result = new HashSet<>();
-		mRoot.findIntersects(x, y, width, height, result, matcher);
+		visitIntersects(x, y, width, height, new Collector<>(result, matcher));
+		return result;
+	}
+
+	/**
+	 * Adds all objects in this {@link QuadTree} that intersect with the specified bounds to a
+	 * collection supplied by the caller, which may be reused between queries.
+	 *
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @param result The collection to add the objects to. Each object is added at most once.
+	 */
+	public final void findIntersects(int x, int y, int width, int height, Collection<? super T> result) {
+		visitIntersects(x, y, width, height, new Collector<>(result, null));
+	}
+
+	/**
+	 * Hands each object in this {@link QuadTree} that intersect with the specified bounds to a
+	 * {@link Visitor}, stopping early if the {@link Visitor} asks for it.
+	 *
+	 * @param bounds The bounds to check.
+	 * @param visitor The {@link Visitor} to call.
+	 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+	 */
+	public final boolean visitIntersects(Rectangle bounds, Visitor<? super T> visitor) {
+		return visitIntersects(bounds.x, bounds.y, bounds.width, bounds.height, visitor);
+	}
+
+	/**
+	 * Hands each object in this {@link QuadTree} that intersect with the specified bounds to a
+	 * {@link Visitor}, stopping early if the {@link Visitor} asks for it.
+	 *
+	 * @param bounds The bounds to check.
+	 * @param visitor The {@link Visitor} to call.
+	 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+	 */
+	public final boolean visitIntersects(Bounds bounds, Visitor<? super T> visitor) {
+		return visitIntersects(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight(), visitor);
+	}
+
+	/**
+	 * Hands each object in this {@link QuadTree} that intersect with the specified bounds to a
+	 * {@link Visitor}, stopping early if the {@link Visitor} asks for it. No intermediate
+	 * collection is built and each object is visited at most once, even when it spans several
+	 * nodes of the tree.
+	 *
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @param visitor The {@link Visitor} to call.
+	 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+	 */
+	public final boolean visitIntersects(int x, int y, int width, int height, Visitor<? super T> visitor) {
+		if (!mRoot.visitIntersects(x, y, width, height, visitor)) {
+			return false;
+		}
 		for (T one : mOutside) {
-			if (one.intersectsBounds(x, y, width, height) && matcher.matches(one)) {
-				result.add(one);
+			if (one.intersectsBounds(x, y, width, height) && !visitor.visit(one)) {
+				return false;
 			}
 		}
-		return result;
+		return true;
 	}
 
 	/**
@@ -467,12 +551,7 @@ public class QuadTree<T extends Bounds> {
 	 */
 	public final Set<T> findContainedBy(int x, int y, int width, int height) {
 		Set<T> result = new HashSet<>();
-		mRoot.findContainedBy(x, y, width, height, result);
-		for (T one : mOutside) {
-			if (one.containedBy(x, y, width, height)) {
-				result.add(one);
-			}
-		}
+		findContainedBy(x, y, width, height, result);
 		return result;
 	}
 
@@ -507,29 +586,228 @@ public class QuadTree<T extends Bounds> {
 	 */
 	public final Set<T> findContainedBy(int x, int y, int width, int height, Matcher<T> matcher) {
 		Set<T> result = new HashSet<>();
-		mRoot.findContainedBy(x, y, width, height, result, matcher);
+		visitContainedBy(x, y, width, height, new Collector<>(result, matcher));
+		return result;
+	}
+
+	/**
+	 * Adds all objects in this {@link QuadTree} that would be contained by the specified bounds to a
+	 * collection supplied by the caller, which may be reused between queries.
+	 *
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @param result The collection to add the objects to. Each object is added at most once.
+	 */
+	public final void findContainedBy(int x, int y, int width, int height, Collection<? super T> result) {
+		visitContainedBy(x, y, width, height, new Collector<>(result, null));
+	}
+
+	/**
+	 * Hands each object in this {@link QuadTree} that would be contained by the specified bounds to a
+	 * {@link Visitor}, stopping early if the {@link Visitor} asks for it.
+	 *
+	 * @param bounds The bounds to check.
+	 * @param visitor The {@link Visitor} to call.
+	 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+	 */
+	public final boolean visitContainedBy(Rectangle bounds, Visitor<? super T> visitor) {
+		return visitContainedBy(bounds.x, bounds.y, bounds.width, bounds.height, visitor);
+	}
+
+	/**
+	 * Hands each object in this {@link QuadTree} that would be contained by the specified bounds to a
+	 * {@link Visitor}, stopping early if the {@link Visitor} asks for it.
+	 *
+	 * @param bounds The bounds to check.
+	 * @param visitor The {@link Visitor} to call.
+	 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+	 */
+	public final boolean visitContainedBy(Bounds bounds, Visitor<? super T> visitor) {
+		return visitContainedBy(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight(), visitor);
+	}
+
+	/**
+	 * Hands each object in this {@link QuadTree} that would be contained by the specified bounds to a
+	 * {@link Visitor}, stopping early if the {@link Visitor} asks for it. No intermediate
+	 * collection is built and each object is visited at most once, even when it spans several
+	 * nodes of the tree.
+	 *
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @param visitor The {@link Visitor} to call.
+	 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+	 */
+	public final boolean visitContainedBy(int x, int y, int width, int height, Visitor<? super T> visitor) {
+		if (!mRoot.visitContainedBy(x, y, width, height, visitor)) {
+			return false;
+		}
 		for (T one : mOutside) {
-			if (one.containedBy(x, y, width, height) && matcher.matches(one)) {
-				result.add(one);
+			if (one.containedBy(x, y, width, height) && !visitor.visit(one)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param circle The area to check.
+	 * @return All objects in this {@link QuadTree} that overlap the {@link Circle}.
+	 */
+	public final Set<T> findWithin(Circle circle) {
+		Set<T> result = new HashSet<>();
+		visitWithin(circle, new Collector<>(result, null));
+		return result;
+	}
+
+	/**
+	 * @param circle The area to check.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return All objects in this {@link QuadTree} that overlap the {@link Circle} and pass the
+	 *         {@link Matcher}'s test.
+	 */
+	public final Set<T> findWithin(Circle circle, Matcher<T> matcher) {
+		Set<T> result = new HashSet<>();
+		visitWithin(circle, new Collector<>(result, matcher));
+		return result;
+	}
+
+	/**
+	 * Hands each object in this {@link QuadTree} that overlaps the {@link Circle} to a
+	 * {@link Visitor}, stopping early if the {@link Visitor} asks for it.
+	 *
+	 * @param circle The area to check.
+	 * @param visitor The {@link Visitor} to call.
+	 * @return <code>false</code> if the {@link Visitor} stopped the query early.
+	 */
+	public final boolean visitWithin(Circle circle, Visitor<? super T> visitor) {
+		double x = circle.getCenterX();
+		double y = circle.getCenterY();
+		double radius = circle.getRadius();
+		double radiusSquared = radius * radius;
+		if (!mRoot.visitWithin(x, y, radiusSquared, visitor)) {
+			return false;
+		}
+		for (T one : mOutside) {
+			if (distanceSquared(x, y, one) <= radiusSquared && !visitor.visit(one)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param circle The area to check. Use a radius of {@link Double#POSITIVE_INFINITY} to
+	 *            consider every object.
+	 * @param count The maximum number of objects to return.
+	 * @return Up to <code>count</code> objects in this {@link QuadTree} that overlap the
+	 *         {@link Circle}, nearest to its center first.
+	 */
+	public final List<T> findNearest(Circle circle, int count) {
+		return findNearest(circle, count, null);
+	}
+
+	/**
+	 * @param circle The area to check. Use a radius of {@link Double#POSITIVE_INFINITY} to
+	 *            consider every object.
+	 * @param count The maximum number of objects to return.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches. May be
+	 *            <code>null</code>.
+	 * @return Up to <code>count</code> objects in this {@link QuadTree} that overlap the
+	 *         {@link Circle} and pass the {@link Matcher}'s test, nearest to its center first.
+	 */
+	@SuppressWarnings("unchecked")
+	public final List<T> findNearest(Circle circle, int count, Matcher<T> matcher) {
+		List<T> result = new ArrayList<>();
+		if (count > 0) {
+			double x = circle.getCenterX();
+			double y = circle.getCenterY();
+			double radius = circle.getRadius();
+			double radiusSquared = radius * radius;
+			NearestQueue queue = new NearestQueue();
+			queue.add(distanceSquared(x, y, mRoot), mRoot, NEAREST_NODE);
+			for (T one : mOutside) {
+				double distance = distanceSquared(x, y, one);
+				if (distance <= radiusSquared && (matcher == null || matcher.matches(one))) {
+					queue.add(distance, one, NEAREST_OBJECT);
+				}
+			}
+			// Candidates come off the queue nearest first, and a node is never farther away than
+			// anything it holds, so objects are found in order.
+			while (!queue.isEmpty() && queue.distance() <= radiusSquared) {
+				Object candidate = queue.object();
+				int type = queue.type();
+				queue.remove();
+				if (type == NEAREST_NODE) {
+					((Node<T>) candidate).addNearestCandidates(x, y, radiusSquared, matcher, queue);
+				} else {
+					result.add((T) candidate);
+					if (result.size() == count) {
+						break;
+					}
+				}
 			}
 		}
 		return result;
 	}
 
+	static double distanceSquared(double x, double y, Bounds bounds) {
+		int left = bounds.getX();
+		int top = bounds.getY();
+		return NearestQueue.distanceSquared(x, y, left, top, left + (double) bounds.getWidth(), top + (double) bounds.getHeight());
+	}
+
+	private static final class Collector<T> implements Visitor<T> {
+		private Collection<? super T>	mResult;
+		private Matcher<T>				mMatcher;
+
+		Collector(Collection<? super T> result, Matcher<T> matcher) {
+			mResult = result;
+			mMatcher = matcher;
+		}
+
+		@Override
+		public boolean visit(T obj) {
+			if (mMatcher == null || mMatcher.matches(obj)) {
+				mResult.add(obj);
+			}
+			return true;
+		}
+	}
+
 	static class Node<T extends Bounds> implements Bounds {
 		@Localize("Objects must have a width and height greater than zero.")
 		@Localize(locale = "de", value = "Objekte müssen eine Höhe und Breite größer als Null haben.")
-		private static String	MUST_HAVE_SIZE_GREATER_THAN_ZERO;
-		private int				mX;
-		private int				mY;
-		private int				mWidth;
-		private int				mHeight;
-		protected Set<T>		mContents;
-		private int				mMaxCapacity;
-		private Node<T>			mNorthEast;
-		private Node<T>			mNorthWest;
-		private Node<T>			mSouthEast;
-		private Node<T>			mSouthWest;
+		private static String				MUST_HAVE_SIZE_GREATER_THAN_ZERO;
+		/** The object count above which a node keeps {@link #mIndex}. */
+		private static final int			INDEX_THRESHOLD	= 32;
+		private int						mX;
+		private int						mY;
+		private int						mWidth;
+		private int						mHeight;
+		/** The objects held directly by this node. */
+		private Object[]					mObjects;
+		/**
+		 * The bounds of {@link #mObjects}, four values per object: left, top, right and bottom,
+		 * with right and bottom being exclusive. Queries test these rather than calling back into
+		 * each object.
+		 */
+		private int[]						mBounds;
+		/**
+		 * Maps each object in {@link #mObjects} to its slot, so that adding and removing don't have
+		 * to scan nodes that can't split any further. Only present once a node holds more than
+		 * {@link #INDEX_THRESHOLD} objects.
+		 */
+		private HashMap<Object, Integer>	mIndex;
+		private int						mCount;
+		private int						mMaxCapacity;
+		private Node<T>					mNorthEast;
+		private Node<T>					mNorthWest;
+		private Node<T>					mSouthEast;
+		private Node<T>					mSouthWest;
 
 		static {
 			Localization.initialize();
@@ -541,7 +819,8 @@ public class QuadTree<T extends Bounds> {
 			mWidth = width;
 			mHeight = height;
 			mMaxCapacity = maxCapacity;
-			mContents = new HashSet<>();
+			mObjects = new Object[Math.max(Math.min(maxCapacity, 16), 1)];
+			mBounds = new int[mObjects.length * 4];
 		}
 
 		final void zeroBounds() {
@@ -575,8 +854,38 @@ public class QuadTree<T extends Bounds> {
 			return mNorthEast == null;
 		}
 
+		@SuppressWarnings("unchecked")
+		private final T get(int index) {
+			return (T) mObjects[index];
+		}
+
+		private final int indexOf(Object obj) {
+			if (mIndex != null) {
+				Integer index = mIndex.get(obj);
+				return index != null ? index.intValue() : -1;
+			}
+			for (int i = 0; i < mCount; i++) {
+				if (obj.equals(mObjects[i])) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
 		final void remove(T obj) {
-			if (!mContents.remove(obj) && !isLeaf() && intersectsBounds(obj)) {
+			int index = indexOf(obj);
+			if (index != -1) {
+				int last = --mCount;
+				mObjects[index] = mObjects[last];
+				mObjects[last] = null;
+				System.arraycopy(mBounds, last * 4, mBounds, index * 4, 4);
+				if (mIndex != null) {
+					mIndex.remove(obj);
+					if (index != last) {
+						mIndex.put(mObjects[index], Integer.valueOf(index));
+					}
+				}
+			} else if (!isLeaf() && intersectsBounds(obj)) {
 				mNorthEast.remove(obj);
 				mNorthWest.remove(obj);
 				mSouthEast.remove(obj);
@@ -585,33 +894,70 @@ public class QuadTree<T extends Bounds> {
 		}
 
 		final void add(T obj) {
-			if (obj.getWidth() < 1 || obj.getHeight() < 1) {
+			int width = obj.getWidth();
+			int height = obj.getHeight();
+			if (width < 1 || height < 1) {
 				throw new IllegalArgumentException(MUST_HAVE_SIZE_GREATER_THAN_ZERO);
 			}
+			int x = obj.getX();
+			int y = obj.getY();
+			add(obj, x, y, x + width, y + height);
+		}
+
+		private final void add(T obj, int left, int top, int right, int bottom) {
 			// Do we have to split?
-			if (isLeaf() && mContents.size() >= mMaxCapacity && mWidth > 1 && mHeight > 1) {
+			if (isLeaf() && mCount >= mMaxCapacity && mWidth > 1 && mHeight > 1) {
 				split();
 			}
-			if (isLeaf() || obj.containsBounds(this)) {
-				mContents.add(obj);
+			if (isLeaf() || left <= mX && top <= mY && right >= mX + mWidth && bottom >= mY + mHeight) {
+				if (indexOf(obj) == -1) {
+					append(obj, left, top, right, bottom);
+				}
 			} else {
-				if (mNorthEast.intersectsBounds(obj)) {
-					mNorthEast.add(obj);
+				if (mNorthEast.overlaps(left, top, right, bottom)) {
+					mNorthEast.add(obj, left, top, right, bottom);
+				}
+				if (mNorthWest.overlaps(left, top, right, bottom)) {
+					mNorthWest.add(obj, left, top, right, bottom);
 				}
-				if (mNorthWest.intersectsBounds(obj)) {
-					mNorthWest.add(obj);
+				if (mSouthEast.overlaps(left, top, right, bottom)) {
+					mSouthEast.add(obj, left, top, right, bottom);
 				}
-				if (mSouthEast.intersectsBounds(obj)) {
-					mSouthEast.add(obj);
+				if (mSouthWest.overlaps(left, top, right, bottom)) {
+					mSouthWest.add(obj, left, top, right, bottom);
 				}
-				if (mSouthWest.intersectsBounds(obj)) {
-					mSouthWest.add(obj);
+			}
+		}
+
+		private final boolean overlaps(int left, int top, int right, int bottom) {
+			return mWidth > 0 && mHeight > 0 && left < mX + mWidth && right > mX && top < mY + mHeight && bottom > mY;
+		}
+
+		private final void append(Object obj, int left, int top, int right, int bottom) {
+			if (mCount == mObjects.length) {
+				mObjects = Arrays.copyOf(mObjects, mCount * 2);
+				mBounds = Arrays.copyOf(mBounds, mCount * 8);
+			}
+			int j = mCount * 4;
+			mObjects[mCount++] = obj;
+			mBounds[j] = left;
+			mBounds[j + 1] = top;
+			mBounds[j + 2] = right;
+			mBounds[j + 3] = bottom;
+			if (mIndex != null) {
+				mIndex.put(obj, Integer.valueOf(mCount - 1));
+			} else if (mCount > INDEX_THRESHOLD) {
+				mIndex = new HashMap<>(mCount * 2);
+				for (int i = 0; i < mCount; i++) {
+					mIndex.put(mObjects[i], Integer.valueOf(i));
 				}
 			}
 		}
 
 		final void all(Set<T> result) {
-			result.addAll(mContents);
+			for (int i = 0; i < mCount; i++) {
+				result.add(get(i));
+			}
 			if (!isLeaf()) {
 				mNorthEast.all(result);
 				mNorthWest.all(result);
@@ -621,7 +967,8 @@ public class QuadTree<T extends Bounds> {
 		}
 
 		final void all(Set<T> result, Matcher<T> matcher) {
-			for (T one : mContents) {
+			for (int i = 0; i < mCount; i++) {
+				T one = get(i);
 				if (matcher.matches(one)) {
 					result.add(one);
 				}
@@ -642,20 +989,68 @@ public class QuadTree<T extends Bounds> {
 				mNorthEast = new Node<>(mX + hw, mY, mWidth - hw, hh, mMaxCapacity);
 				mSouthWest = new Node<>(mX, mY + hh, hw, mHeight - hh, mMaxCapacity);
 				mSouthEast = new Node<>(mX + hw, mY + hh, mWidth - hw, mHeight - hh, mMaxCapacity);
-				Set<T> temp = mContents;
-				mContents = new HashSet<>();
-				for (T one : temp) {
-					add(one);
+				Object[] objects = mObjects;
+				int[] bounds = mBounds;
+				int count = mCount;
+				mObjects = new Object[Math.max(Math.min(mMaxCapacity, 16), 1)];
+				mBounds = new int[mObjects.length * 4];
+				mIndex = null;
+				mCount = 0;
+				for (int i = 0; i < count; i++) {
+					int j = i * 4;
+					@SuppressWarnings("unchecked")
+					T one = (T) objects[i];
+					add(one, bounds[j], bounds[j + 1], bounds[j + 2], bounds[j + 3]);
 				}
 			}
 		}
 
+		/**
+		 * @return The index of the first held object at or after <code>start</code> containing the point,
+		 *         or -1.
+		 */
+		private final int nextContaining(int start, int x, int y) {
+			int[] bounds = mBounds;
+			for (int i = start, j = start * 4; i < mCount; i++, j += 4) {
+				if (x >= bounds[j] && y >= bounds[j + 1] && x < bounds[j + 2] && y < bounds[j + 3]) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * @return The index of the first held object at or after <code>start</code> intersecting the area,
+		 *         or -1.
+		 */
+		private final int nextIntersecting(int start, int left, int top, int right, int bottom) {
+			int[] bounds = mBounds;
+			for (int i = start, j = start * 4; i < mCount; i++, j += 4) {
+				if (bounds[j] < right && bounds[j + 2] > left && bounds[j + 1] < bottom && bounds[j + 3] > top) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * @return The index of the first held object at or after <code>start</code> inside the area,
+		 *         or -1.
+		 */
+		private final int nextContainedBy(int start, int left, int top, int right, int bottom) {
+			int[] bounds = mBounds;
+			for (int i = start, j = start * 4; i < mCount; i++, j += 4) {
+				if (bounds[j] >= left && bounds[j + 1] >= top && bounds[j + 2] <= right && bounds[j + 3] <= bottom) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
 		final boolean contains(int x, int y) {
 			if (containsLocation(x, y)) {
-				for (T one : mContents) {
-					if (one.containsLocation(x, y)) {
-						return true;
-					}
+				if (nextContaining(0, x, y) != -1) {
+					return true;
 				}
 				if (!isLeaf()) {
 					return mNorthWest.contains(x, y) || mNorthEast.contains(x, y) || mSouthWest.contains(x, y) || mSouthEast.contains(x, y);
@@ -666,8 +1061,8 @@ public class QuadTree<T extends Bounds> {
 
 		final boolean contains(int x, int y, Matcher<T> matcher) {
 			if (containsLocation(x, y)) {
-				for (T one : mContents) {
-					if (one.containsLocation(x, y) && matcher.matches(one)) {
+				for (int i = nextContaining(0, x, y); i != -1; i = nextContaining(i + 1, x, y)) {
+					if (matcher.matches(get(i))) {
 						return true;
 					}
 				}
@@ -680,10 +1075,8 @@ public class QuadTree<T extends Bounds> {
 
 		final boolean intersects(int x, int y, int width, int height) {
 			if (intersectsBounds(x, y, width, height)) {
-				for (T one : mContents) {
-					if (one.intersectsBounds(x, y, width, height)) {
-						return true;
-					}
+				if (nextIntersecting(0, x, y, x + width, y + height) != -1) {
+					return true;
 				}
 				if (!isLeaf()) {
 					return mNorthWest.intersects(x, y, width, height) || mNorthEast.intersects(x, y, width, height) || mSouthWest.intersects(x, y, width, height) || mSouthEast.intersects(x, y, width, height);
@@ -694,8 +1087,10 @@ public class QuadTree<T extends Bounds> {
 
 		final boolean intersects(int x, int y, int width, int height, Matcher<T> matcher) {
 			if (intersectsBounds(x, y, width, height)) {
-				for (T one : mContents) {
-					if (one.intersectsBounds(x, y, width, height) && matcher.matches(one)) {
+				int right = x + width;
+				int bottom = y + height;
+				for (int i = nextIntersecting(0, x, y, right, bottom); i != -1; i = nextIntersecting(i + 1, x, y, right, bottom)) {
+					if (matcher.matches(get(i))) {
 						return true;
 					}
 				}
@@ -708,10 +1103,8 @@ public class QuadTree<T extends Bounds> {
 
 		final boolean inside(int x, int y, int width, int height) {
 			if (intersectsBounds(x, y, width, height)) {
-				for (T one : mContents) {
-					if (one.containedBy(x, y, width, height)) {
-						return true;
-					}
+				if (nextContainedBy(0, x, y, x + width, y + height) != -1) {
+					return true;
 				}
 				if (!isLeaf()) {
 					return mNorthWest.inside(x, y, width, height) || mNorthEast.inside(x, y, width, height) || mSouthWest.inside(x, y, width, height) || mSouthEast.inside(x, y, width, height);
@@ -722,8 +1115,10 @@ public class QuadTree<T extends Bounds> {
 
 		final boolean inside(int x, int y, int width, int height, Matcher<T> matcher) {
 			if (intersectsBounds(x, y, width, height)) {
-				for (T one : mContents) {
-					if (one.containedBy(x, y, width, height) && matcher.matches(one)) {
+				int right = x + width;
+				int bottom = y + height;
+				for (int i = nextContainedBy(0, x, y, right, bottom); i != -1; i = nextContainedBy(i + 1, x, y, right, bottom)) {
+					if (matcher.matches(get(i))) {
 						return true;
 					}
 				}
@@ -734,102 +1129,113 @@ public class QuadTree<T extends Bounds> {
 			return false;
 		}
 
-		final void findContains(int x, int y, Set<T> result) {
+		final boolean visitContains(int x, int y, Visitor<? super T> visitor) {
 			if (containsLocation(x, y)) {
-				for (T one : mContents) {
-					if (one.containsLocation(x, y)) {
-						result.add(one);
+				// Node regions that hold the same object never overlap, so at most one of them can
+				// contain the point and no de-duplication is needed.
+				for (int i = nextContaining(0, x, y); i != -1; i = nextContaining(i + 1, x, y)) {
+					if (!visitor.visit(get(i))) {
+						return false;
 					}
 				}
 				if (!isLeaf()) {
-					mNorthWest.findContains(x, y, result);
-					mNorthEast.findContains(x, y, result);
-					mSouthWest.findContains(x, y, result);
-					mSouthEast.findContains(x, y, result);
+					return mNorthWest.visitContains(x, y, visitor) && mNorthEast.visitContains(x, y, visitor) && mSouthWest.visitContains(x, y, visitor) && mSouthEast.visitContains(x, y, visitor);
 				}
 			}
+			return true;
 		}
 
-		final void findContains(int x, int y, Set<T> result, Matcher<T> matcher) {
-			if (containsLocation(x, y)) {
-				for (T one : mContents) {
-					if (one.containsLocation(x, y) && matcher.matches(one)) {
-						result.add(one);
+		final boolean visitIntersects(int x, int y, int width, int height, Visitor<? super T> visitor) {
+			if (intersectsBounds(x, y, width, height)) {
+				int right = x + width;
+				int bottom = y + height;
+				for (int i = nextIntersecting(0, x, y, right, bottom); i != -1; i = nextIntersecting(i + 1, x, y, right, bottom)) {
+					// An object that spans several nodes is only reported by the one holding the
+					// top-left corner of its overlap with the query.
+					int j = i * 4;
+					if (containsLocation(Math.max(mBounds[j], x), Math.max(mBounds[j + 1], y)) && !visitor.visit(get(i))) {
+						return false;
 					}
 				}
 				if (!isLeaf()) {
-					mNorthWest.findContains(x, y, result, matcher);
-					mNorthEast.findContains(x, y, result, matcher);
-					mSouthWest.findContains(x, y, result, matcher);
-					mSouthEast.findContains(x, y, result, matcher);
+					return mNorthWest.visitIntersects(x, y, width, height, visitor) && mNorthEast.visitIntersects(x, y, width, height, visitor) && mSouthWest.visitIntersects(x, y, width, height, visitor) && mSouthEast.visitIntersects(x, y, width, height, visitor);
 				}
 			}
+			return true;
 		}
 
-		final void findIntersects(int x, int y, int width, int height, Set<T> result) {
+		final boolean visitContainedBy(int x, int y, int width, int height, Visitor<? super T> visitor) {
 			if (intersectsBounds(x, y, width, height)) {
-				for (T one : mContents) {
-					if (one.intersectsBounds(x, y, width, height)) {
-						result.add(one);
+				int right = x + width;
+				int bottom = y + height;
+				for (int i = nextContainedBy(0, x, y, right, bottom); i != -1; i = nextContainedBy(i + 1, x, y, right, bottom)) {
+					// An object that spans several nodes is only reported by the one holding its
+					// top-left corner.
+					int j = i * 4;
+					if (containsLocation(mBounds[j], mBounds[j + 1]) && !visitor.visit(get(i))) {
+						return false;
 					}
 				}
 				if (!isLeaf()) {
-					mNorthWest.findIntersects(x, y, width, height, result);
-					mNorthEast.findIntersects(x, y, width, height, result);
-					mSouthWest.findIntersects(x, y, width, height, result);
-					mSouthEast.findIntersects(x, y, width, height, result);
+					return mNorthWest.visitContainedBy(x, y, width, height, visitor) && mNorthEast.visitContainedBy(x, y, width, height, visitor) && mSouthWest.visitContainedBy(x, y, width, height, visitor) && mSouthEast.visitContainedBy(x, y, width, height, visitor);
 				}
 			}
+			return true;
 		}
 
-		final void findIntersects(int x, int y, int width, int height, Set<T> result, Matcher<T> matcher) {
-			if (intersectsBounds(x, y, width, height)) {
-				for (T one : mContents) {
-					if (one.intersectsBounds(x, y, width, height) && matcher.matches(one)) {
-						result.add(one);
+		final boolean visitWithin(double x, double y, double radiusSquared, Visitor<? super T> visitor) {
+			if (distanceSquared(x, y, this) <= radiusSquared) {
+				int[] bounds = mBounds;
+				for (int i = 0, j = 0; i < mCount; i++, j += 4) {
+					if (NearestQueue.distanceSquared(x, y, bounds[j], bounds[j + 1], bounds[j + 2], bounds[j + 3]) <= radiusSquared && holdsNearestCell(j, x, y) && !visitor.visit(get(i))) {
+						return false;
 					}
 				}
 				if (!isLeaf()) {
-					mNorthWest.findIntersects(x, y, width, height, result, matcher);
-					mNorthEast.findIntersects(x, y, width, height, result, matcher);
-					mSouthWest.findIntersects(x, y, width, height, result, matcher);
-					mSouthEast.findIntersects(x, y, width, height, result, matcher);
+					return mNorthWest.visitWithin(x, y, radiusSquared, visitor) && mNorthEast.visitWithin(x, y, radiusSquared, visitor) && mSouthWest.visitWithin(x, y, radiusSquared, visitor) && mSouthEast.visitWithin(x, y, radiusSquared, visitor);
 				}
 			}
+			return true;
 		}
 
-		final void findContainedBy(int x, int y, int width, int height, Set<T> result) {
-			if (intersectsBounds(x, y, width, height)) {
-				for (T one : mContents) {
-					if (one.containedBy(x, y, width, height)) {
-						result.add(one);
-					}
-				}
-				if (!isLeaf()) {
-					mNorthWest.findContainedBy(x, y, width, height, result);
-					mNorthEast.findContainedBy(x, y, width, height, result);
-					mSouthWest.findContainedBy(x, y, width, height, result);
-					mSouthEast.findContainedBy(x, y, width, height, result);
+		final void addNearestCandidates(double x, double y, double radiusSquared, Matcher<T> matcher, NearestQueue queue) {
+			int[] bounds = mBounds;
+			for (int i = 0, j = 0; i < mCount; i++, j += 4) {
+				double distance = NearestQueue.distanceSquared(x, y, bounds[j], bounds[j + 1], bounds[j + 2], bounds[j + 3]);
+				if (distance <= radiusSquared && holdsNearestCell(j, x, y) && (matcher == null || matcher.matches(get(i)))) {
+					queue.add(distance, mObjects[i], NEAREST_OBJECT);
 				}
 			}
+			if (!isLeaf()) {
+				addNearestCandidate(mNorthWest, x, y, radiusSquared, queue);
+				addNearestCandidate(mNorthEast, x, y, radiusSquared, queue);
+				addNearestCandidate(mSouthWest, x, y, radiusSquared, queue);
+				addNearestCandidate(mSouthEast, x, y, radiusSquared, queue);
+			}
 		}
 
-		final void findContainedBy(int x, int y, int width, int height, Set<T> result, Matcher<T> matcher) {
-			if (intersectsBounds(x, y, width, height)) {
-				for (T one : mContents) {
-					if (one.containedBy(x, y, width, height) && matcher.matches(one)) {
-						result.add(one);
-					}
-				}
-				if (!isLeaf()) {
-					mNorthWest.findContainedBy(x, y, width, height, result, matcher);
-					mNorthEast.findContainedBy(x, y, width, height, result, matcher);
-					mSouthWest.findContainedBy(x, y, width, height, result, matcher);
-					mSouthEast.findContainedBy(x, y, width, height, result, matcher);
-				}
+		private static void addNearestCandidate(Node<?> node, double x, double y, double radiusSquared, NearestQueue queue) {
+			double distance = distanceSquared(x, y, node);
+			if (distance <= radiusSquared) {
+				queue.add(distance, node, NEAREST_NODE);
 			}
 		}
 
+		/**
+		 * An object that spans several nodes is only reported by the one holding the unit cell of
+		 * the object that is nearest to the point. That node is never farther from the point than
+		 * the object is, so it is always visited when the object qualifies.
+		 *
+		 * @param j The offset of the object's bounds within {@link #mBounds}.
+		 */
+		private final boolean holdsNearestCell(int j, double x, double y) {
+			return containsLocation(nearestCell(x, mBounds[j], mBounds[j + 2] - 1), nearestCell(y, mBounds[j + 1], mBounds[j + 3] - 1));
+		}
+
+		private static int nearestCell(double value, int min, int max) {
+			return value <= min ? min : value >= max ? max : (int) Math.floor(value);
+		}
+
 		@SuppressWarnings("nls")
 		@Override
 		public String toString() {
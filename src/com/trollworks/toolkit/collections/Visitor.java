@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) 1998-2014 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.collections;
+
+/** Used to process the results of a query one object at a time. */
+public interface Visitor<T> {
+	/**
+	 * @param obj The object to process.
+	 * @return <code>true</code> if the query should continue, <code>false</code> if it should stop.
+	 */
+	boolean visit(T obj);
+}
@@ -11,20 +11,46 @@
 
 package com.trollworks.toolkit.io;
 
+import com.trollworks.toolkit.utility.PathUtils;
+
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemLoopException;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /** Walks a file tree, calling your {@link Handler} for each file found. */
 public class FileScanner implements FileVisitor<Path> {
-	private Path	mPath;
-	private Handler	mHandler;
-	private boolean	mSkipHidden;
+	private static final int	FILE_BATCH_SIZE	= 64;
+	private Path				mPath;
+	private Handler				mHandler;
+	private boolean				mSkipHidden;
+	private PathMatcher			mFilter;
 
 	/**
 	 * Walks a file tree, calling the specified {@link Handler} for each file found. Hidden files
@@ -47,21 +73,150 @@ public class FileScanner implements FileVisitor<Path> {
 	 *            period should be skipped.
 	 */
 	public static final void walk(Path path, Handler handler, boolean skipHidden) {
+		walk(path, handler, skipHidden, null);
+	}
+
+	/**
+	 * Walks a file tree, calling the specified {@link Handler} for each file found.
+	 *
+	 * @param path The starting point.
+	 * @param handler The {@link Handler} to call for each file.
+	 * @param skipHidden Pass in <code>true</code> if files and directories whose names start with a
+	 *            period should be skipped.
+	 * @param filter If not <code>null</code>, only files it matches are passed to the handler. See
+	 *            {@link #createExtensionFilter(String...)}, or use
+	 *            {@link java.nio.file.FileSystem#getPathMatcher(String)} for glob patterns.
+	 */
+	public static final void walk(Path path, Handler handler, boolean skipHidden, PathMatcher filter) {
 		try {
-			Files.walkFileTree(path, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new FileScanner(path, handler, skipHidden));
+			Files.walkFileTree(path, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new FileScanner(path, handler, skipHidden, filter));
 		} catch (Exception exception) {
 			Log.error(exception);
 		}
 	}
 
-	private FileScanner(Path path, Handler handler, boolean skipHidden) {
+	/**
+	 * Walks a file tree using the common {@link ForkJoinPool}, calling the specified
+	 * {@link Handler} for each file found. Hidden files and directories (those whose names start
+	 * with a period) are skipped.
+	 *
+	 * @param path The starting point.
+	 * @param handler The {@link Handler} to call for each file. It will be called from several
+	 *            threads at once.
+	 */
+	public static final void walkParallel(Path path, Handler handler) {
+		walkParallel(path, handler, true, null, 0);
+	}
+
+	/**
+	 * Walks a file tree using a {@link ForkJoinPool}, calling the specified {@link Handler} for
+	 * each file found. Each directory is listed by its own task and its files are handed out in
+	 * batches, so idle threads can steal both. Unlike {@link #walk(Path, Handler, boolean,
+	 * PathMatcher)}, an {@link IOException} thrown by the handler is logged and the walk carries
+	 * on. Returns once every file has been processed.
+	 *
+	 * @param path The starting point.
+	 * @param handler The {@link Handler} to call for each file. It will be called from several
+	 *            threads at once.
+	 * @param skipHidden Pass in <code>true</code> if files and directories whose names start with a
+	 *            period should be skipped.
+	 * @param filter If not <code>null</code>, only files it matches are passed to the handler.
+	 * @param maxInFlight The number of threads to use and the most calls to the handler that may be
+	 *            in progress at once. Pass in 0 to use the common {@link ForkJoinPool}, with no
+	 *            bound beyond its parallelism.
+	 */
+	public static final void walkParallel(Path path, Handler handler, boolean skipHidden, PathMatcher filter, int maxInFlight) {
+		ForkJoinPool pool = maxInFlight > 0 ? new ForkJoinPool(maxInFlight) : ForkJoinPool.commonPool();
+		try {
+			pool.invoke(new ParallelScan(path, handler, skipHidden, filter, maxInFlight).createRootTask());
+		} catch (Exception exception) {
+			Log.error(exception);
+		} finally {
+			if (maxInFlight > 0) {
+				pool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Walks a file tree lazily, one directory listing at a time, as the returned {@link Stream}
+	 * is consumed. The {@link Stream} should be closed when done with it, so that any directories
+	 * still open are released.
+	 *
+	 * @param path The starting point.
+	 * @param skipHidden Pass in <code>true</code> if files and directories whose names start with a
+	 *            period should be skipped.
+	 * @param filter If not <code>null</code>, only files it matches are returned.
+	 * @return A {@link Stream} of the files found.
+	 */
+	public static final Stream<Path> stream(Path path, boolean skipHidden, PathMatcher filter) {
+		PathIterator iterator = new PathIterator(path, skipHidden, filter);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.DISTINCT | Spliterator.NONNULL), false).onClose(iterator::close);
+	}
+
+	/**
+	 * @param extensions The extensions to match, without their leading period.
+	 * @return A {@link PathMatcher} that matches paths with one of the specified extensions,
+	 *         ignoring case.
+	 */
+	public static final PathMatcher createExtensionFilter(String... extensions) {
+		Set<String> set = new HashSet<>();
+		for (String extension : extensions) {
+			set.add(extension.toLowerCase(Locale.ROOT));
+		}
+		return path -> set.contains(PathUtils.getExtension(path.getFileName()).toLowerCase(Locale.ROOT));
+	}
+
+	private FileScanner(Path path, Handler handler, boolean skipHidden, PathMatcher filter) {
 		mPath = path;
 		mHandler = handler;
 		mSkipHidden = skipHidden;
+		mFilter = filter;
 	}
 
 	private boolean shouldSkip(Path path) {
-		return mSkipHidden && !mPath.equals(path) && path.getFileName().toString().startsWith("."); //$NON-NLS-1$
+		return shouldSkip(mPath, path, mSkipHidden);
+	}
+
+	static boolean shouldSkip(Path root, Path path, boolean skipHidden) {
+		return skipHidden && !root.equals(path) && path.getFileName().toString().startsWith("."); //$NON-NLS-1$
+	}
+
+	static boolean accepts(PathMatcher filter, Path path) {
+		return filter == null || filter.matches(path);
+	}
+
+	/**
+	 * Reads the attributes of a path the same way {@link Files#walkFileTree(Path, Set, int,
+	 * FileVisitor)} does when following links, falling back to the link itself when its target
+	 * can't be read.
+	 *
+	 * @return The attributes, or <code>null</code> if they could not be read.
+	 */
+	static BasicFileAttributes readAttributes(Path path) {
+		try {
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (IOException exception) {
+			try {
+				return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			} catch (IOException nested) {
+				Log.error(exception);
+				return null;
+			}
+		}
+	}
+
+	/** @return An object that identifies the directory, for detecting loops created by links. */
+	static Object getDirectoryKey(Path dir, BasicFileAttributes attrs) {
+		Object key = attrs.fileKey();
+		if (key == null) {
+			try {
+				key = dir.toRealPath();
+			} catch (IOException exception) {
+				key = dir.toAbsolutePath().normalize();
+			}
+		}
+		return key;
 	}
 
 	@Override
@@ -74,7 +229,7 @@ public class FileScanner implements FileVisitor<Path> {
 
 	@Override
 	public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
-		if (!shouldSkip(path)) {
+		if (!shouldSkip(path) && accepts(mFilter, path)) {
 			mHandler.processFile(path);
 		}
 		return FileVisitResult.CONTINUE;
@@ -99,4 +254,236 @@ public class FileScanner implements FileVisitor<Path> {
 		/** @param path The {@link Path} to the file to be processed. */
 		void processFile(Path path) throws IOException;
 	}
+
+	/** A directory being walked, along with those enclosing it, for detecting loops. */
+	private static final class Ancestor {
+		final Object	mKey;
+		final Ancestor	mParent;
+
+		Ancestor(Object key, Ancestor parent) {
+			mKey = key;
+			mParent = parent;
+		}
+
+		boolean contains(Object key) {
+			for (Ancestor one = this; one != null; one = one.mParent) {
+				if (one.mKey.equals(key)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static final class ParallelScan {
+		private Path		mRoot;
+		private Handler		mHandler;
+		private boolean		mSkipHidden;
+		private PathMatcher	mFilter;
+		/**
+		 * Bounds the calls to the handler, since a pool may add compensating threads while others
+		 * wait on a join. <code>null</code> if unbounded.
+		 */
+		private Semaphore	mPermits;
+
+		ParallelScan(Path root, Handler handler, boolean skipHidden, PathMatcher filter, int maxInFlight) {
+			mRoot = root;
+			mHandler = handler;
+			mSkipHidden = skipHidden;
+			mFilter = filter;
+			mPermits = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+		}
+
+		RecursiveAction createRootTask() {
+			BasicFileAttributes attrs = readAttributes(mRoot);
+			if (attrs != null && attrs.isDirectory()) {
+				return new DirectoryTask(mRoot, new Ancestor(getDirectoryKey(mRoot, attrs), null));
+			}
+			List<Path> files = new ArrayList<>(1);
+			if (attrs != null && accepts(mFilter, mRoot)) {
+				files.add(mRoot);
+			}
+			return new FileBatchTask(files);
+		}
+
+		void scanDirectory(Path dir, Ancestor ancestors) {
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			List<Path> files = new ArrayList<>();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+				for (Path path : stream) {
+					if (!shouldSkip(mRoot, path, mSkipHidden)) {
+						BasicFileAttributes attrs = readAttributes(path);
+						if (attrs != null) {
+							if (attrs.isDirectory()) {
+								Object key = getDirectoryKey(path, attrs);
+								if (ancestors.contains(key)) {
+									Log.error(new FileSystemLoopException(path.toString()));
+								} else {
+									tasks.add(new DirectoryTask(path, new Ancestor(key, ancestors)).fork());
+								}
+							} else if (accepts(mFilter, path)) {
+								files.add(path);
+								if (files.size() == FILE_BATCH_SIZE) {
+									tasks.add(new FileBatchTask(files).fork());
+									files = new ArrayList<>();
+								}
+							}
+						}
+					}
+				}
+			} catch (IOException | DirectoryIteratorException exception) {
+				Log.error(exception);
+			}
+			processFiles(files);
+			for (ForkJoinTask<?> task : tasks) {
+				task.join();
+			}
+		}
+
+		void processFiles(List<Path> files) {
+			for (Path path : files) {
+				if (mPermits != null) {
+					mPermits.acquireUninterruptibly();
+				}
+				try {
+					mHandler.processFile(path);
+				} catch (IOException exception) {
+					Log.error(exception);
+				} finally {
+					if (mPermits != null) {
+						mPermits.release();
+					}
+				}
+			}
+		}
+
+		private final class DirectoryTask extends RecursiveAction {
+			private Path		mDir;
+			private Ancestor	mAncestors;
+
+			DirectoryTask(Path dir, Ancestor ancestors) {
+				mDir = dir;
+				mAncestors = ancestors;
+			}
+
+			@Override
+			protected void compute() {
+				scanDirectory(mDir, mAncestors);
+			}
+		}
+
+		private final class FileBatchTask extends RecursiveAction {
+			private List<Path>	mFiles;
+
+			FileBatchTask(List<Path> files) {
+				mFiles = files;
+			}
+
+			@Override
+			protected void compute() {
+				processFiles(mFiles);
+			}
+		}
+	}
+
+	/** Walks a file tree depth-first, listing each directory only when it is reached. */
+	private static final class PathIterator implements Iterator<Path>, Closeable {
+		private Path						mRoot;
+		private boolean						mSkipHidden;
+		private PathMatcher					mFilter;
+		private ArrayDeque<OpenDirectory>	mOpen	= new ArrayDeque<>();
+		private Path						mNext;
+
+		PathIterator(Path root, boolean skipHidden, PathMatcher filter) {
+			mRoot = root;
+			mSkipHidden = skipHidden;
+			mFilter = filter;
+			BasicFileAttributes attrs = readAttributes(root);
+			if (attrs != null) {
+				if (attrs.isDirectory()) {
+					open(root, new Ancestor(getDirectoryKey(root, attrs), null));
+				} else if (accepts(filter, root)) {
+					mNext = root;
+				}
+			}
+		}
+
+		private void open(Path dir, Ancestor ancestors) {
+			try {
+				mOpen.push(new OpenDirectory(Files.newDirectoryStream(dir), ancestors));
+			} catch (IOException exception) {
+				Log.error(exception);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (mNext == null && !mOpen.isEmpty()) {
+				OpenDirectory current = mOpen.peek();
+				Path path;
+				try {
+					path = current.mIterator.hasNext() ? current.mIterator.next() : null;
+				} catch (DirectoryIteratorException exception) {
+					Log.error(exception);
+					path = null;
+				}
+				if (path == null) {
+					current.close();
+					mOpen.pop();
+				} else if (!shouldSkip(mRoot, path, mSkipHidden)) {
+					BasicFileAttributes attrs = readAttributes(path);
+					if (attrs != null) {
+						if (attrs.isDirectory()) {
+							Object key = getDirectoryKey(path, attrs);
+							if (current.mAncestors.contains(key)) {
+								Log.error(new FileSystemLoopException(path.toString()));
+							} else {
+								open(path, new Ancestor(key, current.mAncestors));
+							}
+						} else if (accepts(mFilter, path)) {
+							mNext = path;
+						}
+					}
+				}
+			}
+			return mNext != null;
+		}
+
+		@Override
+		public Path next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Path path = mNext;
+			mNext = null;
+			return path;
+		}
+
+		@Override
+		public void close() {
+			while (!mOpen.isEmpty()) {
+				mOpen.pop().close();
+			}
+		}
+	}
+
+	private static final class OpenDirectory {
+		final DirectoryStream<Path>	mStream;
+		final Iterator<Path>		mIterator;
+		final Ancestor				mAncestors;
+
+		OpenDirectory(DirectoryStream<Path> stream, Ancestor ancestors) {
+			mStream = stream;
+			mIterator = stream.iterator();
+			mAncestors = ancestors;
+		}
+
+		void close() {
+			try {
+				mStream.close();
+			} catch (IOException exception) {
+				Log.error(exception);
+			}
+		}
+	}
 }
@@ -0,0 +1,578 @@
+/*
+ * Copyright (c) 1998-2014 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io;
+
+import com.trollworks.toolkit.annotation.Localize;
+import com.trollworks.toolkit.utility.Localization;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps a persistent index of the files within a tree, so that later scans only need to report
+ * what was added, changed or removed since the previous one. The size and modification time of
+ * each file are recorded, along with a hash of its contents if requested; with hashes, files whose
+ * metadata changed but whose contents did not are not reported.
+ * <p>
+ * {@link #startWatching(ChangeHandler)} keeps the index current as changes happen, using a
+ * {@link WatchService}, so the next startup has little or nothing to catch up on. Changes found
+ * while watching are appended to a journal kept beside the index, which is folded back into the
+ * index once it grows large.
+ */
+public class IncrementalFileScanner {
+	@Localize("Not a file index: %s")
+	@Localize(locale = "de", value = "Keine Dateiindex-Datei: %s")
+	private static String	NOT_AN_INDEX;
+
+	static {
+		Localization.initialize();
+	}
+
+	private static final int	INDEX_MAGIC			= 0x46494458;
+	private static final int	INDEX_VERSION		= 1;
+	private static final int	JOURNAL_MAGIC		= 0x46494A4C;
+	private static final int	MIN_JOURNAL_RECORDS	= 4096;
+	private static final String	HASH_ALGORITHM		= "SHA-1";		//$NON-NLS-1$
+	private static final String	TEMP_SUFFIX			= ".tmp";		//$NON-NLS-1$
+	private static final String	JOURNAL_SUFFIX		= ".journal";	//$NON-NLS-1$
+	private Path				mRoot;
+	private Path				mIndexFile;
+	private Path				mTempFile;
+	private Path				mJournalFile;
+	private String				mIndexName;
+	private Set<Path>			mIndexFiles;
+	private Map<Path, Entry>	mChanges			= new LinkedHashMap<>();
+	private int					mJournalRecords;
+	private boolean				mNeedsFullSave;
+	private boolean				mSkipHidden;
+	private PathMatcher			mFilter;
+	private boolean				mHashContents;
+	private Map<Path, Entry>	mEntries;
+	private WatchService		mWatchService;
+	private Map<WatchKey, Path>	mWatchedDirs		= new HashMap<>();
+	private Thread				mWatchThread;
+
+	/** The callback used for {@link IncrementalFileScanner}. */
+	public interface ChangeHandler {
+		/** @param path The {@link Path} to a file that was added. */
+		void fileAdded(Path path);
+
+		/** @param path The {@link Path} to a file that was changed. */
+		void fileChanged(Path path);
+
+		/** @param path The {@link Path} to a file that was removed. */
+		void fileRemoved(Path path);
+	}
+
+	/**
+	 * Creates a new {@link IncrementalFileScanner}. The index is loaded when first needed; if it
+	 * does not exist yet, every file will be reported as added by the first scan.
+	 *
+	 * @param root The root of the tree to scan.
+	 * @param indexFile The file to keep the index in. Should not be within the tree. If it is, it
+	 *            and the files kept beside it are ignored.
+	 * @param skipHidden Pass in <code>true</code> if files and directories whose names start with a
+	 *            period should be skipped.
+	 * @param filter If not <code>null</code>, only files it matches are tracked.
+	 * @param hashContents Pass in <code>true</code> to record a hash of each file's contents.
+	 */
+	public IncrementalFileScanner(Path root, Path indexFile, boolean skipHidden, PathMatcher filter, boolean hashContents) {
+		mRoot = root;
+		mIndexFile = indexFile;
+		mIndexName = indexFile.getFileName().toString();
+		mTempFile = indexFile.resolveSibling(mIndexName + TEMP_SUFFIX);
+		mJournalFile = indexFile.resolveSibling(mIndexName + JOURNAL_SUFFIX);
+		mIndexFiles = new HashSet<>();
+		for (Path path : new Path[] { mIndexFile, mTempFile, mJournalFile }) {
+			mIndexFiles.add(path.toAbsolutePath().normalize());
+		}
+		mSkipHidden = skipHidden;
+		mFilter = filter;
+		mHashContents = hashContents;
+	}
+
+	/** @return The root of the tree being scanned. */
+	public Path getRoot() {
+		return mRoot;
+	}
+
+	/** @return The files currently in the index. */
+	public synchronized Set<Path> getFiles() {
+		loadIfNeeded();
+		Set<Path> files = new HashSet<>();
+		for (Path relative : mEntries.keySet()) {
+			files.add(mRoot.resolve(relative));
+		}
+		return files;
+	}
+
+	/**
+	 * Walks the tree, reporting the differences from the index and then saving the updated index.
+	 *
+	 * @param handler The {@link ChangeHandler} to notify.
+	 */
+	public synchronized void scan(ChangeHandler handler) {
+		loadIfNeeded();
+		rescan(handler);
+		save();
+	}
+
+	private void rescan(ChangeHandler handler) {
+		Set<Path> missing = new HashSet<>(mEntries.keySet());
+		FileScanner.walk(mRoot, path -> {
+			if (!isIndexFile(path)) {
+				missing.remove(mRoot.relativize(path));
+				update(path, handler);
+			}
+		}, mSkipHidden, mFilter);
+		for (Path relative : missing) {
+			mEntries.remove(relative);
+			mChanges.put(relative, null);
+			handler.fileRemoved(mRoot.resolve(relative));
+		}
+	}
+
+	/** @return Whether the path is the index file or one of the files kept beside it. */
+	private boolean isIndexFile(Path path) {
+		return path.getFileName().toString().startsWith(mIndexName) && mIndexFiles.contains(path.toAbsolutePath().normalize());
+	}
+
+	/**
+	 * Starts a background thread that watches the tree for changes, updating the index and
+	 * notifying the handler as they happen. The changes are journaled whenever the pending events
+	 * have been processed. Call {@link #scan(ChangeHandler)} first to catch up with changes made while
+	 * nothing was watching.
+	 *
+	 * @param handler The {@link ChangeHandler} to notify. It is called from the watching thread.
+	 */
+	public synchronized void startWatching(ChangeHandler handler) throws IOException {
+		if (mWatchService == null) {
+			loadIfNeeded();
+			WatchService watchService = mRoot.getFileSystem().newWatchService();
+			Thread thread;
+			try {
+				registerTree(watchService, mRoot, null);
+				thread = new Thread(() -> watch(watchService, handler), getClass().getSimpleName() + ": " + mRoot); //$NON-NLS-1$
+				thread.setDaemon(true);
+				thread.start();
+			} catch (Throwable throwable) {
+				mWatchedDirs.clear();
+				try {
+					watchService.close();
+				} catch (IOException exception) {
+					Log.error(exception);
+				}
+				throw throwable;
+			}
+			mWatchService = watchService;
+			mWatchThread = thread;
+		}
+	}
+
+	/**
+	 * Stops the background thread started by {@link #startWatching(ChangeHandler)}. When called from
+	 * a {@link ChangeHandler} callback, the thread stops once the callback returns.
+	 */
+	public void stopWatching() {
+		Thread thread;
+		synchronized (this) {
+			if (mWatchService == null) {
+				return;
+			}
+			try {
+				mWatchService.close();
+			} catch (IOException exception) {
+				Log.error(exception);
+			}
+			mWatchService = null;
+			mWatchedDirs.clear();
+			thread = mWatchThread;
+			mWatchThread = null;
+		}
+		if (thread != null && thread != Thread.currentThread()) {
+			try {
+				thread.join();
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void watch(WatchService watchService, ChangeHandler handler) {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				synchronized (this) {
+					try {
+						do {
+							try {
+								processEvents(watchService, key, handler);
+							} catch (RuntimeException exception) {
+								// Don't let a failing handler stop the watching.
+								Log.error(exception);
+							}
+							key = watchService.poll();
+						} while (key != null);
+					} finally {
+						saveChanges();
+					}
+				}
+			}
+		} catch (ClosedWatchServiceException | InterruptedException exception) {
+			// Watching has been stopped.
+		}
+	}
+
+	private void processEvents(WatchService watchService, WatchKey key, ChangeHandler handler) {
+		Path dir = mWatchedDirs.get(key);
+		if (dir == null) {
+			return;
+		}
+		boolean rescan = false;
+		try {
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					rescan = true;
+					continue;
+				}
+				Path path = dir.resolve((Path) event.context());
+				if (FileScanner.shouldSkip(mRoot, path, mSkipHidden) || isIndexFile(path)) {
+					continue;
+				}
+				if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+					removeTree(path, handler);
+				} else if (Files.isDirectory(path)) {
+					if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+						try {
+							registerTree(watchService, path, handler);
+						} catch (IOException exception) {
+							Log.error(exception);
+						}
+					}
+				} else if (FileScanner.accepts(mFilter, path)) {
+					update(path, handler);
+				}
+			}
+		} finally {
+			if (!key.reset()) {
+				mWatchedDirs.remove(key);
+			}
+		}
+		if (rescan) {
+			rescan(handler);
+		}
+	}
+
+	/**
+	 * Registers a directory and those within it with the {@link WatchService}.
+	 *
+	 * @param handler If not <code>null</code>, the files found are also checked against the index,
+	 *            since they may have been created before the directory was being watched.
+	 */
+	private void registerTree(WatchService watchService, Path dir, ChangeHandler handler) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) throws IOException {
+				if (FileScanner.shouldSkip(mRoot, path, mSkipHidden)) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				mWatchedDirs.put(path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), path);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+				if (handler != null && !FileScanner.shouldSkip(mRoot, path, mSkipHidden) && FileScanner.accepts(mFilter, path) && !isIndexFile(path)) {
+					update(path, handler);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path path, IOException exception) throws IOException {
+				Log.error(exception);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/** Removes a file, or all files within a directory, from the index. */
+	private void removeTree(Path path, ChangeHandler handler) {
+		Path relative = mRoot.relativize(path);
+		if (mEntries.remove(relative) != null) {
+			mChanges.put(relative, null);
+			handler.fileRemoved(path);
+		} else {
+			Iterator<Path> iterator = mEntries.keySet().iterator();
+			while (iterator.hasNext()) {
+				Path one = iterator.next();
+				if (one.startsWith(relative)) {
+					iterator.remove();
+					mChanges.put(one, null);
+					handler.fileRemoved(mRoot.resolve(one));
+				}
+			}
+		}
+	}
+
+	/** Compares a file against the index, updating the index and notifying the handler. */
+	private void update(Path path, ChangeHandler handler) {
+		Path relative = mRoot.relativize(path);
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (NoSuchFileException exception) {
+			if (mEntries.remove(relative) != null) {
+				mChanges.put(relative, null);
+				handler.fileRemoved(path);
+			}
+			return;
+		} catch (IOException exception) {
+			Log.error(exception);
+			return;
+		}
+		long size = attrs.size();
+		long modified = attrs.lastModifiedTime().toMillis();
+		Entry entry = mEntries.get(relative);
+		if (entry == null) {
+			entry = new Entry(size, modified, hash(path));
+			mEntries.put(relative, entry);
+			mChanges.put(relative, entry);
+			handler.fileAdded(path);
+		} else if (entry.mSize != size || entry.mModified != modified) {
+			byte[] digest = hash(path);
+			boolean changed = entry.mSize != size || digest == null || entry.mHash == null || !Arrays.equals(digest, entry.mHash);
+			entry.mSize = size;
+			entry.mModified = modified;
+			entry.mHash = digest;
+			mChanges.put(relative, entry);
+			if (changed) {
+				handler.fileChanged(path);
+			}
+		}
+	}
+
+	/** @return The hash of the file's contents, or <code>null</code> if not hashing. */
+	private byte[] hash(Path path) {
+		if (mHashContents) {
+			try (InputStream in = Files.newInputStream(path)) {
+				MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+				byte[] buffer = new byte[8192];
+				int amt;
+				while ((amt = in.read(buffer)) != -1) {
+					digest.update(buffer, 0, amt);
+				}
+				return digest.digest();
+			} catch (IOException | NoSuchAlgorithmException exception) {
+				Log.error(exception);
+			}
+		}
+		return null;
+	}
+
+	private void loadIfNeeded() {
+		if (mEntries == null) {
+			mEntries = new HashMap<>();
+			if (Files.exists(mIndexFile)) {
+				try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(mIndexFile)))) {
+					if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+						throw new IOException(String.format(NOT_AN_INDEX, mIndexFile));
+					}
+					int count = in.readInt();
+					String previous = ""; //$NON-NLS-1$
+					for (int i = 0; i < count; i++) {
+						int shared = in.readUnsignedShort();
+						String name = previous.substring(0, shared) + in.readUTF();
+						mEntries.put(mRoot.getFileSystem().getPath(name), readEntry(in));
+						previous = name;
+					}
+				} catch (IOException exception) {
+					Log.warn(exception);
+					mEntries.clear();
+					mNeedsFullSave = true;
+					return;
+				}
+			}
+			if (Files.exists(mJournalFile)) {
+				try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(mJournalFile)))) {
+					if (in.readInt() != JOURNAL_MAGIC) {
+						throw new IOException(String.format(NOT_AN_INDEX, mJournalFile));
+					}
+					int op;
+					while ((op = in.read()) != -1) {
+						Path relative = mRoot.getFileSystem().getPath(in.readUTF());
+						if (op != 0) {
+							mEntries.put(relative, readEntry(in));
+						} else {
+							mEntries.remove(relative);
+						}
+						mJournalRecords++;
+					}
+				} catch (EOFException exception) {
+					// The last record was only partially written. Everything before it has been
+					// applied, so just fold the journal into the index at the next opportunity.
+					mNeedsFullSave = true;
+				} catch (IOException exception) {
+					Log.warn(exception);
+					mNeedsFullSave = true;
+				}
+			}
+		}
+	}
+
+	private Entry readEntry(DataInputStream in) throws IOException {
+		long size = in.readLong();
+		long modified = in.readLong();
+		byte[] hash = null;
+		int hashLength = in.readUnsignedByte();
+		if (hashLength > 0) {
+			hash = new byte[hashLength];
+			in.readFully(hash);
+		}
+		return new Entry(size, modified, mHashContents ? hash : null);
+	}
+
+	private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+		out.writeLong(entry.mSize);
+		out.writeLong(entry.mModified);
+		if (entry.mHash != null) {
+			out.writeByte(entry.mHash.length);
+			out.write(entry.mHash);
+		} else {
+			out.writeByte(0);
+		}
+	}
+
+	/**
+	 * Appends the changes made since the last save to the journal, or rewrites the whole index if
+	 * the journal has grown large compared to it.
+	 */
+	private void saveChanges() {
+		if (mNeedsFullSave || mJournalRecords + mChanges.size() > Math.max(MIN_JOURNAL_RECORDS, mEntries.size() / 2)) {
+			save();
+		} else if (!mChanges.isEmpty()) {
+			try {
+				boolean created = !Files.exists(mJournalFile);
+				try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(mJournalFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+					if (created) {
+						out.writeInt(JOURNAL_MAGIC);
+					}
+					for (Map.Entry<Path, Entry> one : mChanges.entrySet()) {
+						Entry entry = one.getValue();
+						out.writeByte(entry != null ? 1 : 0);
+						out.writeUTF(one.getKey().toString());
+						if (entry != null) {
+							writeEntry(out, entry);
+						}
+					}
+				}
+				mJournalRecords += mChanges.size();
+				mChanges.clear();
+			} catch (IOException exception) {
+				// A partial record may have been left behind, so don't append after it.
+				Log.error(exception);
+				mNeedsFullSave = true;
+			}
+		}
+	}
+
+	/**
+	 * Writes the index, sorted by path so that each path only needs to store what differs from the
+	 * one before it. The new index replaces the old one and its journal in a single step.
+	 */
+	private void save() {
+		List<String> names = new ArrayList<>(mEntries.size());
+		Map<String, Entry> byName = new HashMap<>();
+		for (Map.Entry<Path, Entry> one : mEntries.entrySet()) {
+			String name = one.getKey().toString();
+			names.add(name);
+			byName.put(name, one.getValue());
+		}
+		Collections.sort(names);
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(mTempFile)))) {
+				out.writeInt(INDEX_MAGIC);
+				out.writeInt(INDEX_VERSION);
+				out.writeInt(names.size());
+				String previous = ""; //$NON-NLS-1$
+				for (String name : names) {
+					int max = Math.min(Math.min(previous.length(), name.length()), 0xFFFF);
+					int shared = 0;
+					while (shared < max && previous.charAt(shared) == name.charAt(shared)) {
+						shared++;
+					}
+					out.writeShort(shared);
+					out.writeUTF(name.substring(shared));
+					writeEntry(out, byName.get(name));
+					previous = name;
+				}
+			}
+			// Should we stop between these two steps, the next scan picks up the journaled changes.
+			Files.deleteIfExists(mJournalFile);
+			try {
+				Files.move(mTempFile, mIndexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException exception) {
+				Files.move(mTempFile, mIndexFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+			mChanges.clear();
+			mJournalRecords = 0;
+			mNeedsFullSave = false;
+		} catch (IOException exception) {
+			Log.error(exception);
+			mNeedsFullSave = true;
+		}
+	}
+
+	private static final class Entry {
+		long	mSize;
+		long	mModified;
+		byte[]	mHash;
+
+		Entry(long size, long modified, byte[] hash) {
+			mSize = size;
+			mModified = modified;
+			mHash = hash;
+		}
+	}
+}
@@ -13,22 +13,86 @@ package com.trollworks.toolkit.io;
 
 import com.trollworks.toolkit.utility.Debug;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
-/** Provides standardized logging. */
+/**
+ * Provides standardized logging. Entries are formatted on the calling thread, then handed through
+ * a lock-free ring buffer to a background thread that writes them in batches, so logging never
+ * blocks on I/O.
+ */
 public class Log {
-	private static final String				SEPARATOR	= " | ";															//$NON-NLS-1$
-	private static final SimpleDateFormat	FORMAT		= new SimpleDateFormat("yyyy.MM.dd" + SEPARATOR + "HH:mm:ss.SSS");	//$NON-NLS-1$ //$NON-NLS-2$
-	private static PrintStream				OUT;
+	/** The logging levels, in increasing order of severity. */
+	public enum Level {
+		/** Informational messages. */
+		INFO,
+		/** Warnings. */
+		WARNING,
+		/** Errors. */
+		ERROR
+	}
+
+	/** The default size, in bytes, a log file may reach before it is rotated. */
+	public static final long						DEFAULT_MAX_LOG_SIZE	= 10 * 1024 * 1024;
+	/** The default number of rotated log files to keep. */
+	public static final int							DEFAULT_BACKUP_COUNT	= 3;
+	private static final String						SEPARATOR				= " | ";																//$NON-NLS-1$
+	private static final DateTimeFormatter			FORMAT					= DateTimeFormatter.ofPattern("yyyy.MM.dd" + SEPARATOR + "HH:mm:ss.");	//$NON-NLS-1$ //$NON-NLS-2$
+	private static final String						LEVEL_CODES				= "IWE";																//$NON-NLS-1$
+	private static final String						LINE_SEPARATOR			= System.lineSeparator();
+	private static final int						RING_SIZE				= 8192;
+	private static final int						INITIAL_CAPACITY		= 256;
+	private static final int						MAX_RETAINED_CAPACITY	= INITIAL_CAPACITY * 4;
+	private static final int						MAX_BATCH_SIZE			= 65536;
+	private static final long						IDLE_WAIT				= TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long						FLUSH_WAIT				= TimeUnit.MILLISECONDS.toNanos(1);
+	private static final Entry[]					RING					= new Entry[RING_SIZE];
+	private static final AtomicLong					TAIL					= new AtomicLong();
+	private static final ThreadLocal<LocalBuffer>	LOCAL					= ThreadLocal.withInitial(LocalBuffer::new);
+	private static final Object						OUTPUT_LOCK				= new Object();
+	private static final Thread						WRITER					= new Thread(Log::drain, Log.class.getSimpleName());
+	private static volatile long					HEAD;
+	private static volatile boolean					WRITER_WAITING;
+	private static volatile int						LEVEL;
+	private static PrintStream						OUT;
+	private static File								LOG_FILE;
+	private static long								LOG_SIZE;
+	private static long								MAX_LOG_SIZE;
+	private static int								BACKUP_COUNT;
 
 	static {
+		for (int i = 0; i < RING_SIZE; i++) {
+			RING[i] = new Entry(i);
+		}
 		OUT = System.out;
-		String property = Debug.getPropertyOrEnvironmentSetting("com.trollworks.log"); //$NON-NLS-1$
+		WRITER.setDaemon(true);
+		WRITER.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, Log.class.getSimpleName()));
+		String property = Debug.getPropertyOrEnvironmentSetting("com.trollworks.log.level"); //$NON-NLS-1$
+		if (property != null && !property.isEmpty()) {
+			try {
+				LEVEL = Level.valueOf(property.toUpperCase(Locale.ROOT)).ordinal();
+			} catch (IllegalArgumentException exception) {
+				error(null, "Unknown log level " + property, null); //$NON-NLS-1$
+			}
+		}
+		property = Debug.getPropertyOrEnvironmentSetting("com.trollworks.log"); //$NON-NLS-1$
 		if (property != null && !property.isEmpty()) {
 			try {
-				OUT = new PrintStream(property);
+				openLogFile(new File(property), DEFAULT_MAX_LOG_SIZE, DEFAULT_BACKUP_COUNT);
 			} catch (Throwable throwable) {
 				error(null, "Unable to redirect log to " + property, throwable); //$NON-NLS-1$
 			}
@@ -55,10 +119,71 @@ public class Log {
 			if (stream == null) {
 				stream = System.out;
 			}
-			if (OUT != stream && OUT != System.out) {
+			flush();
+			synchronized (OUTPUT_LOCK) {
+				if (OUT != stream && OUT != System.out) {
+					OUT.close();
+				}
+				OUT = stream;
+				LOG_FILE = null;
+			}
+		}
+	}
+
+	/**
+	 * Sends the log data to a file, which is appended to. Once the file grows past the maximum
+	 * size, it is renamed with a ".1" suffix, any older rotated files are shifted up by one, and
+	 * a fresh file is started. Note that when {@link Debug#DEV_MODE} is <code>true</code>, calling
+	 * this method has no effect and logging is always performed to {@link System#out}.
+	 *
+	 * @param file The file to write the log data to.
+	 * @param maxSize The size, in bytes, the file may reach before it is rotated.
+	 * @param backupCount The number of rotated files to keep.
+	 */
+	public static final void setLogFile(File file, long maxSize, int backupCount) throws IOException {
+		if (!Debug.DEV_MODE) {
+			flush();
+			openLogFile(file, maxSize, backupCount);
+		}
+	}
+
+	private static void openLogFile(File file, long maxSize, int backupCount) throws IOException {
+		PrintStream stream = new PrintStream(new BufferedOutputStream(new FileOutputStream(file, true)), false);
+		synchronized (OUTPUT_LOCK) {
+			if (OUT != System.out) {
 				OUT.close();
 			}
 			OUT = stream;
+			LOG_FILE = file;
+			LOG_SIZE = file.length();
+			MAX_LOG_SIZE = maxSize;
+			BACKUP_COUNT = backupCount;
+		}
+	}
+
+	/**
+	 * @param level The minimum {@link Level} a message must have to be logged. Messages below it
+	 *            are discarded before any formatting is done.
+	 */
+	public static final void setLevel(Level level) {
+		LEVEL = level.ordinal();
+	}
+
+	/**
+	 * @param level The {@link Level} to check.
+	 * @return <code>true</code> if messages at the {@link Level} will be logged. Callers may use
+	 *         this to avoid building expensive messages that would be discarded.
+	 */
+	public static final boolean isEnabled(Level level) {
+		return level.ordinal() >= LEVEL;
+	}
+
+	/** Waits until everything logged so far has been written out. */
+	public static final void flush() {
+		long target = TAIL.get();
+		while (HEAD < target && WRITER.isAlive() && Thread.currentThread() != WRITER) {
+			LockSupport.unpark(WRITER);
+			LockSupport.parkNanos(FLUSH_WAIT);
 		}
 	}
 
@@ -118,7 +243,7 @@ public class Log {
 	 * @param throwable The {@link Throwable} to log.
 	 */
 	public static final void error(Context context, String msg, Throwable throwable) {
-		post('E', context, msg, throwable);
+		post(Level.ERROR, context, msg, throwable);
 	}
 
 	/**
@@ -177,7 +302,7 @@ public class Log {
 	 * @param throwable The {@link Throwable} to log.
 	 */
 	public static final void warn(Context context, String msg, Throwable throwable) {
-		post('W', context, msg, throwable);
+		post(Level.WARNING, context, msg, throwable);
 	}
 
 	/**
@@ -236,31 +361,184 @@ public class Log {
 	 * @param throwable The {@link Throwable} to log.
 	 */
 	public static final void info(Context context, String msg, Throwable throwable) {
-		post('I', context, msg, throwable);
+		post(Level.INFO, context, msg, throwable);
 	}
 
-	private static final void post(char levelCode, Context context, String msg, Throwable throwable) {
-		StringBuilder buffer = new StringBuilder();
-		buffer.append(levelCode);
-		buffer.append(SEPARATOR);
-		buffer.append(FORMAT.format(new Date()));
-		buffer.append(SEPARATOR);
-		if (context != null) {
-			buffer.append(context.getLogContext());
+	private static final void post(Level level, Context context, String msg, Throwable throwable) {
+		if (level.ordinal() < LEVEL) {
+			return;
+		}
+		LocalBuffer local = LOCAL.get();
+		// A context or message that logs while being formatted gets a buffer of its own.
+		boolean nested = local.mInUse;
+		StringBuilder buffer = nested ? new StringBuilder() : local.mText;
+		local.mInUse = true;
+		try {
+			buffer.setLength(0);
+			buffer.append(LEVEL_CODES.charAt(level.ordinal()));
+			buffer.append(SEPARATOR);
+			local.appendTimestamp(buffer);
 			buffer.append(SEPARATOR);
+			if (context != null) {
+				buffer.append(context.getLogContext());
+				buffer.append(SEPARATOR);
+			}
+			if (msg == null && throwable != null) {
+				msg = throwable.getMessage();
+			}
+			if (msg != null && !msg.isEmpty()) {
+				buffer.append(msg);
+			}
+			if (throwable != null) {
+				if (msg != null) {
+					buffer.append(' ');
+				}
+				Debug.stackTrace(throwable, buffer);
+			}
+			enqueue(buffer);
+		} finally {
+			if (!nested) {
+				local.mInUse = false;
+				if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+					local.mText = new StringBuilder(INITIAL_CAPACITY);
+				}
+			}
+		}
+	}
+
+	private static void enqueue(StringBuilder text) {
+		int mask = RING_SIZE - 1;
+		while (true) {
+			long pos = TAIL.get();
+			Entry entry = RING[(int) pos & mask];
+			long sequence = entry.mSequence;
+			if (sequence == pos) {
+				if (TAIL.compareAndSet(pos, pos + 1)) {
+					entry.mText.append(text);
+					entry.mSequence = pos + 1;
+					if (WRITER_WAITING) {
+						LockSupport.unpark(WRITER);
+					}
+					return;
+				}
+			} else if (sequence < pos) {
+				// The ring is full, so give the writer a chance to catch up.
+				LockSupport.unpark(WRITER);
+				Thread.yield();
+			}
 		}
-		if (msg == null && throwable != null) {
-			msg = throwable.getMessage();
+	}
+
+	private static void drain() {
+		int mask = RING_SIZE - 1;
+		long head = HEAD;
+		StringBuilder batch = new StringBuilder(MAX_BATCH_SIZE);
+		while (true) {
+			Entry entry = RING[(int) head & mask];
+			if (entry.mSequence == head + 1) {
+				batch.append(entry.mText);
+				batch.append(LINE_SEPARATOR);
+				if (entry.mText.capacity() > MAX_RETAINED_CAPACITY) {
+					entry.mText = new StringBuilder(INITIAL_CAPACITY);
+				} else {
+					entry.mText.setLength(0);
+				}
+				entry.mSequence = head + RING_SIZE;
+				head++;
+				if (batch.length() < MAX_BATCH_SIZE) {
+					continue;
+				}
+			}
+			if (batch.length() > 0) {
+				write(batch);
+				batch.setLength(0);
+				HEAD = head;
+			} else {
+				WRITER_WAITING = true;
+				if (entry.mSequence != head + 1) {
+					LockSupport.parkNanos(IDLE_WAIT);
+				}
+				WRITER_WAITING = false;
+			}
 		}
-		if (msg != null && !msg.isEmpty()) {
-			buffer.append(msg);
+	}
+
+	private static void write(StringBuilder batch) {
+		synchronized (OUTPUT_LOCK) {
+			OUT.append(batch);
+			OUT.flush();
+			if (LOG_FILE != null) {
+				LOG_SIZE += batch.length();
+				if (LOG_SIZE >= MAX_LOG_SIZE) {
+					rotate();
+				}
+			}
 		}
-		if (throwable != null) {
-			if (msg != null) {
-				buffer.append(' ');
+	}
+
+	private static void rotate() {
+		OUT.close();
+		for (int i = BACKUP_COUNT; i > 0; i--) {
+			File from = i == 1 ? LOG_FILE : getBackupFile(i - 1);
+			if (from.exists()) {
+				try {
+					Files.move(from.toPath(), getBackupFile(i).toPath(), StandardCopyOption.REPLACE_EXISTING);
+				} catch (IOException exception) {
+					// Leave it where it is. If it is the current log, it will be truncated below.
+				}
+			}
+		}
+		try {
+			OUT = new PrintStream(new BufferedOutputStream(new FileOutputStream(LOG_FILE)), false);
+			LOG_SIZE = 0;
+		} catch (IOException exception) {
+			// The log file can't be written any more, so fall back to the console.
+			OUT = System.out;
+			LOG_FILE = null;
+		}
+	}
+
+	private static File getBackupFile(int index) {
+		return new File(LOG_FILE.getPath() + '.' + index);
+	}
+
+	/** A slot in the ring buffer. */
+	private static final class Entry {
+		/**
+		 * Equal to the slot's position when it is free for that position to be written, and one
+		 * past it once the text for that position has been published.
+		 */
+		volatile long	mSequence;
+		StringBuilder	mText	= new StringBuilder(INITIAL_CAPACITY);
+
+		Entry(long sequence) {
+			mSequence = sequence;
+		}
+	}
+
+	/** The per-thread state used to format entries. */
+	private static final class LocalBuffer {
+		StringBuilder	mText	= new StringBuilder(INITIAL_CAPACITY);
+		boolean			mInUse;
+		private long	mSecond	= Long.MIN_VALUE;
+		private String	mTimestamp;
+
+		void appendTimestamp(StringBuilder buffer) {
+			long now = System.currentTimeMillis();
+			long second = Math.floorDiv(now, 1000L);
+			if (second != mSecond) {
+				mSecond = second;
+				mTimestamp = FORMAT.format(LocalDateTime.ofInstant(Instant.ofEpochSecond(second), ZoneId.systemDefault()));
+			}
+			buffer.append(mTimestamp);
+			int millis = (int) Math.floorMod(now, 1000L);
+			if (millis < 100) {
+				buffer.append('0');
+				if (millis < 10) {
+					buffer.append('0');
+				}
 			}
-			Debug.stackTrace(throwable, buffer);
+			buffer.append(millis);
 		}
-		OUT.println(buffer);
 	}
 }
@@ -14,15 +14,41 @@ package com.trollworks.toolkit.io;
 import com.trollworks.toolkit.annotation.Localize;
 import com.trollworks.toolkit.utility.Localization;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Provides transactional file writing. By using this class to wrap all file updates, you can
  * guarantee that all files will be updated as a logical unit, or, on failure, none will be
  * modified.
+ * <p>
+ * On commit, the contents of every transactional file are forced to disk first. An intent journal
+ * listing the swaps about to be made is then written next to the first file, after which each file
+ * is moved into place atomically. The journal stays locked until the commit is done. Should the
+ * process die part way through, calling {@link #recover(File)} with one of the files rolls the
+ * transaction back, or, if it had already been marked as committed, finishes cleaning up after it.
  */
 public class SafeFileUpdater {
 	@Localize("No transaction in progress.")
@@ -37,11 +63,23 @@ public class SafeFileUpdater {
 	@Localize("\"file\" may not refer to a directory.")
 	@Localize(locale = "de", value = "\"file\" darf kein Verzeichnis sein.")
 	private static String		MAY_NOT_BE_DIRECTORY;
+	@Localize("Not a transaction journal: %s")
+	@Localize(locale = "de", value = "Kein Transaktionsjournal: %s")
+	private static String		NOT_A_JOURNAL;
 
 	static {
 		Localization.initialize();
 	}
 
+	private static final String	TRANSACTION_PREFIX	= ".trn";		//$NON-NLS-1$
+	private static final String	TRANSACTION_SUFFIX	= ".tmp";		//$NON-NLS-1$
+	private static final String	BACKUP_SUFFIX		= ".bak";		//$NON-NLS-1$
+	private static final String	JOURNAL_PREFIX		= ".sfu";		//$NON-NLS-1$
+	private static final String	JOURNAL_SUFFIX		= ".journal";	//$NON-NLS-1$
+	private static final int	JOURNAL_MAGIC		= 0x53465531;
+	private static final int	STATE_OFFSET		= 4;
+	private static final byte	PREPARED			= 1;
+	private static final byte	COMMITTED			= 2;
 	private HashMap<File, File>	mFiles;
 	private int					mStarted;
 
@@ -80,51 +118,215 @@ public class SafeFileUpdater {
 			throw new IllegalStateException(NO_TRANSACTION_IN_PROGRESS);
 		}
 
-		if (--mStarted == 0) {
-			HashMap<File, File> renameMap = new HashMap<>();
-			File destFile;
-			File tmpFile;
+		if (--mStarted == 0 && !mFiles.isEmpty()) {
+			List<Swap> swaps = new ArrayList<>(mFiles.size());
+			Path journal = null;
+			FileChannel channel = null;
 
-			// Attempt to swap all the necessary files
 			try {
-				for (Map.Entry<File, File> entry1 : mFiles.entrySet()) {
-					destFile = entry1.getKey();
-					tmpFile = entry1.getValue();
-
-					if (destFile.exists()) {
-						File tmpRenameFile = File.createTempFile("ren", null, destFile.getParentFile()); //$NON-NLS-1$
-
-						if (tmpRenameFile.delete() && destFile.renameTo(tmpRenameFile)) {
-							renameMap.put(destFile, tmpRenameFile);
-						} else {
-							throw new IOException(FILE_SWAP_FAILED);
-						}
+				for (Map.Entry<File, File> entry : mFiles.entrySet()) {
+					swaps.add(new Swap(entry.getKey(), entry.getValue()));
+				}
+				for (Swap swap : swaps) {
+					swap.forceSource();
+				}
+				Path journalDir = swaps.get(0).mTarget.getParent();
+				journal = File.createTempFile(JOURNAL_PREFIX, JOURNAL_SUFFIX, journalDir.toFile()).toPath();
+				channel = FileChannel.open(journal, StandardOpenOption.READ, StandardOpenOption.WRITE);
+				channel.lock();
+				if (!Files.exists(journal)) {
+					// A recover() call took the empty journal for a finished one before we locked it.
+					throw new NoSuchFileException(journal.toString());
+				}
+				writeJournal(channel, swaps);
+				forceDirectory(journalDir);
+				for (Swap swap : swaps) {
+					swap.apply();
+				}
+				Set<Path> dirs = new LinkedHashSet<>();
+				for (Swap swap : swaps) {
+					dirs.add(swap.mTarget.getParent());
+				}
+				for (Path dir : dirs) {
+					forceDirectory(dir);
+				}
+				channel.write(ByteBuffer.wrap(new byte[] { COMMITTED }), STATE_OFFSET);
+				channel.force(false);
+			} catch (IOException exception) {
+				boolean rolledBack = false;
+				try {
+					for (int i = swaps.size() - 1; i >= 0; i--) {
+						swaps.get(i).rollBack();
 					}
+					rolledBack = true;
+				} catch (IOException rollBackException) {
+					// Leave the journal behind, so that recover() can finish the job later.
+					Log.error(rollBackException);
+				}
+				if (journal != null) {
+					closeJournal(channel, journal, rolledBack);
+				}
+				abort();
+				throw new IOException(FILE_SWAP_FAILED, exception);
+			}
 
-					if (tmpFile.exists() && !tmpFile.renameTo(destFile)) {
-						throw new IOException(FILE_SWAP_FAILED);
-					}
+			// The transaction is committed at this point, so a failure to clean up our temporary
+			// files is left for recover() to deal with rather than reported to the caller.
+			boolean cleanedUp = false;
+			try {
+				for (Swap swap : swaps) {
+					swap.cleanUp();
 				}
-			} catch (IOException ioe) {
-				for (Map.Entry<File, File> entry2 : renameMap.entrySet()) {
-					destFile = entry2.getKey();
-					tmpFile = entry2.getValue();
+				cleanedUp = true;
+			} catch (IOException exception) {
+				Log.error(exception);
+			}
+			closeJournal(channel, journal, cleanedUp);
+			mFiles.clear();
+		}
+	}
 
-					destFile.delete();
-					tmpFile.renameTo(destFile);
+	/**
+	 * Releases the lock on a journal, first emptying and then removing it if its work is done. An
+	 * empty journal is treated as finished by {@link #recover(File)}, should removing it fail.
+	 */
+	private static void closeJournal(FileChannel channel, Path journal, boolean discard) {
+		try {
+			if (channel != null) {
+				if (discard) {
+					channel.truncate(0);
 				}
-				abort();
-				throw ioe;
+				channel.close();
 			}
+			if (discard) {
+				Files.deleteIfExists(journal);
+			}
+		} catch (IOException exception) {
+			Log.error(exception);
+		}
+	}
+
+	/**
+	 * Finishes any transaction involving the specified file that was interrupted while swapping
+	 * files into place, such as by a crash. Transactions that had not yet been marked as committed
+	 * are rolled back, restoring the original files. Journals are kept next to the first file of a
+	 * transaction, so only transactions that involve a file in the same directory are found. Those
+	 * that do not name the file, or whose journal is still locked by a running commit, are left
+	 * alone. This should be called before the file is read.
+	 *
+	 * @param file The file to finish interrupted transactions for.
+	 */
+	public static void recover(File file) throws IOException {
+		Path target = file.getAbsoluteFile().toPath().normalize();
+		File[] journals = target.getParent().toFile().listFiles((dir, name) -> name.startsWith(JOURNAL_PREFIX) && name.endsWith(JOURNAL_SUFFIX));
+		if (journals != null) {
+			for (File journal : journals) {
+				recover(journal.toPath(), target);
+			}
+		}
+	}
 
-			// Clean up our temporary files
-			for (File delFile1 : renameMap.values()) {
-				delFile1.delete();
+	private static void recover(Path journal, Path target) throws IOException {
+		List<Swap> swaps = new ArrayList<>();
+		byte state;
+		FileChannel channel;
+
+		try {
+			channel = FileChannel.open(journal, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		} catch (NoSuchFileException exception) {
+			// Finished by its owner in the meantime.
+			return;
+		}
+		try {
+			FileLock lock;
+			try {
+				lock = channel.tryLock();
+			} catch (OverlappingFileLockException exception) {
+				lock = null;
 			}
-			for (File delFile2 : mFiles.values()) {
-				delFile2.delete();
+			if (lock == null) {
+				// A commit is still using it.
+				channel.close();
+				return;
 			}
-			mFiles.clear();
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+				// Keep reading until the whole journal is in memory.
+			}
+			if (buffer.position() == 0) {
+				closeJournal(channel, journal, true);
+				return;
+			}
+			try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array(), 0, buffer.position()))) {
+				if (in.readInt() != JOURNAL_MAGIC) {
+					throw new IOException(String.format(NOT_A_JOURNAL, journal));
+				}
+				state = in.readByte();
+				for (int i = in.readInt(); i > 0; i--) {
+					swaps.add(new Swap(in));
+				}
+			} catch (EOFException exception) {
+				// The journal was never completed, so none of its files were touched. Since the
+				// files it names can't be known for certain, it is left for its owner.
+				channel.close();
+				return;
+			}
+			boolean ours = false;
+			for (Swap swap : swaps) {
+				ours |= swap.mTarget.normalize().equals(target);
+			}
+			if (!ours) {
+				channel.close();
+				return;
+			}
+			if (state == COMMITTED) {
+				for (Swap swap : swaps) {
+					swap.cleanUp();
+				}
+			} else {
+				for (int i = swaps.size() - 1; i >= 0; i--) {
+					swaps.get(i).rollBack();
+				}
+			}
+		} catch (IOException exception) {
+			channel.close();
+			throw exception;
+		}
+		closeJournal(channel, journal, true);
+	}
+
+	private static void writeJournal(FileChannel channel, List<Swap> swaps) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+		try (DataOutputStream out = new DataOutputStream(buffer)) {
+			out.writeInt(JOURNAL_MAGIC);
+			out.writeByte(PREPARED);
+			out.writeInt(swaps.size());
+			for (Swap swap : swaps) {
+				swap.write(out);
+			}
+		}
+		ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+		channel.force(false);
+	}
+
+	/** Forces a directory's entries to disk, on platforms that allow directories to be opened. */
+	private static void forceDirectory(Path dir) {
+		try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException exception) {
+			// Not supported on this platform.
+		}
+	}
+
+	private static void move(Path from, Path to) throws IOException {
+		try {
+			Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException exception) {
+			Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
 		}
 	}
 
@@ -148,9 +350,82 @@ public class SafeFileUpdater {
 
 		File transFile = mFiles.get(file);
 		if (transFile == null) {
-			transFile = File.createTempFile(".trn", null, file.getParentFile()); //$NON-NLS-1$
+			transFile = File.createTempFile(TRANSACTION_PREFIX, TRANSACTION_SUFFIX, file.getAbsoluteFile().getParentFile());
 			mFiles.put(file, transFile);
 		}
 		return transFile;
 	}
+
+	/** One file being replaced as part of a transaction. */
+	private static final class Swap {
+		Path	mTarget;
+		Path	mSource;
+		Path	mBackup;
+
+		Swap(File target, File source) throws IOException {
+			mTarget = target.getAbsoluteFile().toPath();
+			mSource = source.getAbsoluteFile().toPath();
+			if (Files.exists(mTarget)) {
+				String name = mSource.getFileName().toString();
+				if (name.endsWith(TRANSACTION_SUFFIX)) {
+					name = name.substring(0, name.length() - TRANSACTION_SUFFIX.length());
+				}
+				mBackup = mTarget.resolveSibling(name + BACKUP_SUFFIX);
+			}
+		}
+
+		Swap(DataInputStream in) throws IOException {
+			mTarget = Paths.get(in.readUTF());
+			mSource = Paths.get(in.readUTF());
+			String backup = in.readUTF();
+			if (!backup.isEmpty()) {
+				mBackup = Paths.get(backup);
+			}
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeUTF(mTarget.toString());
+			out.writeUTF(mSource.toString());
+			out.writeUTF(mBackup != null ? mBackup.toString() : ""); //$NON-NLS-1$
+		}
+
+		/** Forces the new contents to disk. */
+		void forceSource() throws IOException {
+			if (Files.exists(mSource)) {
+				try (FileChannel channel = FileChannel.open(mSource, StandardOpenOption.WRITE)) {
+					channel.force(true);
+				}
+			}
+		}
+
+		/** Moves the original out of the way and the new contents into place. */
+		void apply() throws IOException {
+			if (mBackup != null) {
+				move(mTarget, mBackup);
+			}
+			if (Files.exists(mSource)) {
+				move(mSource, mTarget);
+			}
+		}
+
+		/** Undoes whatever part of {@link #apply()} was done. */
+		void rollBack() throws IOException {
+			if (mBackup != null) {
+				if (Files.exists(mBackup)) {
+					move(mBackup, mTarget);
+				}
+			} else if (!Files.exists(mSource)) {
+				Files.deleteIfExists(mTarget);
+			}
+			Files.deleteIfExists(mSource);
+		}
+
+		/** Removes the files left over once the transaction has been committed. */
+		void cleanUp() throws IOException {
+			if (mBackup != null) {
+				Files.deleteIfExists(mBackup);
+			}
+			Files.deleteIfExists(mSource);
+		}
+	}
 }
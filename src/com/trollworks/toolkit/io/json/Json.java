@@ -24,18 +24,27 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Map;
 
 /** Json utilities. */
 public class Json {
-	private Reader	mReader;
-	private int		mIndex;
-	private int		mCharacter	= 1;
-	private int		mLine		= 1;
-	private char	mPrevious;
-	private boolean	mEOF;
-	private boolean	mUsePrevious;
+	private static final int		BUFFER_SIZE		= 8192;
+	private static final double[]	POWERS_OF_TEN	= { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	private Reader					mReader;
+	private char[]					mBuffer			= new char[BUFFER_SIZE];
+	private int						mPos;
+	private int						mLimit;
+	private char[]					mToken			= new char[32];
+	private int						mTokenLength;
+	private StringBuilder			mScratch		= new StringBuilder();
+	private int						mIndex;
+	private int						mCharacter		= 1;
+	private int						mLine			= 1;
+	private char					mPrevious;
+	private boolean					mEOF;
+	private boolean					mUsePrevious;
 
 	/**
 	 * @param reader A {@link Reader} to load JSON data from.
@@ -180,34 +189,16 @@ public class Json {
 	 * @return The encoded {@link String}.
 	 */
 	public static final String toString(Object value) {
-		if (JsonNull.INSTANCE.equals(value)) {
-			return JsonNull.INSTANCE.toString();
-		}
-		if (value instanceof Number) {
-			String str = value.toString();
-			if (str.indexOf('.') > 0 && str.indexOf('e') < 0 && str.indexOf('E') < 0) {
-				while (str.endsWith("0")) { //$NON-NLS-1$
-					str = str.substring(0, str.length() - 1);
-				}
-				if (str.endsWith(".")) { //$NON-NLS-1$
-					str = str.substring(0, str.length() - 1);
-				}
-			}
-			return str;
-		}
-		if (value instanceof Boolean || value instanceof JsonMap || value instanceof JsonArray) {
-			return value.toString();
-		}
-		if (value instanceof Map || value instanceof Collection || value.getClass().isArray()) {
-			return wrap(value).toString();
-		}
-		if (value instanceof Point) {
-			return quote(Geometry.toString((Point) value));
+		StringBuilder buffer = new StringBuilder();
+		try {
+			JsonWriter writer = new JsonWriter(buffer);
+			writer.value(value);
+			writer.flush();
+		} catch (IOException exception) {
+			// Can't happen, since a StringBuilder is being used.
+			Log.error(exception);
 		}
-		if (value instanceof Rectangle) {
-			return quote(Geometry.toString((Rectangle) value));
-		}
-		return quote(value.toString());
+		return buffer.toString();
 	}
 
 	/**
@@ -299,72 +290,36 @@ public class Json {
 	 * @return The quoted {@link String}, suitable for storage inside a JSON object.
 	 */
 	public static final String quote(String string) {
-		int len;
-		if (string == null || (len = string.length()) == 0) {
-			return "\"\""; //$NON-NLS-1$
-		}
-		StringBuffer buffer = new StringBuffer(len + 4);
-		buffer.append('"');
-		char ch = 0;
-		for (int i = 0; i < len; i++) {
-			char last = ch;
-			ch = string.charAt(i);
-			switch (ch) {
-				case '\\':
-				case '"':
-					buffer.append('\\');
-					buffer.append(ch);
-					break;
-				case '/':
-					if (last == '<') {
-						buffer.append('\\');
-					}
-					buffer.append(ch);
-					break;
-				case '\b':
-					buffer.append("\\b"); //$NON-NLS-1$
-					break;
-				case '\t':
-					buffer.append("\\t"); //$NON-NLS-1$
-					break;
-				case '\n':
-					buffer.append("\\n"); //$NON-NLS-1$
-					break;
-				case '\f':
-					buffer.append("\\f"); //$NON-NLS-1$
-					break;
-				case '\r':
-					buffer.append("\\r"); //$NON-NLS-1$
-					break;
-				default:
-					if (ch < ' ' || ch >= '\u0080' && ch < '\u00a0' || ch >= '\u2000' && ch < '\u2100') {
-						String hex = "000" + Integer.toHexString(ch); //$NON-NLS-1$
-						buffer.append("\\u" + hex.substring(hex.length() - 4)); //$NON-NLS-1$
-					} else {
-						buffer.append(ch);
-					}
-					break;
-			}
-		}
-		buffer.append('"');
-		return buffer.toString();
+		return toString(string == null ? "" : string); //$NON-NLS-1$
 	}
 
 	private Json(Reader reader) {
 		mReader = reader;
 	}
 
+	private boolean fill() throws IOException {
+		int count = mReader.read(mBuffer, 0, mBuffer.length);
+		if (count <= 0) {
+			return false;
+		}
+		mPos = 0;
+		mLimit = count;
+		return true;
+	}
+
 	private char next() throws IOException {
 		int c;
 		if (mUsePrevious) {
 			mUsePrevious = false;
 			c = mPrevious;
-		} else {
-			c = mReader.read();
-			if (c <= 0) { // End of stream
+		} else if (mPos < mLimit || fill()) {
+			c = mBuffer[mPos++];
+			if (c == 0) { // Treat an embedded NUL as the end of stream
 				mEOF = true;
-				c = 0;
 			}
+		} else { // End of stream
+			mEOF = true;
+			c = 0;
 		}
 		mIndex++;
 		if (mPrevious == '\r') {
@@ -391,7 +346,6 @@ public class Json {
 
 	private Object nextValue() throws IOException {
 		char c = nextSkippingWhitespace();
-		String s;
 
 		switch (c) {
 			case '"':
@@ -408,32 +362,49 @@ public class Json {
 				break;
 		}
 
-		StringBuffer sb = new StringBuffer();
+		mTokenLength = 0;
 		while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) { //$NON-NLS-1$
-			sb.append(c);
+			if (mTokenLength == mToken.length) {
+				mToken = Arrays.copyOf(mToken, mTokenLength * 2);
+			}
+			mToken[mTokenLength++] = c;
 			c = next();
 		}
 		back();
 
-		s = sb.toString().trim();
-		if (s.equals("")) { //$NON-NLS-1$
+		int start = 0;
+		int end = mTokenLength;
+		while (start < end && mToken[start] <= ' ') {
+			start++;
+		}
+		while (end > start && mToken[end - 1] <= ' ') {
+			end--;
+		}
+		if (start == end) {
 			throw syntaxError("Missing value"); //$NON-NLS-1$
 		}
-		if (s.equalsIgnoreCase("true")) { //$NON-NLS-1$
+		if (tokenEqualsIgnoreCase(start, end, "true")) { //$NON-NLS-1$
 			return Boolean.TRUE;
 		}
-		if (s.equalsIgnoreCase("false")) { //$NON-NLS-1$
+		if (tokenEqualsIgnoreCase(start, end, "false")) { //$NON-NLS-1$
 			return Boolean.FALSE;
 		}
-		if (s.equalsIgnoreCase("null")) { //$NON-NLS-1$
+		if (tokenEqualsIgnoreCase(start, end, "null")) { //$NON-NLS-1$
 			return JsonNull.INSTANCE;
 		}
 
-		char b = s.charAt(0);
+		char b = mToken[start];
 		if (b >= '0' && b <= '9' || b == '.' || b == '-' || b == '+') {
+			Number number = parseNumber(start, end);
+			if (number != null) {
+				return number;
+			}
+			// Fall back to the general purpose parsers for anything unusual, such as hex values,
+			// integers too large for the fast path, or type suffixes.
+			String s = new String(mToken, start, end - start);
 			if (b == '0' && s.length() > 2 && (s.charAt(1) == 'x' || s.charAt(1) == 'X')) {
 				try {
-					return new Integer(Integer.parseInt(s.substring(2), 16));
+					return Integer.valueOf(Integer.parseInt(s.substring(2), 16));
 				} catch (Exception ignore) {
 					Log.error(ignore);
 				}
@@ -442,16 +413,130 @@ public class Json {
 				if (s.indexOf('.') > -1 || s.indexOf('e') > -1 || s.indexOf('E') > -1) {
 					return Double.valueOf(s);
 				}
-				Long myLong = new Long(s);
-				if (myLong.longValue() == myLong.intValue()) {
-					return new Integer(myLong.intValue());
+				long value = Long.parseLong(s);
+				if (value == (int) value) {
+					return Integer.valueOf((int) value);
 				}
-				return myLong;
+				return Long.valueOf(value);
 			} catch (Exception ignore) {
 				Log.error(ignore);
 			}
+			return s;
+		}
+		return new String(mToken, start, end - start);
+	}
+
+	private boolean tokenEqualsIgnoreCase(int start, int end, String literal) {
+		int length = literal.length();
+		if (end - start != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			char ch = mToken[start + i];
+			if (ch >= 'A' && ch <= 'Z') {
+				ch += 'a' - 'A';
+			}
+			if (ch != literal.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parses plain decimal numbers directly from the token buffer.
+	 *
+	 * @return The parsed value, or <code>null</code> if the token requires the slower, general
+	 *         purpose parsing.
+	 */
+	private Number parseNumber(int start, int end) {
+		int i = start;
+		boolean negative = false;
+		char ch = mToken[i];
+		if (ch == '-' || ch == '+') {
+			negative = ch == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean sawDigits = false;
+		boolean isDouble = false;
+		while (i < end && (ch = mToken[i]) >= '0' && ch <= '9') {
+			if (mantissa != 0 || ch != '0') {
+				if (++digits > 18) {
+					return null;
+				}
+				mantissa = mantissa * 10 + ch - '0';
+			}
+			sawDigits = true;
+			i++;
+		}
+		if (i < end && mToken[i] == '.') {
+			isDouble = true;
+			i++;
+			while (i < end && (ch = mToken[i]) >= '0' && ch <= '9') {
+				if (mantissa != 0 || ch != '0') {
+					if (++digits > 18) {
+						return null;
+					}
+					mantissa = mantissa * 10 + ch - '0';
+				}
+				exponent--;
+				sawDigits = true;
+				i++;
+			}
+		}
+		if (!sawDigits) {
+			return null;
+		}
+		if (i < end && ((ch = mToken[i]) == 'e' || ch == 'E')) {
+			isDouble = true;
+			if (++i == end) {
+				return null;
+			}
+			boolean negativeExponent = false;
+			ch = mToken[i];
+			if (ch == '-' || ch == '+') {
+				negativeExponent = ch == '-';
+				i++;
+			}
+			int exp = 0;
+			int expStart = i;
+			while (i < end && (ch = mToken[i]) >= '0' && ch <= '9') {
+				if (i - expStart > 3) {
+					return null;
+				}
+				exp = exp * 10 + ch - '0';
+				i++;
+			}
+			if (i == expStart) {
+				return null;
+			}
+			exponent += negativeExponent ? -exp : exp;
+		}
+		if (i != end) {
+			return null;
+		}
+		if (!isDouble) {
+			long value = negative ? -mantissa : mantissa;
+			if (value == (int) value) {
+				return Integer.valueOf((int) value);
+			}
+			return Long.valueOf(value);
+		}
+		// Only take the fast path when both the mantissa and the power of ten are exactly
+		// representable as doubles, which guarantees a correctly rounded result.
+		if (digits > 15 || exponent < -22 || exponent > 22) {
+			return null;
 		}
-		return s;
+		double value = mantissa;
+		if (exponent < 0) {
+			value /= POWERS_OF_TEN[-exponent];
+		} else {
+			value *= POWERS_OF_TEN[exponent];
+		}
+		return Double.valueOf(negative ? -value : value);
 	}
 
 	private JsonArray nextArray() throws IOException {
@@ -489,7 +574,7 @@ public class Json {
 				case ']':
 				case ')':
 					if (q != c) {
-						throw syntaxError("Expected a '" + new Character(q) + "'"); //$NON-NLS-1$ //$NON-NLS-2$
+						throw syntaxError("Expected a '" + q + "'"); //$NON-NLS-1$ //$NON-NLS-2$
 					}
 					return array;
 				default:
@@ -549,8 +634,12 @@ public class Json {
 
 	private String nextString(char quote) throws IOException {
 		char c;
-		StringBuffer buffer = new StringBuffer();
+		StringBuilder buffer = mScratch;
+		buffer.setLength(0);
 		for (;;) {
+			if (!mUsePrevious) {
+				copyPlainRun(quote);
+			}
 			c = next();
 			switch (c) {
 				case 0:
@@ -576,7 +665,7 @@ public class Json {
 							buffer.append('\r');
 							break;
 						case 'u':
-							buffer.append((char) Integer.parseInt(next(4), 16));
+							buffer.append(nextHexChar());
 							break;
 						case '"':
 						case '\'':
@@ -597,6 +686,46 @@ public class Json {
 		}
 	}
 
+	/**
+	 * Copies the run of characters in the read buffer that need no special handling directly into
+	 * the scratch buffer, rather than feeding them through {@link #next()} one at a time.
+	 */
+	private void copyPlainRun(char quote) {
+		int start = mPos;
+		int i = start;
+		while (i < mLimit) {
+			char ch = mBuffer[i];
+			if (ch == quote || ch == '\\' || ch == '\n' || ch == '\r' || ch == 0) {
+				break;
+			}
+			i++;
+		}
+		int count = i - start;
+		if (count > 0) {
+			mScratch.append(mBuffer, start, count);
+			mPos = i;
+			mIndex += count;
+			mCharacter += count;
+			mPrevious = mBuffer[i - 1];
+		}
+	}
+
+	private char nextHexChar() throws IOException {
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			char c = next();
+			if (mEOF && !mUsePrevious) {
+				throw syntaxError("Substring bounds error"); //$NON-NLS-1$
+			}
+			int digit = Character.digit(c, 16);
+			if (digit < 0) {
+				throw syntaxError("Illegal escape."); //$NON-NLS-1$
+			}
+			value = value << 4 | digit;
+		}
+		return (char) value;
+	}
+
 	private void back() {
 		if (mUsePrevious || mIndex <= 0) {
 			throw new IllegalStateException("Stepping back two steps is not supported"); //$NON-NLS-1$
@@ -607,24 +736,6 @@ public class Json {
 		mEOF = false;
 	}
 
-	private String next(int n) throws IOException {
-		if (n == 0) {
-			return ""; //$NON-NLS-1$
-		}
-
-		char[] buffer = new char[n];
-		int pos = 0;
-
-		while (pos < n) {
-			buffer[pos] = next();
-			if (mEOF && !mUsePrevious) {
-				throw syntaxError("Substring bounds error"); //$NON-NLS-1$
-			}
-			pos++;
-		}
-		return new String(buffer);
-	}
-
 	private IOException syntaxError(String message) {
 		return new IOException(message + toString());
 	}
@@ -60,12 +60,28 @@ public class JsonArray extends JsonCollection {
 	 *         cannot be converted to an integer.
 	 */
 	public int getInt(int index) {
+		return getInt(index, 0);
+	}
+
+	/**
+	 * @param index The index to retrieve.
+	 * @param defaultValue The value to return if no such index exists or the value cannot be
+	 *            converted to an integer.
+	 * @return The value associated with the index.
+	 */
+	public int getInt(int index, int defaultValue) {
 		Object value = get(index);
-		try {
-			return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt((String) value);
-		} catch (Exception exception) {
-			return 0;
+		if (value instanceof Number) {
+			return ((Number) value).intValue();
 		}
+		if (value instanceof String) {
+			try {
+				return Integer.parseInt((String) value);
+			} catch (NumberFormatException nfe) {
+				return defaultValue;
+			}
+		}
+		return defaultValue;
 	}
 
 	/**
@@ -74,12 +90,28 @@ public class JsonArray extends JsonCollection {
 	 *         cannot be converted to a long.
 	 */
 	public long getLong(int index) {
+		return getLong(index, 0);
+	}
+
+	/**
+	 * @param index The index to retrieve.
+	 * @param defaultValue The value to return if no such index exists or the value cannot be
+	 *            converted to a long.
+	 * @return The value associated with the index.
+	 */
+	public long getLong(int index, long defaultValue) {
 		Object value = get(index);
-		try {
-			return value instanceof Number ? ((Number) value).longValue() : Long.parseLong((String) value);
-		} catch (Exception exception) {
-			return 0;
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		if (value instanceof String) {
+			try {
+				return Long.parseLong((String) value);
+			} catch (NumberFormatException nfe) {
+				return defaultValue;
+			}
 		}
+		return defaultValue;
 	}
 
 	/**
@@ -88,12 +120,28 @@ public class JsonArray extends JsonCollection {
 	 *         cannot be converted to a double.
 	 */
 	public double getDouble(int index) {
+		return getDouble(index, 0);
+	}
+
+	/**
+	 * @param index The index to retrieve.
+	 * @param defaultValue The value to return if no such index exists or the value cannot be
+	 *            converted to a double.
+	 * @return The value associated with the index.
+	 */
+	public double getDouble(int index, double defaultValue) {
 		Object value = get(index);
-		try {
-			return value instanceof Number ? ((Number) value).doubleValue() : Double.valueOf((String) value).doubleValue();
-		} catch (Exception exception) {
-			return 0;
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		if (value instanceof String) {
+			try {
+				return Double.parseDouble((String) value);
+			} catch (NumberFormatException nfe) {
+				return defaultValue;
+			}
 		}
+		return defaultValue;
 	}
 
 	/**
@@ -315,23 +363,9 @@ public class JsonArray extends JsonCollection {
 	@Override
 	public void appendTo(Appendable out) {
 		try {
-			boolean needComma = false;
-			int len = size();
-			out.append('[');
-			for (int i = 0; i < len; i++) {
-				if (needComma) {
-					out.append(',');
-				} else {
-					needComma = true;
-				}
-				Object v = mList.get(i);
-				if (v instanceof JsonCollection) {
-					((JsonCollection) v).appendTo(out);
-				} else {
-					out.append(Json.toString(v));
-				}
-			}
-			out.append(']');
+			JsonWriter writer = new JsonWriter(out);
+			writer.value(this);
+			writer.flush();
 		} catch (IOException exception) {
 			Log.error(exception);
 		}
@@ -0,0 +1,510 @@
+/*
+ * Copyright (c) 1998-2014 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.json;
+
+import com.trollworks.toolkit.io.EndianUtils;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of the JSON object model. Each value is written as a one byte type tag
+ * followed by its payload. Integral values are stored as zig-zag variable-length integers,
+ * floating point values as their raw IEEE bits, and {@link JsonArray}s made up solely of
+ * {@link Byte}s as a raw block of bytes. Map keys are written once and then referred to by index
+ * when they occur again. Strings encode each <code>char</code> separately in one to three bytes,
+ * which keeps the encoding lossless for any Java string.
+ * <p>
+ * Decoding yields exactly the same value types that were encoded, so <code>JsonMap</code>,
+ * <code>JsonArray</code> and {@link JsonNull} trees round-trip without change.
+ */
+public class JsonBinary {
+	private static final int			BUFFER_SIZE	= 8192;
+	private static final byte[]			MAGIC		= { 'T', 'J', 'B', 1 };
+	private static final int			TAG_NULL	= 0;
+	private static final int			TAG_FALSE	= 1;
+	private static final int			TAG_TRUE	= 2;
+	private static final int			TAG_BYTE	= 3;
+	private static final int			TAG_SHORT	= 4;
+	private static final int			TAG_CHAR	= 5;
+	private static final int			TAG_INT		= 6;
+	private static final int			TAG_LONG	= 7;
+	private static final int			TAG_FLOAT	= 8;
+	private static final int			TAG_DOUBLE	= 9;
+	private static final int			TAG_STRING	= 10;
+	private static final int			TAG_BYTES	= 11;
+	private static final int			TAG_ARRAY	= 12;
+	private static final int			TAG_MAP		= 13;
+	private OutputStream				mOut;
+	private InputStream					mIn;
+	private byte[]						mBuffer;
+	private int							mPos;
+	private int							mLimit;
+	private char[]						mChars;
+	private TObjectIntHashMap<String>	mKeyIndexes;
+	private List<String>				mKeys;
+
+	/**
+	 * @param value The value to encode.
+	 * @return The encoded bytes.
+	 */
+	public static final byte[] toBytes(Object value) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			write(out, value);
+		} catch (IOException exception) {
+			// Can't happen, since a ByteArrayOutputStream is being used.
+			throw new RuntimeException(exception);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Encodes a value. The stream is flushed, but not closed.
+	 *
+	 * @param out The {@link OutputStream} to write to.
+	 * @param value The value to encode.
+	 */
+	public static final void write(OutputStream out, Object value) throws IOException {
+		JsonBinary encoder = new JsonBinary(out);
+		encoder.writeBytes(MAGIC, 0, MAGIC.length);
+		encoder.writeValue(Json.wrap(value));
+		encoder.flush();
+		out.flush();
+	}
+
+	/**
+	 * @param data The encoded data.
+	 * @return The result of decoding the data.
+	 */
+	public static final Object parse(byte[] data) throws IOException {
+		return new JsonBinary(data).readDocument();
+	}
+
+	/**
+	 * @param in An {@link InputStream} to load encoded data from.
+	 * @return The result of decoding the data.
+	 */
+	public static final Object parse(InputStream in) throws IOException {
+		return new JsonBinary(in).readDocument();
+	}
+
+	/**
+	 * @param data The encoded data.
+	 * @return The result of decoding the data if it is a map or <code>null</code> if it isn't.
+	 */
+	public static final JsonMap parseMap(byte[] data) throws IOException {
+		Object result = parse(data);
+		return result instanceof JsonMap ? (JsonMap) result : null;
+	}
+
+	/**
+	 * @param in An {@link InputStream} to load encoded data from.
+	 * @return The result of decoding the data if it is a map or <code>null</code> if it isn't.
+	 */
+	public static final JsonMap parseMap(InputStream in) throws IOException {
+		Object result = parse(in);
+		return result instanceof JsonMap ? (JsonMap) result : null;
+	}
+
+	/**
+	 * @param data The encoded data.
+	 * @return The result of decoding the data if it is an array or <code>null</code> if it isn't.
+	 */
+	public static final JsonArray parseArray(byte[] data) throws IOException {
+		Object result = parse(data);
+		return result instanceof JsonArray ? (JsonArray) result : null;
+	}
+
+	/**
+	 * @param in An {@link InputStream} to load encoded data from.
+	 * @return The result of decoding the data if it is an array or <code>null</code> if it isn't.
+	 */
+	public static final JsonArray parseArray(InputStream in) throws IOException {
+		Object result = parse(in);
+		return result instanceof JsonArray ? (JsonArray) result : null;
+	}
+
+	private JsonBinary(OutputStream out) {
+		mOut = out;
+		mBuffer = new byte[BUFFER_SIZE];
+		mLimit = mBuffer.length;
+		mKeyIndexes = new TObjectIntHashMap<>(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, -1);
+	}
+
+	private JsonBinary(InputStream in) {
+		mIn = in;
+		mBuffer = new byte[BUFFER_SIZE];
+		mChars = new char[64];
+		mKeys = new ArrayList<>();
+	}
+
+	private JsonBinary(byte[] data) {
+		mBuffer = data;
+		mLimit = data.length;
+		mChars = new char[64];
+		mKeys = new ArrayList<>();
+	}
+
+	// Encoding
+
+	private void writeValue(Object value) throws IOException {
+		if (value instanceof JsonMap) {
+			writeMap((JsonMap) value);
+		} else if (value instanceof JsonArray) {
+			writeArray((JsonArray) value);
+		} else if (value instanceof String) {
+			writeByte(TAG_STRING);
+			writeString((String) value);
+		} else if (value instanceof Integer) {
+			writeByte(TAG_INT);
+			writeSignedVarint(((Integer) value).intValue());
+		} else if (value instanceof Long) {
+			writeByte(TAG_LONG);
+			writeSignedVarint(((Long) value).longValue());
+		} else if (value instanceof Double) {
+			ensureSpace(9);
+			mBuffer[mPos++] = TAG_DOUBLE;
+			EndianUtils.writeBEDouble(((Double) value).doubleValue(), mBuffer, mPos);
+			mPos += 8;
+		} else if (value instanceof Boolean) {
+			writeByte(((Boolean) value).booleanValue() ? TAG_TRUE : TAG_FALSE);
+		} else if (value instanceof Float) {
+			ensureSpace(5);
+			mBuffer[mPos++] = TAG_FLOAT;
+			EndianUtils.writeBEFloat(((Float) value).floatValue(), mBuffer, mPos);
+			mPos += 4;
+		} else if (value instanceof Short) {
+			writeByte(TAG_SHORT);
+			writeSignedVarint(((Short) value).shortValue());
+		} else if (value instanceof Byte) {
+			writeByte(TAG_BYTE);
+			writeByte(((Byte) value).byteValue());
+		} else if (value instanceof Character) {
+			writeByte(TAG_CHAR);
+			writeVarint(((Character) value).charValue());
+		} else if (JsonNull.INSTANCE.equals(value)) {
+			writeByte(TAG_NULL);
+		} else {
+			// Not part of the object model; store it the same way Json.wrap() would.
+			writeValue(Json.wrap(value));
+		}
+	}
+
+	private void writeMap(JsonMap map) throws IOException {
+		writeByte(TAG_MAP);
+		writeVarint(map.size());
+		for (Map.Entry<String, Object> entry : map.entrySet()) {
+			String key = entry.getKey();
+			int index = mKeyIndexes.get(key);
+			if (index == -1) {
+				mKeyIndexes.put(key, mKeyIndexes.size());
+				writeVarint(0);
+				writeString(key);
+			} else {
+				writeVarint(index + 1L);
+			}
+			writeValue(entry.getValue());
+		}
+	}
+
+	private void writeArray(JsonArray array) throws IOException {
+		int size = array.size();
+		if (size > 0 && isByteArray(array, size)) {
+			writeByte(TAG_BYTES);
+			writeVarint(size);
+			for (int i = 0; i < size; i++) {
+				writeByte(((Byte) array.get(i)).byteValue());
+			}
+		} else {
+			writeByte(TAG_ARRAY);
+			writeVarint(size);
+			for (int i = 0; i < size; i++) {
+				writeValue(array.get(i));
+			}
+		}
+	}
+
+	private static boolean isByteArray(JsonArray array, int size) {
+		for (int i = 0; i < size; i++) {
+			if (!(array.get(i) instanceof Byte)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void writeString(String str) throws IOException {
+		int length = str.length();
+		int encodedLength = length;
+		for (int i = 0; i < length; i++) {
+			char ch = str.charAt(i);
+			if (ch >= 0x80) {
+				encodedLength += ch >= 0x800 ? 2 : 1;
+			}
+		}
+		writeVarint(encodedLength);
+		for (int i = 0; i < length; i++) {
+			ensureSpace(3);
+			char ch = str.charAt(i);
+			if (ch < 0x80) {
+				mBuffer[mPos++] = (byte) ch;
+			} else if (ch < 0x800) {
+				mBuffer[mPos++] = (byte) (0xC0 | ch >> 6);
+				mBuffer[mPos++] = (byte) (0x80 | ch & 0x3F);
+			} else {
+				mBuffer[mPos++] = (byte) (0xE0 | ch >> 12);
+				mBuffer[mPos++] = (byte) (0x80 | ch >> 6 & 0x3F);
+				mBuffer[mPos++] = (byte) (0x80 | ch & 0x3F);
+			}
+		}
+	}
+
+	private void writeSignedVarint(long value) throws IOException {
+		writeVarint(value << 1 ^ value >> 63);
+	}
+
+	private void writeVarint(long value) throws IOException {
+		ensureSpace(10);
+		while ((value & ~0x7FL) != 0) {
+			mBuffer[mPos++] = (byte) (value & 0x7F | 0x80);
+			value >>>= 7;
+		}
+		mBuffer[mPos++] = (byte) value;
+	}
+
+	private void writeByte(int value) throws IOException {
+		if (mPos == mLimit) {
+			flush();
+		}
+		mBuffer[mPos++] = (byte) value;
+	}
+
+	private void writeBytes(byte[] data, int offset, int length) throws IOException {
+		for (int i = 0; i < length; i++) {
+			writeByte(data[offset + i]);
+		}
+	}
+
+	private void ensureSpace(int count) throws IOException {
+		if (mLimit - mPos < count) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		if (mPos > 0) {
+			mOut.write(mBuffer, 0, mPos);
+			mPos = 0;
+		}
+	}
+
+	// Decoding
+
+	private Object readDocument() throws IOException {
+		for (byte element : MAGIC) {
+			if (readByte() != element) {
+				throw new IOException("Not a binary JSON document"); //$NON-NLS-1$
+			}
+		}
+		return readValue();
+	}
+
+	private Object readValue() throws IOException {
+		int tag = readByte();
+		switch (tag) {
+			case TAG_NULL:
+				return JsonNull.INSTANCE;
+			case TAG_FALSE:
+				return Boolean.FALSE;
+			case TAG_TRUE:
+				return Boolean.TRUE;
+			case TAG_BYTE:
+				return Byte.valueOf((byte) readByte());
+			case TAG_SHORT:
+				return Short.valueOf((short) readSignedVarint());
+			case TAG_CHAR:
+				return Character.valueOf((char) readVarint());
+			case TAG_INT:
+				return Integer.valueOf((int) readSignedVarint());
+			case TAG_LONG:
+				return Long.valueOf(readSignedVarint());
+			case TAG_FLOAT:
+				require(4);
+				float floatValue = EndianUtils.readBEFloat(mBuffer, mPos);
+				mPos += 4;
+				return Float.valueOf(floatValue);
+			case TAG_DOUBLE:
+				require(8);
+				double doubleValue = EndianUtils.readBEDouble(mBuffer, mPos);
+				mPos += 8;
+				return Double.valueOf(doubleValue);
+			case TAG_STRING:
+				return readString();
+			case TAG_BYTES:
+				return readBytes();
+			case TAG_ARRAY:
+				return readArray();
+			case TAG_MAP:
+				return readMap();
+			default:
+				throw new IOException("Unknown type tag: " + tag); //$NON-NLS-1$
+		}
+	}
+
+	private JsonMap readMap() throws IOException {
+		JsonMap map = new JsonMap();
+		int count = readLength();
+		for (int i = 0; i < count; i++) {
+			String key;
+			int index = readLength();
+			if (index == 0) {
+				key = readString();
+				mKeys.add(key);
+			} else if (index <= mKeys.size()) {
+				key = mKeys.get(index - 1);
+			} else {
+				throw new IOException("Invalid key reference: " + index); //$NON-NLS-1$
+			}
+			map.put(key, readValue());
+		}
+		return map;
+	}
+
+	private JsonArray readArray() throws IOException {
+		JsonArray array = new JsonArray();
+		int count = readLength();
+		for (int i = 0; i < count; i++) {
+			array.put(readValue());
+		}
+		return array;
+	}
+
+	private JsonArray readBytes() throws IOException {
+		JsonArray array = new JsonArray();
+		int count = readLength();
+		for (int i = 0; i < count; i++) {
+			array.put(Byte.valueOf((byte) readByte()));
+		}
+		return array;
+	}
+
+	private String readString() throws IOException {
+		int length = readLength();
+		if (mChars.length < length) {
+			mChars = new char[Math.max(length, mChars.length * 2)];
+		}
+		int count = 0;
+		int remaining = length;
+		while (remaining > 0) {
+			int ch = readByte();
+			if (ch < 0x80) {
+				remaining--;
+			} else if ((ch & 0xE0) == 0xC0) {
+				ch = (ch & 0x1F) << 6 | readContinuation();
+				remaining -= 2;
+			} else if ((ch & 0xF0) == 0xE0) {
+				ch = (ch & 0x0F) << 12 | readContinuation() << 6 | readContinuation();
+				remaining -= 3;
+			} else {
+				throw new IOException("Invalid string encoding"); //$NON-NLS-1$
+			}
+			if (remaining < 0) {
+				throw new IOException("Invalid string encoding"); //$NON-NLS-1$
+			}
+			mChars[count++] = (char) ch;
+		}
+		return new String(mChars, 0, count);
+	}
+
+	private int readContinuation() throws IOException {
+		int ch = readByte();
+		if ((ch & 0xC0) != 0x80) {
+			throw new IOException("Invalid string encoding"); //$NON-NLS-1$
+		}
+		return ch & 0x3F;
+	}
+
+	private int readLength() throws IOException {
+		long length = readVarint();
+		if (length < 0 || length > Integer.MAX_VALUE) {
+			throw new IOException("Invalid length: " + length); //$NON-NLS-1$
+		}
+		return (int) length;
+	}
+
+	private long readSignedVarint() throws IOException {
+		long value = readVarint();
+		return value >>> 1 ^ -(value & 1);
+	}
+
+	private long readVarint() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable-length integer"); //$NON-NLS-1$
+	}
+
+	private int readByte() throws IOException {
+		if (mPos == mLimit && !fill()) {
+			throw new EOFException();
+		}
+		return mBuffer[mPos++] & 0xFF;
+	}
+
+	/** Makes sure the next <code>count</code> bytes are contiguous within the buffer. */
+	private void require(int count) throws IOException {
+		if (mLimit - mPos < count) {
+			if (mIn == null) {
+				throw new EOFException();
+			}
+			int remaining = mLimit - mPos;
+			System.arraycopy(mBuffer, mPos, mBuffer, 0, remaining);
+			mPos = 0;
+			mLimit = remaining;
+			while (mLimit < count) {
+				int read = mIn.read(mBuffer, mLimit, mBuffer.length - mLimit);
+				if (read < 0) {
+					throw new EOFException();
+				}
+				mLimit += read;
+			}
+		}
+	}
+
+	private boolean fill() throws IOException {
+		if (mIn == null) {
+			return false;
+		}
+		int read = mIn.read(mBuffer, 0, mBuffer.length);
+		if (read <= 0) {
+			return false;
+		}
+		mPos = 0;
+		mLimit = read;
+		return true;
+	}
+}
@@ -33,6 +33,11 @@ public class JsonMap extends JsonCollection {
 		return mMap.containsKey(key);
 	}
 
+	/** @return The number of entries in the map. */
+	public int size() {
+		return mMap.size();
+	}
+
 	/**
 	 * @return The set of keys in this map.
 	 */
@@ -76,12 +81,28 @@ public class JsonMap extends JsonCollection {
 	 *         converted to an integer.
 	 */
 	public int getInt(String key) {
+		return getInt(key, 0);
+	}
+
+	/**
+	 * @param key The key to retrieve.
+	 * @param defaultValue The value to return if no key matches or the value cannot be converted to
+	 *            an integer.
+	 * @return The value associated with the key.
+	 */
+	public int getInt(String key, int defaultValue) {
 		Object value = get(key);
-		try {
-			return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt((String) value);
-		} catch (Exception exception) {
-			return 0;
+		if (value instanceof Number) {
+			return ((Number) value).intValue();
 		}
+		if (value instanceof String) {
+			try {
+				return Integer.parseInt((String) value);
+			} catch (NumberFormatException nfe) {
+				return defaultValue;
+			}
+		}
+		return defaultValue;
 	}
 
 	/**
@@ -90,12 +111,28 @@ public class JsonMap extends JsonCollection {
 	 *         converted to a long.
 	 */
 	public long getLong(String key) {
+		return getLong(key, 0);
+	}
+
+	/**
+	 * @param key The key to retrieve.
+	 * @param defaultValue The value to return if no key matches or the value cannot be converted to
+	 *            a long.
+	 * @return The value associated with the key.
+	 */
+	public long getLong(String key, long defaultValue) {
 		Object value = get(key);
-		try {
-			return value instanceof Number ? ((Number) value).longValue() : Long.parseLong((String) value);
-		} catch (Exception exception) {
-			return 0;
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		if (value instanceof String) {
+			try {
+				return Long.parseLong((String) value);
+			} catch (NumberFormatException nfe) {
+				return defaultValue;
+			}
 		}
+		return defaultValue;
 	}
 
 	/**
@@ -104,12 +141,28 @@ public class JsonMap extends JsonCollection {
 	 *         converted to a double.
 	 */
 	public double getDouble(String key) {
+		return getDouble(key, 0);
+	}
+
+	/**
+	 * @param key The key to retrieve.
+	 * @param defaultValue The value to return if no key matches or the value cannot be converted to
+	 *            a double.
+	 * @return The value associated with the key.
+	 */
+	public double getDouble(String key, double defaultValue) {
 		Object value = get(key);
-		try {
-			return value instanceof Number ? ((Number) value).doubleValue() : Double.valueOf((String) value).doubleValue();
-		} catch (Exception exception) {
-			return 0;
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		if (value instanceof String) {
+			try {
+				return Double.parseDouble((String) value);
+			} catch (NumberFormatException nfe) {
+				return defaultValue;
+			}
 		}
+		return defaultValue;
 	}
 
 	/**
@@ -228,27 +281,17 @@ public class JsonMap extends JsonCollection {
 		return mMap.remove(key);
 	}
 
+	/** @return The entries in this map. */
+	Set<Map.Entry<String, Object>> entrySet() {
+		return mMap.entrySet();
+	}
+
 	@Override
 	public void appendTo(Appendable out) {
 		try {
-			boolean needComma = false;
-			out.append('{');
-			for (Map.Entry<String, Object> entry : mMap.entrySet()) {
-				if (needComma) {
-					out.append(',');
-				} else {
-					needComma = true;
-				}
-				out.append(Json.quote(entry.getKey()));
-				out.append(':');
-				Object v = entry.getValue();
-				if (v instanceof JsonCollection) {
-					((JsonCollection) v).appendTo(out);
-				} else {
-					out.append(Json.toString(v));
-				}
-			}
-			out.append('}');
+			JsonWriter writer = new JsonWriter(out);
+			writer.value(this);
+			writer.flush();
 		} catch (IOException exception) {
 			Log.error(exception);
 		}
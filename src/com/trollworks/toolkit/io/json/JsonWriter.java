@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 1998-2014 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.json;
+
+import com.trollworks.toolkit.utility.Geometry;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes JSON directly to an {@link Appendable}, {@link Writer} or {@link OutputStream} without
+ * building intermediate {@link String}s. Existing {@link JsonCollection}s can be written with
+ * {@link #value(Object)}, or a document can be generated piece by piece with the
+ * {@link #startMap()}, {@link #key(String)}, {@link #value(Object)} and {@link #endMap()} family of
+ * methods. Output is buffered internally, so {@link #flush()} or {@link #close()} must be called
+ * once writing is complete.
+ */
+public class JsonWriter implements Flushable, Closeable {
+	private static final int	BUFFER_SIZE	= 4096;
+	private static final char[]	HEX_DIGITS	= "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+	private Appendable			mOut;
+	private char[]				mBuffer		= new char[BUFFER_SIZE];
+	private CharBuffer			mWrapper;
+	private int					mCount;
+	private boolean[]			mInMap		= new boolean[16];
+	private boolean[]			mNeedComma	= new boolean[16];
+	private int					mDepth;
+	private boolean				mAfterKey;
+
+	/**
+	 * Creates a new {@link JsonWriter}.
+	 *
+	 * @param out The {@link Appendable} to write to.
+	 */
+	public JsonWriter(Appendable out) {
+		mOut = out;
+	}
+
+	/**
+	 * Creates a new {@link JsonWriter} that encodes its output as UTF-8.
+	 *
+	 * @param out The {@link OutputStream} to write to.
+	 */
+	public JsonWriter(OutputStream out) {
+		this(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+	}
+
+	/** Starts a map. */
+	public void startMap() throws IOException {
+		push(true);
+		write('{');
+	}
+
+	/** Ends the current map. */
+	public void endMap() throws IOException {
+		pop(true);
+		write('}');
+	}
+
+	/** Starts an array. */
+	public void startArray() throws IOException {
+		push(false);
+		write('[');
+	}
+
+	/** Ends the current array. */
+	public void endArray() throws IOException {
+		pop(false);
+		write(']');
+	}
+
+	/**
+	 * Writes a key within the current map. Must be followed by a value.
+	 *
+	 * @param key The key to write.
+	 */
+	public void key(String key) throws IOException {
+		if (mDepth == 0 || !mInMap[mDepth - 1] || mAfterKey) {
+			throw new IllegalStateException("A key may only be written directly within a map"); //$NON-NLS-1$
+		}
+		if (mNeedComma[mDepth - 1]) {
+			write(',');
+		} else {
+			mNeedComma[mDepth - 1] = true;
+		}
+		writeQuoted(key);
+		write(':');
+		mAfterKey = true;
+	}
+
+	/** @param value The value to write. */
+	public void value(boolean value) throws IOException {
+		prepareForValue();
+		write(value ? "true" : "false"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/** @param value The value to write. */
+	public void value(long value) throws IOException {
+		prepareForValue();
+		writeLong(value);
+	}
+
+	/** @param value The value to write. */
+	public void value(double value) throws IOException {
+		prepareForValue();
+		writeNumber(Double.toString(value));
+	}
+
+	/** @param value The value to write. May be <code>null</code>. */
+	public void value(String value) throws IOException {
+		prepareForValue();
+		if (value == null) {
+			write(JsonNull.INSTANCE.toString());
+		} else {
+			writeQuoted(value);
+		}
+	}
+
+	/**
+	 * Writes an arbitrary value, using the same conversions as {@link Json#toString(Object)}.
+	 *
+	 * @param value The value to write. May be <code>null</code>.
+	 */
+	public void value(Object value) throws IOException {
+		prepareForValue();
+		writeValue(value);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		if (mOut instanceof Flushable) {
+			((Flushable) mOut).flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		flushBuffer();
+		if (mOut instanceof Closeable) {
+			((Closeable) mOut).close();
+		} else if (mOut instanceof Flushable) {
+			((Flushable) mOut).flush();
+		}
+	}
+
+	private void push(boolean map) throws IOException {
+		prepareForValue();
+		if (mDepth == mInMap.length) {
+			mInMap = Arrays.copyOf(mInMap, mDepth * 2);
+			mNeedComma = Arrays.copyOf(mNeedComma, mDepth * 2);
+		}
+		mInMap[mDepth] = map;
+		mNeedComma[mDepth++] = false;
+	}
+
+	private void pop(boolean map) {
+		if (mDepth == 0 || mInMap[mDepth - 1] != map || mAfterKey) {
+			throw new IllegalStateException(map ? "No map to end" : "No array to end"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		mDepth--;
+	}
+
+	private void prepareForValue() throws IOException {
+		if (mDepth > 0) {
+			int index = mDepth - 1;
+			if (mInMap[index]) {
+				if (!mAfterKey) {
+					throw new IllegalStateException("A value within a map must be preceded by a key"); //$NON-NLS-1$
+				}
+			} else if (mNeedComma[index]) {
+				write(',');
+			} else {
+				mNeedComma[index] = true;
+			}
+		}
+		mAfterKey = false;
+	}
+
+	private void writeValue(Object value) throws IOException {
+		if (JsonNull.INSTANCE.equals(value)) {
+			write(JsonNull.INSTANCE.toString());
+		} else if (value instanceof JsonMap) {
+			writeMap((JsonMap) value);
+		} else if (value instanceof JsonArray) {
+			writeArray((JsonArray) value);
+		} else if (value instanceof String) {
+			writeQuoted((String) value);
+		} else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+			writeLong(((Number) value).longValue());
+		} else if (value instanceof Number) {
+			writeNumber(value.toString());
+		} else if (value instanceof Boolean) {
+			write(((Boolean) value).booleanValue() ? "true" : "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		} else if (value instanceof Map || value instanceof Collection || value.getClass().isArray()) {
+			writeValue(Json.wrap(value));
+		} else if (value instanceof Point) {
+			writeQuoted(Geometry.toString((Point) value));
+		} else if (value instanceof Rectangle) {
+			writeQuoted(Geometry.toString((Rectangle) value));
+		} else {
+			writeQuoted(value.toString());
+		}
+	}
+
+	private void writeMap(JsonMap map) throws IOException {
+		boolean needComma = false;
+		write('{');
+		for (Map.Entry<String, Object> entry : map.entrySet()) {
+			if (needComma) {
+				write(',');
+			} else {
+				needComma = true;
+			}
+			writeQuoted(entry.getKey());
+			write(':');
+			writeValue(entry.getValue());
+		}
+		write('}');
+	}
+
+	private void writeArray(JsonArray array) throws IOException {
+		int length = array.size();
+		write('[');
+		for (int i = 0; i < length; i++) {
+			if (i > 0) {
+				write(',');
+			}
+			writeValue(array.get(i));
+		}
+		write(']');
+	}
+
+	private void writeLong(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			write(Long.toString(value));
+			return;
+		}
+		ensureSpace(20);
+		if (value < 0) {
+			mBuffer[mCount++] = '-';
+			value = -value;
+		}
+		int end = mCount + digitCount(value);
+		int pos = end;
+		do {
+			mBuffer[--pos] = (char) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+		mCount = end;
+	}
+
+	private static int digitCount(long value) {
+		int count = 1;
+		while (value >= 10) {
+			value /= 10;
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the text form of a number, dropping any insignificant trailing zeros after the decimal
+	 * point.
+	 */
+	private void writeNumber(String str) throws IOException {
+		int length = str.length();
+		if (str.indexOf('.') > 0 && str.indexOf('e') < 0 && str.indexOf('E') < 0) {
+			while (str.charAt(length - 1) == '0') {
+				length--;
+			}
+			if (str.charAt(length - 1) == '.') {
+				length--;
+			}
+		}
+		write(str, 0, length);
+	}
+
+	private void writeQuoted(String string) throws IOException {
+		write('"');
+		if (string != null) {
+			int length = string.length();
+			int runStart = 0;
+			char last = 0;
+			for (int i = 0; i < length; i++) {
+				char ch = string.charAt(i);
+				char escape;
+				switch (ch) {
+					case '\\':
+					case '"':
+						escape = ch;
+						break;
+					case '/':
+						escape = last == '<' ? ch : 0;
+						break;
+					case '\b':
+						escape = 'b';
+						break;
+					case '\t':
+						escape = 't';
+						break;
+					case '\n':
+						escape = 'n';
+						break;
+					case '\f':
+						escape = 'f';
+						break;
+					case '\r':
+						escape = 'r';
+						break;
+					default:
+						escape = ch < ' ' || ch >= '\u0080' && ch < '\u00a0' || ch >= '\u2000' && ch < '\u2100' ? 'u' : 0;
+						break;
+				}
+				last = ch;
+				if (escape != 0) {
+					write(string, runStart, i);
+					runStart = i + 1;
+					ensureSpace(6);
+					mBuffer[mCount++] = '\\';
+					mBuffer[mCount++] = escape;
+					if (escape == 'u') {
+						mBuffer[mCount++] = HEX_DIGITS[ch >> 12 & 0xF];
+						mBuffer[mCount++] = HEX_DIGITS[ch >> 8 & 0xF];
+						mBuffer[mCount++] = HEX_DIGITS[ch >> 4 & 0xF];
+						mBuffer[mCount++] = HEX_DIGITS[ch & 0xF];
+					}
+				}
+			}
+			write(string, runStart, length);
+		}
+		write('"');
+	}
+
+	private void write(char ch) throws IOException {
+		if (mCount == mBuffer.length) {
+			flushBuffer();
+		}
+		mBuffer[mCount++] = ch;
+	}
+
+	private void write(String str) throws IOException {
+		write(str, 0, str.length());
+	}
+
+	private void write(String str, int start, int end) throws IOException {
+		while (start < end) {
+			if (mCount == mBuffer.length) {
+				flushBuffer();
+			}
+			int count = Math.min(end - start, mBuffer.length - mCount);
+			str.getChars(start, start + count, mBuffer, mCount);
+			mCount += count;
+			start += count;
+		}
+	}
+
+	private void ensureSpace(int count) throws IOException {
+		if (mBuffer.length - mCount < count) {
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if (mCount > 0) {
+			if (mOut instanceof Writer) {
+				((Writer) mOut).write(mBuffer, 0, mCount);
+			} else if (mOut instanceof StringBuilder) {
+				((StringBuilder) mOut).append(mBuffer, 0, mCount);
+			} else {
+				if (mWrapper == null) {
+					mWrapper = CharBuffer.wrap(mBuffer);
+				}
+				mOut.append(mWrapper, 0, mCount);
+			}
+			mCount = 0;
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 1998-2014 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.xml;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Walks the markup of UTF-8 or ASCII encoded XML bytes without decoding any text, so that whole
+ * elements can be stepped over or split apart cheaply.
+ */
+final class XMLByteScanner {
+	/** No further markup is available. */
+	static final int			EOF			= 0;
+	/** A start tag. */
+	static final int			START_TAG	= 1;
+	/** An empty element tag, such as &lt;tag/&gt;. */
+	static final int			EMPTY_TAG	= 2;
+	/** An end tag. */
+	static final int			END_TAG		= 3;
+	/** A comment, processing instruction, CDATA section or document type declaration. */
+	static final int			OTHER		= 4;
+	private static final String	PI_END		= "?>";		//$NON-NLS-1$
+	private static final String	COMMENT_END	= "-->";	//$NON-NLS-1$
+	private static final String	CDATA_END	= "]]>";	//$NON-NLS-1$
+	private ByteBuffer			mBytes;
+	private int					mLimit;
+	private int					mPos;
+	private int					mMarkupStart;
+	private int					mMarkupLines;
+	private int					mLines;
+	private int					mLineStart;
+
+	/**
+	 * @param bytes The bytes to scan. Only absolute reads are performed, so the buffer may be shared.
+	 * @param pos The position to start scanning from.
+	 * @param limit The position to stop scanning at.
+	 */
+	XMLByteScanner(ByteBuffer bytes, int pos, int limit) {
+		mBytes = bytes;
+		mPos = pos;
+		mLimit = limit;
+		mLineStart = pos;
+	}
+
+	/** @return The position just past the last markup returned by {@link #nextMarkup()}. */
+	int getPosition() {
+		return mPos;
+	}
+
+	/** @return The position of the '&lt;' of the last markup returned by {@link #nextMarkup()}. */
+	int getMarkupStart() {
+		return mMarkupStart;
+	}
+
+	/** @return The number of line breaks seen before the start of the last markup. */
+	int getMarkupLines() {
+		return mMarkupLines;
+	}
+
+	/** @return The number of line breaks seen so far. */
+	int getLines() {
+		return mLines;
+	}
+
+	/**
+	 * @return The position just past the last line break seen, or the starting position if none
+	 *         has been seen. A "\r\n" pair counts as a single line break.
+	 */
+	int getLineStart() {
+		return mLineStart;
+	}
+
+	/**
+	 * Advances past the next piece of markup, skipping any text that precedes it.
+	 *
+	 * @return The kind of markup found, or {@link #EOF} if the bytes run out first.
+	 */
+	int nextMarkup() {
+		int pos = find(mPos, '<');
+		if (pos == -1 || pos + 1 >= mLimit) {
+			return EOF;
+		}
+		mMarkupStart = pos;
+		mMarkupLines = mLines;
+		int kind;
+		switch (mBytes.get(pos + 1)) {
+			case '/':
+				kind = END_TAG;
+				pos = find(pos + 2, '>');
+				break;
+			case '?':
+				kind = OTHER;
+				pos = findSequence(pos + 2, PI_END);
+				break;
+			case '!':
+				kind = OTHER;
+				if (matches(pos + 2, '-', '-')) {
+					pos = findSequence(pos + 4, COMMENT_END);
+				} else if (matches(pos + 2, '[', 'C')) {
+					pos = findSequence(pos + 2, CDATA_END);
+				} else {
+					pos = findDoctypeEnd(pos + 2);
+				}
+				break;
+			default:
+				pos = findTagEnd(pos + 1);
+				kind = pos != -1 && mBytes.get(pos - 1) == '/' ? EMPTY_TAG : START_TAG;
+				break;
+		}
+		if (pos == -1) {
+			mPos = mLimit;
+			return EOF;
+		}
+		mPos = pos + 1;
+		return kind;
+	}
+
+	/**
+	 * Advances past the end tag that balances the start tag last returned by {@link #nextMarkup()}.
+	 * On success, {@link #getMarkupStart()} refers to that end tag.
+	 *
+	 * @return Whether the end tag was found.
+	 */
+	boolean skipElement() {
+		int depth = 1;
+		while (true) {
+			switch (nextMarkup()) {
+				case EOF:
+					return false;
+				case START_TAG:
+					depth++;
+					break;
+				case END_TAG:
+					if (--depth == 0) {
+						return true;
+					}
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * @param name The tag name to compare against.
+	 * @return Whether the last start or end tag returned by {@link #nextMarkup()} has the name.
+	 */
+	boolean markupNameEquals(String name) {
+		int pos = mMarkupStart + 1;
+		if (mBytes.get(pos) == '/') {
+			pos++;
+		}
+		int length = name.length();
+		if (pos + length >= mLimit) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (mBytes.get(pos + i) != name.charAt(i)) {
+				return false;
+			}
+		}
+		int ch = mBytes.get(pos + length);
+		return ch <= ' ' || ch == '>' || ch == '/';
+	}
+
+	private int find(int pos, int target) {
+		ByteBuffer bytes = mBytes;
+		int limit = mLimit;
+		while (pos < limit) {
+			int ch = bytes.get(pos);
+			if (ch == target) {
+				return pos;
+			}
+			if (ch <= '\r') {
+				lineBreak(pos, ch);
+			}
+			pos++;
+		}
+		return -1;
+	}
+
+	/** @return The position of the last byte of the sequence. */
+	private int findSequence(int pos, String sequence) {
+		int last = sequence.length() - 1;
+		while ((pos = find(pos, sequence.charAt(0))) != -1) {
+			int i = 1;
+			while (i <= last && pos + i < mLimit && mBytes.get(pos + i) == sequence.charAt(i)) {
+				i++;
+			}
+			if (i > last) {
+				return pos + last;
+			}
+			pos++;
+		}
+		return -1;
+	}
+
+	private int findTagEnd(int pos) {
+		ByteBuffer bytes = mBytes;
+		int limit = mLimit;
+		int quote = 0;
+		while (pos < limit) {
+			int ch = bytes.get(pos);
+			if (quote != 0) {
+				if (ch == quote) {
+					quote = 0;
+				}
+			} else if (ch == '>') {
+				return pos;
+			} else if (ch == '"' || ch == '\'') {
+				quote = ch;
+			}
+			if (ch <= '\r') {
+				lineBreak(pos, ch);
+			}
+			pos++;
+		}
+		return -1;
+	}
+
+	private int findDoctypeEnd(int pos) {
+		int nesting = 1;
+		while (pos < mLimit) {
+			int ch = mBytes.get(pos);
+			if (ch == '<') {
+				nesting++;
+			} else if (ch == '>') {
+				if (--nesting == 0) {
+					return pos;
+				}
+			} else if (ch <= '\r') {
+				lineBreak(pos, ch);
+			}
+			pos++;
+		}
+		return -1;
+	}
+
+	private boolean matches(int pos, int first, int second) {
+		return pos + 1 < mLimit && mBytes.get(pos) == first && mBytes.get(pos + 1) == second;
+	}
+
+	private void lineBreak(int pos, int ch) {
+		if (ch == '\n' || ch == '\r' && (pos + 1 >= mLimit || mBytes.get(pos + 1) != '\n')) {
+			mLines++;
+			mLineStart = pos + 1;
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 1998-2014 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.xml;
+
+import java.util.Arrays;
+
+/**
+ * Interns the tag and attribute names seen by an {@link XMLReader}, handing out a small integer
+ * id for each distinct name. Names are looked up straight from a character buffer, so a name that
+ * has been seen before costs no allocation.
+ */
+final class XMLNameTable {
+	private String[]	mNames	= new String[32];
+	private int[]		mHashes	= new int[32];
+	private int[]		mSlots	= new int[64];
+	private int			mCount;
+
+	/**
+	 * @param buffer The buffer holding the name.
+	 * @param start The starting index of the name.
+	 * @param length The length of the name.
+	 * @return The id of the name, which is added to the table if not already present.
+	 */
+	int intern(char[] buffer, int start, int length) {
+		int hash = 0;
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + buffer[start + i];
+		}
+		int mask = mSlots.length - 1;
+		int slot = hash & mask;
+		int id;
+		while ((id = mSlots[slot] - 1) != -1) {
+			if (mHashes[id] == hash && matches(mNames[id], buffer, start, length)) {
+				return id;
+			}
+			slot = slot + 1 & mask;
+		}
+		return add(new String(buffer, start, length), hash, slot);
+	}
+
+	/**
+	 * @param name The name to look up.
+	 * @return The id of the name, or -1 if it has not been seen.
+	 */
+	int find(String name) {
+		int hash = name.hashCode();
+		int mask = mSlots.length - 1;
+		int slot = hash & mask;
+		int id;
+		while ((id = mSlots[slot] - 1) != -1) {
+			if (mHashes[id] == hash && name.equals(mNames[id])) {
+				return id;
+			}
+			slot = slot + 1 & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param id The id of a name.
+	 * @return The name.
+	 */
+	String getName(int id) {
+		return mNames[id];
+	}
+
+	private static boolean matches(String name, char[] buffer, int start, int length) {
+		if (name.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (name.charAt(i) != buffer[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int add(String name, int hash, int slot) {
+		int id = mCount++;
+		if (id == mNames.length) {
+			mNames = Arrays.copyOf(mNames, id * 2);
+			mHashes = Arrays.copyOf(mHashes, id * 2);
+		}
+		mNames[id] = name;
+		mHashes[id] = hash;
+		if (mCount * 2 > mSlots.length) {
+			rehash(mSlots.length * 2);
+		} else {
+			mSlots[slot] = id + 1;
+		}
+		return id;
+	}
+
+	private void rehash(int capacity) {
+		int mask = capacity - 1;
+		mSlots = new int[capacity];
+		for (int id = 0; id < mCount; id++) {
+			int slot = mHashes[id] & mask;
+			while (mSlots[slot] != 0) {
+				slot = slot + 1 & mask;
+			}
+			mSlots[slot] = id + 1;
+		}
+	}
+}
@@ -14,26 +14,55 @@ package com.trollworks.toolkit.io.xml;
 import com.trollworks.toolkit.io.Log;
 import com.trollworks.toolkit.utility.text.Numbers;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
-
-/** A very simple XML reader with very low memory overhead. */
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A very simple XML reader with very low memory overhead. Files that are UTF-8 or ASCII encoded
+ * can be opened with {@link #open(Path)}, which loads the file's bytes and decodes them
+ * directly, or split into top-level subtrees that are parsed on separate threads with
+ * {@link #readParallel(Path, String, SubtreeParser)}.
+ */
 public class XMLReader implements AutoCloseable {
 	/** Debug option: whether to output skipped tags to standard out. */
 	public static boolean			SHOW_SKIPPED_TAGS	= Numbers.getBoolean(System.getProperty("SHOW_SKIPPED_TAGS", "false")); //$NON-NLS-1$ //$NON-NLS-2$
 	private static final String		UNEXPECTED_EOF		= "Unexpected EOF";													//$NON-NLS-1$
 	private static final String		COLON				= ":";																	//$NON-NLS-1$
+	private static final String		ENCODING			= "encoding";															//$NON-NLS-1$
+	private static final int		DECLARATION_LIMIT	= 256;
+	private static final int		MAP_THRESHOLD		= 16 * 1024 * 1024;
+	private static final int		MIN_SUBTREE_BYTES	= 65536;
+	private static final int		STREAM_BUFFER_SIZE	= 65536;
 	private HashMap<String, String>	mEntityMap			= new HashMap<>();
-	private HashMap<String, String>	mAttributeMap		= new HashMap<>();
-	private ArrayList<String>		mStack				= new ArrayList<>();
-	private char[]					mBuffer				= new char[32768];
+	private XMLNameTable			mNames				= new XMLNameTable();
+	private int[]					mStack				= new int[16];
+	private int						mDepth;
+	private int[]					mAttributeNames		= new int[8];
+	private String[]				mAttributeValues	= new String[8];
+	private int						mAttributeCount;
+	private HashMap<String, String>	mAttributeMap;
+	private char[]					mBuffer;
 	private char[]					mTextBuffer			= new char[128];
 	private XMLNodeType				mType				= XMLNodeType.START_DOCUMENT;
 	private int						mLine				= 1;
@@ -48,7 +77,14 @@ public class XMLReader implements AutoCloseable {
 	private String					mText;
 	private boolean					mIsWhitespace;
 	private String					mName;
+	private int						mNameID;
 	private boolean					mIsEmptyElementTag;
+	private ByteBuffer				mBytes;
+	private int						mBytePos;
+	private int						mByteLimit;
+	private int						mPeek0Pos;
+	private int						mPeek1Pos;
+	private int						mLowSurrogate;
 
 	/**
 	 * Creates a new {@link XMLReader}.
@@ -97,9 +133,232 @@ public class XMLReader implements AutoCloseable {
 	 */
 	public XMLReader(Reader reader) throws IOException {
 		mReader = reader;
+		mBuffer = new char[32768];
 		mPeek0 = reader.read();
 		mPeek1 = reader.read();
 		mEOF = mPeek0 == -1;
+		defineStandardEntities();
+	}
+
+	/**
+	 * Creates a new {@link XMLReader} that decodes UTF-8 or ASCII bytes directly, without going
+	 * through a {@link Reader}. Only absolute reads are performed, so the buffer's position is left
+	 * untouched.
+	 *
+	 * @param buffer The bytes between the buffer's position and limit will be read.
+	 */
+	public XMLReader(ByteBuffer buffer) {
+		this(buffer.duplicate(), buffer.position(), buffer.limit(), 1);
+	}
+
+	private XMLReader(ByteBuffer buffer, int start, int limit, int line) {
+		if (limit - start >= 3 && buffer.get(start) == (byte) 0xEF && buffer.get(start + 1) == (byte) 0xBB && buffer.get(start + 2) == (byte) 0xBF) {
+			start += 3;
+		}
+		mBytes = buffer;
+		mByteLimit = limit;
+		mLine = line;
+		setBytePosition(start);
+		defineStandardEntities();
+	}
+
+	/**
+	 * Opens a file for reading. Files that are UTF-8 or ASCII encoded, as determined by their byte
+	 * order mark and XML declaration, are decoded directly from their bytes. Any other file,
+	 * including one compressed with gzip, is read through a {@link Reader} using its declared
+	 * encoding.
+	 * <p>
+	 * <b>Note</b>: Directly decoded files of up to 16MB are read into memory. Larger ones are mapped,
+	 * and a mapping is only released once it has been garbage collected, not by {@link #close()}.
+	 * Until then, some platforms, such as Windows, won't allow the file to be replaced or deleted.
+	 *
+	 * @param path The file to read.
+	 * @return The new {@link XMLReader}.
+	 */
+	public static XMLReader open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer bytes = load(channel);
+			if (bytes != null) {
+				return new XMLReader(bytes);
+			}
+		}
+		InputStream in = new BufferedInputStream(Files.newInputStream(path), STREAM_BUFFER_SIZE);
+		byte[] head = peek(in);
+		if (head.length >= 2 && head[0] == (byte) 0x1F && head[1] == (byte) 0x8B) {
+			in = new BufferedInputStream(new GZIPInputStream(in, STREAM_BUFFER_SIZE), STREAM_BUFFER_SIZE);
+			head = peek(in);
+		}
+		String encoding = getDeclaredEncoding(ByteBuffer.wrap(head));
+		return new XMLReader(in, encoding != null ? encoding : StandardCharsets.UTF_8.name());
+	}
+
+	/**
+	 * Parses each child of a file's root element on the common {@link ForkJoinPool}. UTF-8 and ASCII
+	 * files are loaded as for {@link #open(Path)} and split into runs of children by scanning their markup, without
+	 * decoding any text, and each run is then handed to its own {@link XMLReader}. Any other file is
+	 * parsed sequentially. Only the standard character entities are available to the parser.
+	 *
+	 * @param path The file to read.
+	 * @param rootTag The name of the root element.
+	 * @param parser The {@link SubtreeParser} to call for each child of the root element. It may be
+	 *            called concurrently from several threads.
+	 * @return The results of the calls to the parser, in document order.
+	 */
+	public static <T> List<T> readParallel(Path path, String rootTag, SubtreeParser<T> parser) throws IOException {
+		ByteBuffer bytes;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			bytes = load(channel);
+		}
+		if (bytes == null) {
+			try (XMLReader reader = open(path)) {
+				reader.next();
+				reader.require(XMLNodeType.START_TAG, rootTag);
+				return reader.isEmptyElementTag() ? new ArrayList<>() : parseSubtrees(reader, parser);
+			}
+		}
+		XMLByteScanner scanner = new XMLByteScanner(bytes, 0, bytes.limit());
+		int kind;
+		do {
+			kind = scanner.nextMarkup();
+		} while (kind == XMLByteScanner.OTHER);
+		if (kind != XMLByteScanner.START_TAG && kind != XMLByteScanner.EMPTY_TAG || !scanner.markupNameEquals(rootTag)) {
+			throw new IOException("expected: " + XMLNodeType.START_TAG.name() + "/" + rootTag + " pos: @" + (scanner.getMarkupLines() + 1)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+		List<SubtreeTask<T>> tasks = new ArrayList<>();
+		if (kind == XMLByteScanner.START_TAG) {
+			int target = Math.max(MIN_SUBTREE_BYTES, bytes.limit() / (ForkJoinPool.getCommonPoolParallelism() * 4));
+			int start = -1;
+			int line = 0;
+			while ((kind = scanner.nextMarkup()) != XMLByteScanner.END_TAG) {
+				if (kind == XMLByteScanner.EOF) {
+					throw new IOException(UNEXPECTED_EOF + " pos: @" + (scanner.getLines() + 1)); //$NON-NLS-1$
+				}
+				if (kind != XMLByteScanner.OTHER) {
+					if (start == -1) {
+						start = scanner.getMarkupStart();
+						line = scanner.getMarkupLines() + 1;
+					}
+					if (kind == XMLByteScanner.START_TAG && !scanner.skipElement()) {
+						throw new IOException(UNEXPECTED_EOF + " pos: @" + (scanner.getLines() + 1)); //$NON-NLS-1$
+					}
+					if (scanner.getPosition() - start >= target) {
+						tasks.add(new SubtreeTask<>(bytes, start, scanner.getPosition(), line, parser));
+						start = -1;
+					}
+				}
+			}
+			if (start != -1) {
+				tasks.add(new SubtreeTask<>(bytes, start, scanner.getMarkupStart(), line, parser));
+			}
+		}
+		ForkJoinTask.invokeAll(tasks);
+		List<T> results = new ArrayList<>();
+		for (SubtreeTask<T> task : tasks) {
+			if (task.mException != null) {
+				throw task.mException;
+			}
+			results.addAll(task.mResults);
+		}
+		return results;
+	}
+
+	/**
+	 * Calls the parser for each element found at the reader's current depth, until the element that
+	 * encloses them ends or the document does.
+	 */
+	static <T> List<T> parseSubtrees(XMLReader reader, SubtreeParser<T> parser) throws IOException {
+		List<T> results = new ArrayList<>();
+		int depth = reader.getDepth();
+		XMLNodeType type = reader.next();
+		while (type != XMLNodeType.END_DOCUMENT && reader.getDepth() >= depth) {
+			if (type == XMLNodeType.START_TAG) {
+				int line = reader.mLine;
+				int column = reader.mColumn;
+				results.add(parser.parse(reader));
+				type = reader.getType();
+				if (type == XMLNodeType.START_TAG && line == reader.mLine && column == reader.mColumn) {
+					reader.skipTag(reader.getName());
+					type = reader.getType();
+				}
+			} else {
+				type = reader.next();
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * @return The file's bytes, or <code>null</code> if it can't be decoded directly. Files larger
+	 *         than {@link #MAP_THRESHOLD} are mapped rather than read.
+	 */
+	private static ByteBuffer load(FileChannel channel) throws IOException {
+		long size = channel.size();
+		if (size <= Integer.MAX_VALUE) {
+			ByteBuffer head = read(channel, (int) Math.min(size, DECLARATION_LIMIT));
+			if (!(head.limit() >= 2 && head.get(0) == (byte) 0x1F && head.get(1) == (byte) 0x8B) && isUTF8(getDeclaredEncoding(head))) {
+				return size > MAP_THRESHOLD ? channel.map(MapMode.READ_ONLY, 0, size) : read(channel, (int) size);
+			}
+		}
+		return null;
+	}
+
+	/** @return A heap buffer holding up to <code>length</code> bytes from the start of the file. */
+	private static ByteBuffer read(FileChannel channel, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) != -1) {
+			// Keep reading until full or at end of file
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/** @return The first bytes of the stream, which is then reset to its start. */
+	private static byte[] peek(InputStream in) throws IOException {
+		byte[] data = new byte[DECLARATION_LIMIT];
+		int count = 0;
+		int amt;
+		in.mark(DECLARATION_LIMIT);
+		while (count < data.length && (amt = in.read(data, count, data.length - count)) != -1) {
+			count += amt;
+		}
+		in.reset();
+		return Arrays.copyOf(data, count);
+	}
+
+	private static String getDeclaredEncoding(ByteBuffer bytes) {
+		int length = bytes.remaining();
+		if (length >= 2 && (bytes.get(0) == (byte) 0xFE && bytes.get(1) == (byte) 0xFF || bytes.get(0) == (byte) 0xFF && bytes.get(1) == (byte) 0xFE)) {
+			return StandardCharsets.UTF_16.name();
+		}
+		byte[] data = new byte[length];
+		bytes.get(data);
+		String prolog = new String(data, StandardCharsets.ISO_8859_1);
+		int start = prolog.indexOf("<?xml"); //$NON-NLS-1$
+		if (start == -1 || start > 3) {
+			return null;
+		}
+		int end = prolog.indexOf("?>", start); //$NON-NLS-1$
+		int pos = prolog.indexOf(ENCODING, start);
+		if (pos == -1 || end != -1 && pos > end) {
+			return null;
+		}
+		pos = prolog.indexOf('=', pos + ENCODING.length()) + 1;
+		while (pos > 0 && pos < length && prolog.charAt(pos) <= ' ') {
+			pos++;
+		}
+		if (pos <= 0 || pos >= length) {
+			return null;
+		}
+		char quote = prolog.charAt(pos);
+		int valueEnd = prolog.indexOf(quote, pos + 1);
+		return valueEnd == -1 ? null : prolog.substring(pos + 1, valueEnd);
+	}
+
+	private static boolean isUTF8(String encoding) {
+		return encoding == null || "UTF-8".equalsIgnoreCase(encoding) || "UTF8".equalsIgnoreCase(encoding) || "US-ASCII".equalsIgnoreCase(encoding) || "ASCII".equalsIgnoreCase(encoding); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
+
+	private void defineStandardEntities() {
 		defineCharacterEntity("amp", "&"); //$NON-NLS-1$ //$NON-NLS-2$
 		defineCharacterEntity("apos", "'"); //$NON-NLS-1$ //$NON-NLS-2$
 		defineCharacterEntity("gt", ">"); //$NON-NLS-1$ //$NON-NLS-2$
@@ -107,21 +366,46 @@ public class XMLReader implements AutoCloseable {
 		defineCharacterEntity("quot", "\""); //$NON-NLS-1$ //$NON-NLS-2$
 	}
 
-	/** Closes the underlying {@link Reader}. */
+	/**
+	 * Closes the underlying {@link Reader}, if any, and drops this reader's reference to its bytes. A
+	 * mapped file stays mapped until its buffer has been garbage collected; see {@link #open(Path)}.
+	 */
 	@Override
 	public void close() throws IOException {
-		mReader.close();
+		mBytes = null;
+		if (mReader != null) {
+			mReader.close();
+		}
 	}
 
-	/** @return A marker for determining if you've come to the end of a specific tag. */
+	/**
+	 * @return A marker for determining if you've come to the end of a specific tag.
+	 * @see #getMarkerID()
+	 */
 	public String getMarker() {
 		switch (mType) {
 			case START_TAG:
-				return getDepth() - 1 + COLON + getName();
+				return mDepth - 1 + COLON + getName();
 			case END_TAG:
-				return getDepth() + COLON + getName();
+				return mDepth + COLON + getName();
 			default:
-				return getDepth() + COLON + mStack.get(mStack.size() - 1);
+				return mDepth + COLON + mNames.getName(mStack[mDepth - 1]);
+		}
+	}
+
+	/**
+	 * @return A marker for determining if you've come to the end of a specific tag. This is the
+	 *         same as {@link #getMarker()}, but packs the tag depth and the id of the tag's name into
+	 *         a <code>long</code>, rather than building a new {@link String}.
+	 */
+	public long getMarkerID() {
+		switch (mType) {
+			case START_TAG:
+				return (long) (mDepth - 1) << 32 | mNameID;
+			case END_TAG:
+				return (long) mDepth << 32 | mNameID;
+			default:
+				return (long) mDepth << 32 | mStack[mDepth - 1];
 		}
 	}
 
@@ -155,6 +439,26 @@ public class XMLReader implements AutoCloseable {
 		return true;
 	}
 
+	/**
+	 * Allows you to determine if you've reached the end of a tag you've previously marked with
+	 * {@link #getMarkerID()}. Works the same as {@link #withinMarker(String)}.
+	 *
+	 * @param marker The marker, from a previous call to {@link #getMarkerID()}.
+	 * @return Whether the current position is still within the marked range. If it is not, then
+	 *         {@link #next()} will be called.
+	 */
+	public boolean withinMarker(long marker) throws IOException {
+		if (mType == XMLNodeType.END_TAG) {
+			if (marker == getMarkerID()) {
+				next();
+				return false;
+			}
+		} else if (mType == XMLNodeType.END_DOCUMENT) {
+			fail("expected: " + XMLNodeType.END_TAG.name() + "/" + mNames.getName((int) marker)); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return true;
+	}
+
 	/**
 	 * Requires the current type to be the specified type and optionally requires the name to match
 	 * as well. If the current type is {@link XMLNodeType#TEXT} and {@link #isWhitespace()} is
@@ -179,12 +483,16 @@ public class XMLReader implements AutoCloseable {
 	 * @param name The name of the tag to skip.
 	 */
 	public void skipTag(String name) throws IOException {
-		String marker;
+		long marker;
 		if (SHOW_SKIPPED_TAGS) {
 			Log.warn("Skipping tag: " + name); //$NON-NLS-1$
 		}
 		require(XMLNodeType.START_TAG, name);
-		marker = getMarker();
+		if (mBytes != null && !mIsEmptyElementTag) {
+			skipElementBytes();
+			return;
+		}
+		marker = getMarkerID();
 		do {
 			next();
 		} while (withinMarker(marker));
@@ -198,7 +506,7 @@ public class XMLReader implements AutoCloseable {
 	 */
 	public String readText() throws IOException {
 		StringBuilder builder = new StringBuilder();
-		String marker = getMarker();
+		long marker = getMarkerID();
 
 		if (mType == XMLNodeType.START_TAG) {
 			next();
@@ -285,18 +593,137 @@ public class XMLReader implements AutoCloseable {
 			}
 		}
 		mColumn++;
+		mPeek1 = mBytes != null ? nextByteChar() : nextChar();
+		return result;
+	}
 
+	private final int nextChar() throws IOException {
 		if (mPos >= mCount) {
 			mCount = mReader.read(mBuffer, 0, mBuffer.length);
 			if (mCount <= 0) {
-				mPeek1 = -1;
-				return result;
+				return -1;
 			}
 			mPos = 0;
 		}
+		return mBuffer[mPos++];
+	}
 
-		mPeek1 = mBuffer[mPos++];
-		return result;
+	private final int nextByteChar() {
+		int pos = mBytePos;
+		mPeek0Pos = mPeek1Pos;
+		mPeek1Pos = pos;
+		if (mLowSurrogate != 0) {
+			int ch = mLowSurrogate;
+			mLowSurrogate = 0;
+			return ch;
+		}
+		if (pos >= mByteLimit) {
+			return -1;
+		}
+		int ch = mBytes.get(pos);
+		if (ch >= 0) {
+			mBytePos = pos + 1;
+			return ch;
+		}
+		return decodeMultiByteChar(pos, ch);
+	}
+
+	private final int decodeMultiByteChar(int pos, int first) {
+		int count;
+		int ch;
+		if ((first & 0xE0) == 0xC0) {
+			count = 1;
+			ch = first & 0x1F;
+		} else if ((first & 0xF0) == 0xE0) {
+			count = 2;
+			ch = first & 0x0F;
+		} else if ((first & 0xF8) == 0xF0) {
+			count = 3;
+			ch = first & 0x07;
+		} else {
+			mBytePos = pos + 1;
+			return '\uFFFD';
+		}
+		for (int i = 1; i <= count; i++) {
+			int next = pos + i < mByteLimit ? mBytes.get(pos + i) : 0;
+			if ((next & 0xC0) != 0x80) {
+				mBytePos = pos + i;
+				return '\uFFFD';
+			}
+			ch = ch << 6 | next & 0x3F;
+		}
+		mBytePos = pos + count + 1;
+		if (ch >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+			mLowSurrogate = Character.lowSurrogate(ch);
+			return Character.highSurrogate(ch);
+		}
+		return ch;
+	}
+
+	/**
+	 * @return The number of UTF-16 code units the bytes decode to, matching what would have been
+	 *         handed to {@link #read()}. Leaves the byte position and any pending surrogate
+	 *         undefined.
+	 */
+	private final int countChars(int start, int end) {
+		int count = 0;
+		mBytePos = start;
+		mLowSurrogate = 0;
+		while (mBytePos < end) {
+			int ch = mBytes.get(mBytePos);
+			if (ch >= 0) {
+				mBytePos++;
+			} else {
+				decodeMultiByteChar(mBytePos, ch);
+				if (mLowSurrogate != 0) {
+					mLowSurrogate = 0;
+					count++;
+				}
+			}
+			count++;
+		}
+		return count;
+	}
+
+	private final void setBytePosition(int pos) {
+		mBytePos = pos;
+		mPeek1Pos = pos;
+		mLowSurrogate = 0;
+		mPeek0 = nextByteChar();
+		mPeek1 = nextByteChar();
+		mEOF = mPeek0 == -1;
+	}
+
+	/**
+	 * Skips the current element by scanning its bytes for the balancing end tag, rather than
+	 * decoding and parsing its content.
+	 */
+	private final void skipElementBytes() throws IOException {
+		int start = mPeek0 == 0 ? mPeek1Pos : mPeek0Pos;
+		XMLByteScanner scanner = new XMLByteScanner(mBytes, start, mByteLimit);
+		if (mPeek0 == -1 || !scanner.skipElement()) {
+			fail(UNEXPECTED_EOF);
+		}
+		if (!scanner.markupNameEquals(mName)) {
+			fail("expected: " + XMLNodeType.END_TAG.name() + "/" + mName); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		// Track the column just as read() would have while consuming the skipped characters: a line
+		// break restarts it at 1, the placeholder left for the '\n' of "\r\n" counts as a character,
+		// and the last character of the document isn't counted.
+		int end = scanner.getPosition();
+		int lineStart = scanner.getLineStart();
+		if (scanner.getLines() > 0) {
+			mLine += scanner.getLines();
+			mColumn = lineStart - start >= 2 && mBytes.get(lineStart - 1) == '\n' && mBytes.get(lineStart - 2) == '\r' ? 2 : 1;
+		}
+		mColumn += countChars(lineStart, end);
+		if (end >= mByteLimit) {
+			mColumn--;
+		}
+		setBytePosition(end);
+		mDepth--;
+		mType = XMLNodeType.END_TAG;
+		next();
 	}
 
 	private final void fail(String desc) throws IOException {
@@ -334,7 +761,8 @@ public class XMLReader implements AutoCloseable {
 		return result;
 	}
 
-	private final String readName() throws IOException {
+	/** @return The id of the name, as assigned by {@link #mNames}. */
+	private final int readName() throws IOException {
 		int pos = mTextPos;
 		int ch = mPeek0;
 
@@ -347,7 +775,9 @@ public class XMLReader implements AutoCloseable {
 			ch = mPeek0;
 		} while (ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z' || ch >= '0' && ch <= '9' || ch == '_' || ch == '-' || ch == ':' || ch == '.');
 
-		return pop(pos);
+		int id = mNames.intern(mTextBuffer, pos, mTextPos - pos);
+		mTextPos = pos;
+		return id;
 	}
 
 	private final void parseLegacy(boolean push) throws IOException {
@@ -432,15 +862,16 @@ public class XMLReader implements AutoCloseable {
 
 		read(); // '<'
 		read(); // '/'
-		mName = readName();
-		pos = mStack.size() - 1;
+		mNameID = readName();
+		mName = mNames.getName(mNameID);
+		pos = mDepth - 1;
 		if (pos < 0) {
 			fail("element stack empty"); //$NON-NLS-1$
 		}
-		if (mName.equals(mStack.get(pos))) {
-			mStack.remove(pos);
+		if (mNameID == mStack[pos]) {
+			mDepth = pos;
 		} else {
-			fail("expected: " + mStack.get(pos)); //$NON-NLS-1$
+			fail("expected: " + mNames.getName(mStack[pos])); //$NON-NLS-1$
 		}
 		skip();
 		read('>');
@@ -471,11 +902,15 @@ public class XMLReader implements AutoCloseable {
 
 	private final void parseStartTag() throws IOException {
 		read(); // <
-		mName = readName();
-		mStack.add(mName);
+		mNameID = readName();
+		mName = mNames.getName(mNameID);
+		if (mDepth == mStack.length) {
+			mStack = Arrays.copyOf(mStack, mDepth * 2);
+		}
+		mStack[mDepth++] = mNameID;
 
 		while (true) {
-			String attrName;
+			int attrName;
 			int ch;
 			int pos;
 
@@ -497,9 +932,6 @@ public class XMLReader implements AutoCloseable {
 			}
 
 			attrName = readName();
-			if (attrName.length() == 0) {
-				fail("attribute name expected"); //$NON-NLS-1$
-			}
 
 			skip();
 			read('=');
@@ -511,13 +943,43 @@ public class XMLReader implements AutoCloseable {
 
 			pos = mTextPos;
 			pushText(ch);
-			mAttributeMap.put(attrName, pop(pos));
+			setAttribute(attrName, pop(pos));
 			if (ch != ' ') {
 				read(); // skip end quote
 			}
 		}
 	}
 
+	private final void setAttribute(int name, String value) {
+		int i = getAttributeIndex(name);
+		if (i == -1) {
+			i = mAttributeCount++;
+			if (i == mAttributeNames.length) {
+				mAttributeNames = Arrays.copyOf(mAttributeNames, i * 2);
+				mAttributeValues = Arrays.copyOf(mAttributeValues, i * 2);
+			}
+			mAttributeNames[i] = name;
+		}
+		mAttributeValues[i] = value;
+	}
+
+	private final int getAttributeIndex(int name) {
+		for (int i = 0; i < mAttributeCount; i++) {
+			if (mAttributeNames[i] == name) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private final void clearAttributes() {
+		if (mAttributeCount > 0) {
+			Arrays.fill(mAttributeValues, 0, mAttributeCount, null);
+			mAttributeCount = 0;
+		}
+		mAttributeMap = null;
+	}
+
 	private final boolean pushEntity() throws IOException {
 		boolean whitespace = true;
 		int pos;
@@ -592,7 +1054,7 @@ public class XMLReader implements AutoCloseable {
 
 	/** @return The current tag depth. */
 	public int getDepth() {
-		return mStack.size();
+		return mDepth;
 	}
 
 	/** @return A description of the current parse position. */
@@ -654,7 +1116,16 @@ public class XMLReader implements AutoCloseable {
 	 * @return The value of the attribute.
 	 */
 	public String getAttribute(String name) {
-		return mAttributeMap.get(name);
+		if (mAttributeCount > 0) {
+			int id = mNames.find(name);
+			if (id != -1) {
+				int i = getAttributeIndex(id);
+				if (i != -1) {
+					return mAttributeValues[i];
+				}
+			}
+		}
+		return null;
 	}
 
 	/**
@@ -663,7 +1134,7 @@ public class XMLReader implements AutoCloseable {
 	 * @return The value of the attribute.
 	 */
 	public String getAttribute(String name, String defValue) {
-		String value = mAttributeMap.get(name);
+		String value = getAttribute(name);
 		return value != null ? value : defValue;
 	}
 
@@ -672,7 +1143,7 @@ public class XMLReader implements AutoCloseable {
 	 * @return Whether the attribute is present.
 	 */
 	public boolean hasAttribute(String name) {
-		return mAttributeMap.get(name) != null;
+		return getAttribute(name) != null;
 	}
 
 	/**
@@ -680,7 +1151,7 @@ public class XMLReader implements AutoCloseable {
 	 * @return Whether the attribute is present and set to a 'true' value.
 	 */
 	public boolean isAttributeSet(String name) {
-		return Numbers.getBoolean(mAttributeMap.get(name));
+		return Numbers.getBoolean(getAttribute(name));
 	}
 
 	/**
@@ -690,7 +1161,7 @@ public class XMLReader implements AutoCloseable {
 	 * @return The value of the tag.
 	 */
 	public short getAttributeAsShort(String name, short defValue) {
-		return Numbers.getShort(mAttributeMap.get(name), defValue);
+		return Numbers.getShort(getAttribute(name), defValue);
 	}
 
 	/**
@@ -700,7 +1171,7 @@ public class XMLReader implements AutoCloseable {
 	 * @return The value of the tag.
 	 */
 	public int getAttributeAsInteger(String name, int defValue) {
-		return Numbers.getInteger(mAttributeMap.get(name), defValue);
+		return Numbers.getInteger(getAttribute(name), defValue);
 	}
 
 	/**
@@ -709,7 +1180,7 @@ public class XMLReader implements AutoCloseable {
 	 * @return The value of the tag.
 	 */
 	public long getAttributeAsLong(String name, long defValue) {
-		return Numbers.getLong(mAttributeMap.get(name), defValue);
+		return Numbers.getLong(getAttribute(name), defValue);
 	}
 
 	/**
@@ -719,7 +1190,7 @@ public class XMLReader implements AutoCloseable {
 	 * @return The value of the tag.
 	 */
 	public float getAttributeAsFloat(String name, float defValue) {
-		return Numbers.getFloat(mAttributeMap.get(name), defValue);
+		return Numbers.getFloat(getAttribute(name), defValue);
 	}
 
 	/**
@@ -729,11 +1200,17 @@ public class XMLReader implements AutoCloseable {
 	 * @return The value of the tag.
 	 */
 	public double getAttributeAsDouble(String name, double defValue) {
-		return Numbers.getDouble(mAttributeMap.get(name), defValue);
+		return Numbers.getDouble(getAttribute(name), defValue);
 	}
 
-	/** @return The map of attributes. */
+	/** @return The map of attributes. It is only built when asked for. */
 	public HashMap<String, String> getAttributes() {
+		if (mAttributeMap == null) {
+			mAttributeMap = new HashMap<>();
+			for (int i = 0; i < mAttributeCount; i++) {
+				mAttributeMap.put(mNames.getName(mAttributeNames[i]), mAttributeValues[i]);
+			}
+		}
 		return mAttributeMap;
 	}
 
@@ -751,14 +1228,14 @@ public class XMLReader implements AutoCloseable {
 		if (mIsEmptyElementTag) {
 			mType = XMLNodeType.END_TAG;
 			mIsEmptyElementTag = false;
-			mStack.remove(mStack.size() - 1);
+			mDepth--;
 		} else {
 			int textOrdinal = XMLNodeType.TEXT.ordinal();
 
 			mTextPos = 0;
 			mIsWhitespace = true;
 			do {
-				mAttributeMap.clear();
+				clearAttributes();
 				mName = null;
 				mText = null;
 				mType = peekType();
@@ -793,4 +1270,42 @@ public class XMLReader implements AutoCloseable {
 		}
 		return mType;
 	}
+
+	/** Parses a single subtree for {@link XMLReader#readParallel(Path, String, SubtreeParser)}. */
+	public interface SubtreeParser<T> {
+		/**
+		 * @param reader The {@link XMLReader} to use, positioned on the start tag of the subtree. The
+		 *            subtree should be consumed before returning, typically with a marker loop or
+		 *            {@link XMLReader#skipTag(String)}.
+		 * @return The object created from the subtree.
+		 */
+		T parse(XMLReader reader) throws IOException;
+	}
+
+	private static final class SubtreeTask<T> extends RecursiveAction {
+		private ByteBuffer			mBytes;
+		private int					mStart;
+		private int					mEnd;
+		private int					mLine;
+		private SubtreeParser<T>	mParser;
+		List<T>						mResults;
+		IOException					mException;
+
+		SubtreeTask(ByteBuffer bytes, int start, int end, int line, SubtreeParser<T> parser) {
+			mBytes = bytes;
+			mStart = start;
+			mEnd = end;
+			mLine = line;
+			mParser = parser;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				mResults = parseSubtrees(new XMLReader(mBytes.duplicate(), mStart, mEnd, mLine), mParser);
+			} catch (IOException exception) {
+				mException = exception;
+			}
+		}
+	}
 }
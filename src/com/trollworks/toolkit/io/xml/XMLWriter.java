@@ -15,32 +15,66 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.zip.GZIPOutputStream;
 
-/** A {@link PrintWriter} that has been extended to provide common XML writing helper methods. */
+/**
+ * A {@link PrintWriter} that has been extended to provide common XML writing helper methods.
+ * Output is collected in an internal buffer and escaping is driven by lookup tables, so runs of
+ * characters that need no escaping are copied in bulk.
+ */
 public class XMLWriter extends PrintWriter {
-	private static final String	END_TAG				= "/>";		//$NON-NLS-1$
-	private static final String	ENTITY_CODE_PREFIX	= "&#";		//$NON-NLS-1$
-	private static final String	AMPERSAND_ENTITY	= "&amp;";		//$NON-NLS-1$
-	private static final String	LESS_THAN_ENTITY	= "&lt;";		//$NON-NLS-1$
-	private static final String	GREATER_THAN_ENTITY	= "&gt;";		//$NON-NLS-1$
-	private static final String	END_COMMENT			= " -->";		//$NON-NLS-1$
+	private static final String		END_TAG				= "/>";			//$NON-NLS-1$
+	private static final String		ENTITY_CODE_PREFIX	= "&#";			//$NON-NLS-1$
+	private static final String		AMPERSAND_ENTITY	= "&amp;";		//$NON-NLS-1$
+	private static final String		LESS_THAN_ENTITY	= "&lt;";		//$NON-NLS-1$
+	private static final String		GREATER_THAN_ENTITY	= "&gt;";		//$NON-NLS-1$
+	private static final String		END_COMMENT			= " -->";		//$NON-NLS-1$
 	/** The encoding used. */
-	public static final String	ENCODING			= "US-ASCII";	//$NON-NLS-1$
+	public static final String		ENCODING			= "US-ASCII";	//$NON-NLS-1$
 	/** The 'year' attribute. */
-	public static final String	YEAR				= "year";		//$NON-NLS-1$
+	public static final String		YEAR				= "year";		//$NON-NLS-1$
 	/** The 'month' attribute. */
-	public static final String	MONTH				= "month";		//$NON-NLS-1$
+	public static final String		MONTH				= "month";		//$NON-NLS-1$
 	/** The 'day' attribute. */
-	public static final String	DAY					= "day";		//$NON-NLS-1$
+	public static final String		DAY					= "day";		//$NON-NLS-1$
 	/** The 'hour' attribute. */
-	public static final String	HOUR				= "hour";		//$NON-NLS-1$
+	public static final String		HOUR				= "hour";		//$NON-NLS-1$
 	/** The 'minute' attribute. */
-	public static final String	MINUTE				= "minute";	//$NON-NLS-1$
+	public static final String		MINUTE				= "minute";		//$NON-NLS-1$
 	/** The 'second' attribute. */
-	public static final String	SECOND				= "second";	//$NON-NLS-1$
-	private int					mIndent;
+	public static final String		SECOND				= "second";		//$NON-NLS-1$
+	private static final int		BUFFER_SIZE			= 8192;
+	private static final String		LINE_SEPARATOR		= System.lineSeparator();
+	private static final String[]	DATA_ENTITIES		= new String[128];
+	private static final String[]	ATTRIBUTE_ENTITIES	= new String[128];
+	private char[]					mBuffer				= new char[BUFFER_SIZE];
+	private int						mCount;
+	private String					mEncoding;
+	private boolean					mUnicode;
+	private int						mIndent;
+
+	static {
+		for (int ch = 0; ch < 128; ch++) {
+			if (ch < ' ' || ch > '~') {
+				DATA_ENTITIES[ch] = ENTITY_CODE_PREFIX + ch + ';';
+				ATTRIBUTE_ENTITIES[ch] = DATA_ENTITIES[ch];
+			}
+		}
+		DATA_ENTITIES['\t'] = null;
+		DATA_ENTITIES['\r'] = LINE_SEPARATOR;
+		DATA_ENTITIES['\n'] = LINE_SEPARATOR;
+		DATA_ENTITIES['<'] = LESS_THAN_ENTITY;
+		DATA_ENTITIES['>'] = GREATER_THAN_ENTITY;
+		DATA_ENTITIES['&'] = AMPERSAND_ENTITY;
+		ATTRIBUTE_ENTITIES['<'] = LESS_THAN_ENTITY;
+		ATTRIBUTE_ENTITIES['>'] = GREATER_THAN_ENTITY;
+		ATTRIBUTE_ENTITIES['&'] = AMPERSAND_ENTITY;
+		ATTRIBUTE_ENTITIES['"'] = "&quot;"; //$NON-NLS-1$
+		ATTRIBUTE_ENTITIES['\''] = "&apos;"; //$NON-NLS-1$
+	}
 
 	/**
 	 * Creates a new XML writer.
@@ -48,16 +82,141 @@ public class XMLWriter extends PrintWriter {
 	 * @param stream The stream to write to.
 	 */
 	public XMLWriter(OutputStream stream) throws IOException {
-		super(new OutputStreamWriter(stream, ENCODING));
+		this(stream, Charset.forName(ENCODING), false);
+	}
+
+	/**
+	 * Creates a new XML writer.
+	 *
+	 * @param stream The stream to write to.
+	 * @param charset The {@link Charset} to encode with. With UTF-8 or another Unicode encoding,
+	 *            non-ASCII characters are written as-is. Otherwise, they are written as character
+	 *            references.
+	 * @param compress Whether to compress the output with gzip. {@link XMLReader#open(java.nio.file.Path)}
+	 *            recognizes such files.
+	 */
+	public XMLWriter(OutputStream stream, Charset charset, boolean compress) throws IOException {
+		super(new OutputStreamWriter(compress ? new GZIPOutputStream(stream, BUFFER_SIZE) : stream, charset));
+		mEncoding = charset.name();
+		mUnicode = mEncoding.startsWith("UTF-"); //$NON-NLS-1$
 	}
 
 	/** Writes a standard XML header. */
 	public void writeHeader() {
 		print("<?xml version=\"1.0\" encoding=\""); //$NON-NLS-1$
-		print(ENCODING);
+		print(mEncoding);
 		println("\" ?>"); //$NON-NLS-1$
 	}
 
+	@Override
+	public void write(int ch) {
+		synchronized (lock) {
+			if (mCount == mBuffer.length) {
+				drain();
+			}
+			mBuffer[mCount++] = (char) ch;
+		}
+	}
+
+	@Override
+	public void write(char[] buffer, int offset, int length) {
+		synchronized (lock) {
+			if (length > mBuffer.length - mCount) {
+				drain();
+				if (length > mBuffer.length) {
+					super.write(buffer, offset, length);
+					return;
+				}
+			}
+			System.arraycopy(buffer, offset, mBuffer, mCount, length);
+			mCount += length;
+		}
+	}
+
+	@Override
+	public void write(String str, int offset, int length) {
+		synchronized (lock) {
+			append(str, offset, offset + length);
+		}
+	}
+
+	@Override
+	public void println() {
+		write(LINE_SEPARATOR);
+	}
+
+	@Override
+	public void flush() {
+		synchronized (lock) {
+			drain();
+		}
+		super.flush();
+	}
+
+	@Override
+	public void close() {
+		synchronized (lock) {
+			drain();
+		}
+		super.close();
+	}
+
+	private void append(String str, int start, int end) {
+		while (start < end) {
+			if (mCount == mBuffer.length) {
+				drain();
+			}
+			int count = Math.min(end - start, mBuffer.length - mCount);
+			str.getChars(start, start + count, mBuffer, mCount);
+			mCount += count;
+			start += count;
+		}
+	}
+
+	private void drain() {
+		if (mCount > 0) {
+			super.write(mBuffer, 0, mCount);
+			mCount = 0;
+		}
+	}
+
+	/**
+	 * Writes the text, replacing characters as directed by the entity table. Characters outside of
+	 * the table are written as-is when the encoding is Unicode and as character references
+	 * otherwise.
+	 */
+	private void writeEscaped(String text, String[] entities) {
+		synchronized (lock) {
+			int length = text.length();
+			int start = 0;
+			for (int i = 0; i < length; i++) {
+				char ch = text.charAt(i);
+				String entity;
+				if (ch < 128) {
+					entity = entities[ch];
+					if (entity == null) {
+						continue;
+					}
+				} else if (mUnicode) {
+					continue;
+				} else {
+					entity = null;
+				}
+				append(text, start, i);
+				start = i + 1;
+				if (entity != null) {
+					append(entity, 0, entity.length());
+				} else {
+					String code = Integer.toString(ch);
+					append(ENTITY_CODE_PREFIX, 0, 2);
+					append(code, 0, code.length());
+					write(';');
+				}
+			}
+			append(text, start, length);
+		}
+	}
+
 	/**
 	 * Write out a simple XML comment with a trailing line feed.
 	 *
@@ -93,29 +252,7 @@ public class XMLWriter extends PrintWriter {
 	 */
 	public void writeEncodedData(String data) {
 		if (data != null) {
-			int length = data.length();
-
-			for (int i = 0; i < length; i++) {
-				char ch = data.charAt(i);
-
-				if (ch == '<') {
-					print(LESS_THAN_ENTITY);
-				} else if (ch == '>') {
-					print(GREATER_THAN_ENTITY);
-				} else if (ch == '&') {
-					print(AMPERSAND_ENTITY);
-				} else if (ch == '\r' || ch == '\n') {
-					println();
-				} else if (ch == '\t') {
-					print('\t');
-				} else if (ch >= ' ' && ch <= '~') {
-					print(ch);
-				} else {
-					print(ENTITY_CODE_PREFIX);
-					print((int) ch);
-					print(';');
-				}
-			}
+			writeEscaped(data, DATA_ENTITIES);
 		}
 	}
 
@@ -126,29 +263,7 @@ public class XMLWriter extends PrintWriter {
 	 * @param attribute The attribute value to transform.
 	 */
 	public void writeEncodedAttribute(String attribute) {
-		int length = attribute.length();
-
-		for (int i = 0; i < length; i++) {
-			char ch = attribute.charAt(i);
-
-			if (ch == '<') {
-				print(LESS_THAN_ENTITY);
-			} else if (ch == '>') {
-				print(GREATER_THAN_ENTITY);
-			} else if (ch == '&') {
-				print(AMPERSAND_ENTITY);
-			} else if (ch == '"') {
-				print("&quot;"); //$NON-NLS-1$
-			} else if (ch == '\'') {
-				print("&apos;"); //$NON-NLS-1$
-			} else if (ch >= ' ' && ch <= '~') {
-				print(ch);
-			} else {
-				print(ENTITY_CODE_PREFIX);
-				print((int) ch);
-				print(';');
-			}
-		}
+		writeEscaped(attribute, ATTRIBUTE_ENTITIES);
 	}
 
 	/**
@@ -640,7 +755,7 @@ public class XMLWriter extends PrintWriter {
 	/** Writes the current indentation. */
 	public void writeIndentation() {
 		for (int i = 0; i < mIndent; i++) {
-			print('\t');
+			write('\t');
 		}
 	}
 
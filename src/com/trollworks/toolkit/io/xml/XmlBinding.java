@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 1998-2014 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.xml;
+
+import com.trollworks.toolkit.annotation.XmlAttr;
+import com.trollworks.toolkit.annotation.XmlNoSort;
+import com.trollworks.toolkit.annotation.XmlTag;
+import com.trollworks.toolkit.utility.Introspection;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The XML binding for a class, built once from its {@link XmlAttr} and {@link XmlTag} annotations
+ * and then shared by {@link XmlParser} and {@link XmlGenerator}. All field access goes through
+ * {@link MethodHandle}s prepared up front, so loading or saving a tag requires no further
+ * reflection.
+ */
+final class XmlBinding {
+	private static final ClassValue<XmlBinding>	BINDINGS		= new Bindings();
+	private static final MethodHandles.Lookup	LOOKUP			= MethodHandles.lookup();
+	private static final int					TYPE_BOOLEAN	= 0;
+	private static final int					TYPE_INT		= 1;
+	private static final int					TYPE_LONG		= 2;
+	private static final int					TYPE_SHORT		= 3;
+	private static final int					TYPE_DOUBLE		= 4;
+	private static final int					TYPE_FLOAT		= 5;
+	private static final int					TYPE_CHAR		= 6;
+	private static final int					TYPE_STRING		= 7;
+	private static final int					TYPE_OTHER		= 8;
+	private final String						mTag;
+	private final int							mVersion;
+	private final int							mMinimumVersion;
+	private final Attribute[]					mAttributes;
+	private final SubTag[]						mSubTags;
+	private final Map<String, SubTag>			mSubTagMap;
+
+	/**
+	 * @param objClass The {@link Class} to retrieve the binding for.
+	 * @return The binding for the {@link Class}.
+	 */
+	static XmlBinding get(Class<?> objClass) {
+		return BINDINGS.get(objClass);
+	}
+
+	private XmlBinding(Class<?> objClass) {
+		XmlTag xmlTag = objClass.getAnnotation(XmlTag.class);
+		mTag = xmlTag != null ? xmlTag.value() : null;
+		mVersion = XmlGenerator.getVersionOfTag(objClass);
+		mMinimumVersion = XmlGenerator.getMinimumLoadableVersionOfTag(objClass);
+		Field[] fields = Introspection.getFieldsWithAnnotation(objClass, XmlAttr.class, false);
+		mAttributes = new Attribute[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			mAttributes[i] = new Attribute(fields[i]);
+		}
+		fields = Introspection.getFieldsWithAnnotation(objClass, XmlTag.class, false);
+		mSubTags = new SubTag[fields.length];
+		Map<String, SubTag> map = new HashMap<>();
+		for (int i = 0; i < fields.length; i++) {
+			mSubTags[i] = new SubTag(fields[i]);
+			map.put(mSubTags[i].mName, mSubTags[i]);
+		}
+		mSubTagMap = Collections.unmodifiableMap(map);
+	}
+
+	/** @return The {@link XmlTag} value of the class, or <code>null</code>. */
+	String getTag() {
+		return mTag;
+	}
+
+	/** @return The version of the XML tag that would be emitted for the class. */
+	int getVersion() {
+		return mVersion;
+	}
+
+	/** @return The minimum version of the XML tag that can be loaded for the class. */
+	int getMinimumVersion() {
+		return mMinimumVersion;
+	}
+
+	/** @return The {@link XmlAttr}-marked fields, in declaration order. */
+	Attribute[] getAttributes() {
+		return mAttributes;
+	}
+
+	/** @return The {@link XmlTag}-marked fields, in declaration order. */
+	SubTag[] getSubTags() {
+		return mSubTags;
+	}
+
+	/**
+	 * @param tag The XML tag name.
+	 * @return The {@link XmlTag}-marked field for the tag, or <code>null</code>.
+	 */
+	SubTag getSubTag(String tag) {
+		return mSubTagMap.get(tag);
+	}
+
+	private static int getType(Class<?> type) {
+		if (type == boolean.class) {
+			return TYPE_BOOLEAN;
+		}
+		if (type == int.class) {
+			return TYPE_INT;
+		}
+		if (type == long.class) {
+			return TYPE_LONG;
+		}
+		if (type == short.class) {
+			return TYPE_SHORT;
+		}
+		if (type == double.class) {
+			return TYPE_DOUBLE;
+		}
+		if (type == float.class) {
+			return TYPE_FLOAT;
+		}
+		if (type == char.class) {
+			return TYPE_CHAR;
+		}
+		if (type == String.class) {
+			return TYPE_STRING;
+		}
+		return TYPE_OTHER;
+	}
+
+	private static MethodHandle getter(Field field, Class<?> valueType) {
+		return Introspection.getGetter(field).asType(MethodType.methodType(valueType, Object.class));
+	}
+
+	private static MethodHandle setter(Field field, Class<?> valueType) {
+		return Introspection.getSetter(field).asType(MethodType.methodType(void.class, Object.class, valueType));
+	}
+
+	private static MethodHandle constructor(Class<?> type, Class<?>... parameterTypes) {
+		try {
+			Constructor<?> constructor = parameterTypes.length == 0 ? type.getDeclaredConstructor() : type.getConstructor(parameterTypes);
+			if (Modifier.isAbstract(type.getModifiers())) {
+				return null;
+			}
+			Introspection.makeAccessible(constructor);
+			return LOOKUP.unreflectConstructor(constructor).asType(MethodType.methodType(Object.class, parameterTypes));
+		} catch (NoSuchMethodException | IllegalAccessException | SecurityException exception) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param throwable The {@link Throwable} thrown by a {@link MethodHandle} invocation.
+	 * @return An {@link Exception} to rethrow.
+	 */
+	static Exception failure(Throwable throwable) {
+		if (throwable instanceof Error) {
+			throw (Error) throwable;
+		}
+		return throwable instanceof Exception ? (Exception) throwable : new Exception(throwable);
+	}
+
+	private static final class Bindings extends ClassValue<XmlBinding> {
+		@Override
+		protected XmlBinding computeValue(Class<?> type) {
+			return new XmlBinding(type);
+		}
+	}
+
+	/** The binding for an {@link XmlAttr}-marked field. */
+	static final class Attribute {
+		private final String		mName;
+		private final Class<?>		mFieldType;
+		private final int			mType;
+		private final MethodHandle	mGetter;
+		private final MethodHandle	mSetter;
+		private final MethodHandle	mConstructor;
+
+		Attribute(Field field) {
+			mName = field.getAnnotation(XmlAttr.class).value();
+			mFieldType = field.getType();
+			mType = getType(mFieldType);
+			Class<?> valueType = mType == TYPE_OTHER || mType == TYPE_STRING ? Object.class : mFieldType;
+			mGetter = getter(field, mType == TYPE_SHORT ? int.class : mType == TYPE_FLOAT ? double.class : valueType);
+			mSetter = setter(field, valueType);
+			mConstructor = mType == TYPE_OTHER ? constructor(mFieldType, String.class) : null;
+		}
+
+		/** @return The XML attribute name. */
+		String getName() {
+			return mName;
+		}
+
+		/**
+		 * Loads the attribute's value from the current tag into the field.
+		 *
+		 * @param parser The {@link XmlParser} to read from.
+		 * @param obj The object to load the value into.
+		 */
+		void load(XmlParser parser, Object obj) throws Exception {
+			try {
+				switch (mType) {
+					case TYPE_BOOLEAN:
+						mSetter.invokeExact(obj, parser.isAttributeSet(mName, false));
+						break;
+					case TYPE_INT:
+						mSetter.invokeExact(obj, parser.getIntegerAttribute(mName, 0));
+						break;
+					case TYPE_LONG:
+						mSetter.invokeExact(obj, parser.getLongAttribute(mName, 0));
+						break;
+					case TYPE_SHORT:
+						mSetter.invokeExact(obj, (short) parser.getIntegerAttribute(mName, 0));
+						break;
+					case TYPE_DOUBLE:
+						mSetter.invokeExact(obj, parser.getDoubleAttribute(mName, 0.0));
+						break;
+					case TYPE_FLOAT:
+						mSetter.invokeExact(obj, (float) parser.getDoubleAttribute(mName, 0.0));
+						break;
+					case TYPE_CHAR:
+						String charStr = parser.getAttribute(mName);
+						mSetter.invokeExact(obj, charStr == null || charStr.isEmpty() ? (char) 0 : charStr.charAt(0));
+						break;
+					case TYPE_STRING:
+						mSetter.invokeExact(obj, (Object) parser.getAttribute(mName, "")); //$NON-NLS-1$
+						break;
+					default:
+						if (mConstructor == null) {
+							throw new NoSuchMethodException(mFieldType.getName() + ".<init>(java.lang.String)"); //$NON-NLS-1$
+						}
+						mSetter.invokeExact(obj, (Object) mConstructor.invokeExact(parser.getAttribute(mName, ""))); //$NON-NLS-1$
+						break;
+				}
+			} catch (Throwable throwable) {
+				throw failure(throwable);
+			}
+		}
+
+		/**
+		 * Emits the field's value as an attribute of the currently open tag. Values equal to the
+		 * field type's default are omitted, as that is what {@link #load(XmlParser, Object)} will
+		 * restore when the attribute is missing.
+		 *
+		 * @param generator The {@link XmlGenerator} to write to.
+		 * @param obj The object to retrieve the value from.
+		 */
+		void emit(XmlGenerator generator, Object obj) throws Exception {
+			try {
+				switch (mType) {
+					case TYPE_BOOLEAN:
+						generator.addAttributeNot(mName, (boolean) mGetter.invokeExact(obj), false);
+						break;
+					case TYPE_INT:
+					case TYPE_SHORT:
+						generator.addAttributeNot(mName, (int) mGetter.invokeExact(obj), 0);
+						break;
+					case TYPE_LONG:
+						generator.addAttributeNot(mName, (long) mGetter.invokeExact(obj), 0);
+						break;
+					case TYPE_DOUBLE:
+					case TYPE_FLOAT:
+						generator.addAttributeNot(mName, (double) mGetter.invokeExact(obj), 0.0);
+						break;
+					case TYPE_CHAR:
+						char ch = (char) mGetter.invokeExact(obj);
+						if (ch != 0) {
+							generator.addAttribute(mName, String.valueOf(ch));
+						}
+						break;
+					default:
+						Object content = mGetter.invokeExact(obj);
+						if (content != null) {
+							generator.addAttributeNotEmpty(mName, content.toString());
+						}
+						break;
+				}
+			} catch (Throwable throwable) {
+				throw failure(throwable);
+			}
+		}
+	}
+
+	/** The binding for an {@link XmlTag}-marked field. */
+	static final class SubTag {
+		private final String		mName;
+		private final Class<?>		mType;
+		private final boolean		mIsCollection;
+		private final boolean		mSort;
+		private final MethodHandle	mGetter;
+		private final MethodHandle	mSetter;
+		private final MethodHandle	mConstructor;
+
+		SubTag(Field field) {
+			mName = field.getAnnotation(XmlTag.class).value();
+			mType = field.getType();
+			mIsCollection = Collection.class.isAssignableFrom(mType);
+			mSort = !field.isAnnotationPresent(XmlNoSort.class);
+			mGetter = getter(field, Object.class);
+			mSetter = setter(field, Object.class);
+			mConstructor = mType == List.class || mType == Set.class ? null : constructor(mType);
+		}
+
+		/** @return The XML tag name. */
+		String getName() {
+			return mName;
+		}
+
+		/** @return Whether the field holds a {@link Collection}. */
+		boolean isCollection() {
+			return mIsCollection;
+		}
+
+		/** @return Whether a {@link Collection} should be sorted before being emitted. */
+		boolean isSorted() {
+			return mSort;
+		}
+
+		/**
+		 * @param obj The object to retrieve the field's value from.
+		 * @return The value of the field.
+		 */
+		Object get(Object obj) throws Exception {
+			try {
+				return mGetter.invokeExact(obj);
+			} catch (Throwable throwable) {
+				throw failure(throwable);
+			}
+		}
+
+		/**
+		 * @param obj The object to set the field's value into.
+		 * @param value The value to set.
+		 */
+		void set(Object obj, Object value) throws Exception {
+			try {
+				mSetter.invokeExact(obj, value);
+			} catch (Throwable throwable) {
+				throw failure(throwable);
+			}
+		}
+
+		/** @return A new instance of the field's type. */
+		Object newInstance() throws Exception {
+			if (mType == List.class) {
+				return new ArrayList<>();
+			}
+			if (mType == Set.class) {
+				return new HashSet<>();
+			}
+			if (mConstructor == null) {
+				throw new InstantiationException(mType.getName());
+			}
+			try {
+				return mConstructor.invokeExact();
+			} catch (Throwable throwable) {
+				throw failure(throwable);
+			}
+		}
+	}
+}
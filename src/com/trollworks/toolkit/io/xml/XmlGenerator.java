@@ -17,23 +17,30 @@ import com.trollworks.toolkit.annotation.XmlNoSort;
 import com.trollworks.toolkit.annotation.XmlTag;
 import com.trollworks.toolkit.annotation.XmlTagMinimumVersion;
 import com.trollworks.toolkit.annotation.XmlTagVersion;
-import com.trollworks.toolkit.utility.Introspection;
 import com.trollworks.toolkit.utility.Localization;
-import com.trollworks.toolkit.utility.Text;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
 import java.io.OutputStream;
-import java.lang.reflect.Field;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collection;
 
-import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
 
-/** Provides simple XML generation. */
+/**
+ * Provides simple XML generation. Output is written as UTF-8 directly to a buffered stream, so
+ * {@link #close()} must be called once writing is complete. Objects annotated with {@link XmlTag},
+ * {@link XmlAttr}, {@link XmlTagVersion} and {@link XmlNoSort} can be written with
+ * {@link #add(Object)} and read back with {@link XmlParser#loadTagIntoObject(Object, XmlParserContext)}.
+ */
 public class XmlGenerator implements AutoCloseable {
 	@Localize("%s has not been annotated with @%s")
 	private static String		NOT_TAGGED;
+	@Localize("No tag is open")
+	private static String		NO_OPEN_TAG;
 
 	static {
 		Localization.initialize();
@@ -42,9 +49,12 @@ public class XmlGenerator implements AutoCloseable {
 	/** The attribute that will be used for a tag's version, if {@link #add(Object)} or {@link #add(String, Object)} is called. */
 	public static final String	ATTR_VERSION	= "version";	//$NON-NLS-1$
 	private String				mIndent			= "\t";		//$NON-NLS-1$
-	private XMLStreamWriter		mWriter;
+	private Writer				mWriter;
+	private String[]			mOpenTags		= new String[16];
 	private int					mDepth;
 	private boolean				mHadText;
+	private boolean				mStartTagOpen;
+	private boolean				mEmptyTag;
 
 	/**
 	 * Creates a new {@link XmlGenerator}.
@@ -52,7 +62,7 @@ public class XmlGenerator implements AutoCloseable {
 	 * @param stream The {@link OutputStream} to write to.
 	 */
 	public XmlGenerator(OutputStream stream) throws XMLStreamException {
-		mWriter = XMLOutputFactory.newInstance().createXMLStreamWriter(stream, Text.UTF8_ENCODING);
+		mWriter = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
 	}
 
 	/** @param indent The characters to use for indentation. */
@@ -62,18 +72,39 @@ public class XmlGenerator implements AutoCloseable {
 
 	/** Emits the XML document header. */
 	public void startDocument() throws XMLStreamException {
-		mWriter.writeStartDocument(Text.UTF8_ENCODING, "1.0");	//$NON-NLS-1$
+		write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"); //$NON-NLS-1$
 	}
 
-	/** Finishes the document. */
+	/** Finishes the document, closing any tags that are still open. */
 	public void endDocument() throws XMLStreamException {
-		mWriter.writeEndDocument();
+		closeStartTag();
+		try {
+			while (mDepth > 0) {
+				mWriter.write("</"); //$NON-NLS-1$
+				mWriter.write(mOpenTags[--mDepth]);
+				mWriter.write('>');
+			}
+		} catch (IOException exception) {
+			throw new XMLStreamException(exception);
+		}
 	}
 
 	private void eol() throws XMLStreamException {
-		mWriter.writeCharacters("\n");	//$NON-NLS-1$
-		for (int i = 0; i < mDepth; i++) {
-			mWriter.writeCharacters(mIndent);
+		closeStartTag();
+		try {
+			mWriter.write('\n');
+			for (int i = 0; i < mDepth; i++) {
+				mWriter.write(mIndent);
+			}
+		} catch (IOException exception) {
+			throw new XMLStreamException(exception);
+		}
+	}
+
+	private void closeStartTag() throws XMLStreamException {
+		if (mStartTagOpen) {
+			mStartTagOpen = false;
+			write(mEmptyTag ? "/>" : ">"); //$NON-NLS-1$ //$NON-NLS-2$
 		}
 	}
 
@@ -84,8 +115,11 @@ public class XmlGenerator implements AutoCloseable {
 	 */
 	public void startTag(String name) throws XMLStreamException {
 		eol();
-		mWriter.writeStartElement(name);
-		mDepth++;
+		if (mDepth == mOpenTags.length) {
+			mOpenTags = Arrays.copyOf(mOpenTags, mDepth * 2);
+		}
+		mOpenTags[mDepth++] = name;
+		openTag(name, false);
 	}
 
 	/**
@@ -95,18 +129,40 @@ public class XmlGenerator implements AutoCloseable {
 	 */
 	public void startEmptyTag(String name) throws XMLStreamException {
 		eol();
-		mWriter.writeEmptyElement(name);
+		openTag(name, true);
+	}
+
+	private void openTag(String name, boolean empty) throws XMLStreamException {
+		try {
+			mWriter.write('<');
+			mWriter.write(name);
+		} catch (IOException exception) {
+			throw new XMLStreamException(exception);
+		}
+		mStartTagOpen = true;
+		mEmptyTag = empty;
 	}
 
 	/** Closes the current tag. */
 	public void endTag() throws XMLStreamException {
+		if (mDepth == 0) {
+			throw new XMLStreamException(NO_OPEN_TAG);
+		}
 		mDepth--;
 		if (!mHadText) {
 			eol();
 		} else {
 			mHadText = false;
+			closeStartTag();
+		}
+		try {
+			mWriter.write("</"); //$NON-NLS-1$
+			mWriter.write(mOpenTags[mDepth]);
+			mWriter.write('>');
+		} catch (IOException exception) {
+			throw new XMLStreamException(exception);
 		}
-		mWriter.writeEndElement();
+		mOpenTags[mDepth] = null;
 	}
 
 	/**
@@ -116,7 +172,20 @@ public class XmlGenerator implements AutoCloseable {
 	 * @param value The value of the attribute.
 	 */
 	public void addAttribute(String name, String value) throws XMLStreamException {
-		mWriter.writeAttribute(name, value == null ? "" : value);	//$NON-NLS-1$
+		if (!mStartTagOpen) {
+			throw new XMLStreamException(NO_OPEN_TAG);
+		}
+		try {
+			mWriter.write(' ');
+			mWriter.write(name);
+			mWriter.write("=\""); //$NON-NLS-1$
+			if (value != null) {
+				escape(value, true);
+			}
+			mWriter.write('"');
+		} catch (IOException exception) {
+			throw new XMLStreamException(exception);
+		}
 	}
 
 	/**
@@ -126,7 +195,7 @@ public class XmlGenerator implements AutoCloseable {
 	 * @param value The value of the attribute.
 	 */
 	public void addAttribute(String name, boolean value) throws XMLStreamException {
-		mWriter.writeAttribute(name, value ? "yes" : "no");	//$NON-NLS-1$ //$NON-NLS-2$
+		addAttribute(name, value ? "yes" : "no");	//$NON-NLS-1$ //$NON-NLS-2$
 	}
 
 	/**
@@ -136,7 +205,7 @@ public class XmlGenerator implements AutoCloseable {
 	 * @param value The value of the attribute.
 	 */
 	public void addAttribute(String name, int value) throws XMLStreamException {
-		mWriter.writeAttribute(name, Integer.toString(value));
+		addAttribute(name, Integer.toString(value));
 	}
 
 	/**
@@ -146,7 +215,7 @@ public class XmlGenerator implements AutoCloseable {
 	 * @param value The value of the attribute.
 	 */
 	public void addAttribute(String name, long value) throws XMLStreamException {
-		mWriter.writeAttribute(name, Long.toString(value));
+		addAttribute(name, Long.toString(value));
 	}
 
 	/**
@@ -156,7 +225,7 @@ public class XmlGenerator implements AutoCloseable {
 	 * @param value The value of the attribute.
 	 */
 	public void addAttribute(String name, double value) throws XMLStreamException {
-		mWriter.writeAttribute(name, Double.toString(value));
+		addAttribute(name, Double.toString(value));
 	}
 
 	/**
@@ -167,7 +236,7 @@ public class XmlGenerator implements AutoCloseable {
 	 */
 	public void addAttributeNotEmpty(String name, String value) throws XMLStreamException {
 		if (value != null && value.length() > 0) {
-			mWriter.writeAttribute(name, value);
+			addAttribute(name, value);
 		}
 	}
 
@@ -242,7 +311,12 @@ public class XmlGenerator implements AutoCloseable {
 	 * @param text The text to add.
 	 */
 	public void addText(String text) throws XMLStreamException {
-		mWriter.writeCharacters(text);
+		closeStartTag();
+		try {
+			escape(text, false);
+		} catch (IOException exception) {
+			throw new XMLStreamException(exception);
+		}
 		mHadText = true;
 	}
 
@@ -253,15 +327,80 @@ public class XmlGenerator implements AutoCloseable {
 	 */
 	public void comment(String comment) throws XMLStreamException {
 		eol();
-		mWriter.writeComment(' ' + comment + ' ');
+		write("<!-- "); //$NON-NLS-1$
+		write(comment);
+		write(" -->"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Writes the text, escaping characters as needed. Runs of characters that need no escaping are
+	 * written in a single call.
+	 *
+	 * @param text The text to write.
+	 * @param attribute <code>true</code> if the text is an attribute value. Quotes and whitespace
+	 *            other than spaces will also be escaped, so that they survive attribute value
+	 *            normalization when parsed.
+	 */
+	private void escape(String text, boolean attribute) throws IOException {
+		int length = text.length();
+		int runStart = 0;
+		for (int i = 0; i < length; i++) {
+			String replacement;
+			switch (text.charAt(i)) {
+				case '&':
+					replacement = "&amp;"; //$NON-NLS-1$
+					break;
+				case '<':
+					replacement = "&lt;"; //$NON-NLS-1$
+					break;
+				case '>':
+					replacement = "&gt;"; //$NON-NLS-1$
+					break;
+				case '\r':
+					replacement = "&#13;"; //$NON-NLS-1$
+					break;
+				case '"':
+					replacement = attribute ? "&quot;" : null; //$NON-NLS-1$
+					break;
+				case '\t':
+					replacement = attribute ? "&#9;" : null; //$NON-NLS-1$
+					break;
+				case '\n':
+					replacement = attribute ? "&#10;" : null; //$NON-NLS-1$
+					break;
+				default:
+					replacement = null;
+					break;
+			}
+			if (replacement != null) {
+				mWriter.write(text, runStart, i - runStart);
+				mWriter.write(replacement);
+				runStart = i + 1;
+			}
+		}
+		mWriter.write(text, runStart, length - runStart);
+	}
+
+	private void write(String text) throws XMLStreamException {
+		try {
+			mWriter.write(text);
+		} catch (IOException exception) {
+			throw new XMLStreamException(exception);
+		}
 	}
 
-	/** Closes this {@link XmlGenerator}. No further writing can be attempted with it. */
+	/**
+	 * Closes this {@link XmlGenerator}, flushing any buffered output. No further writing can be
+	 * attempted with it. The underlying {@link OutputStream} is not closed.
+	 */
 	@Override
 	public void close() throws XMLStreamException {
 		if (mWriter != null) {
 			try {
-				mWriter.close();
+				closeStartTag();
+				mWriter.flush();
+			} catch (IOException exception) {
+				throw new XMLStreamException(exception);
 			} finally {
 				mWriter = null;
 			}
@@ -285,109 +424,74 @@ public class XmlGenerator implements AutoCloseable {
 	 *            object must be annotated with {@link XmlTag}.
 	 */
 	public void add(String tag, Object obj) throws XMLStreamException {
-		Class<?> objClass = obj.getClass();
+		XmlBinding binding = XmlBinding.get(obj.getClass());
 		if (tag == null || tag.isEmpty()) {
-			XmlTag xmlTag = objClass.getAnnotation(XmlTag.class);
-			if (xmlTag == null) {
+			tag = binding.getTag();
+			if (tag == null) {
 				throw new XMLStreamException(String.format(NOT_TAGGED, obj.getClass().getName(), XmlTag.class.getSimpleName()));
 			}
-			tag = xmlTag.value();
 		}
-		if (hasSubTags(obj, objClass)) {
-			startTag(tag);
-			emitAttributes(obj, objClass);
-			emitSubTags(obj, objClass);
-			endTag();
-		} else {
-			startEmptyTag(tag);
-			emitAttributes(obj, objClass);
+		try {
+			if (hasSubTags(obj, binding)) {
+				startTag(tag);
+				emitAttributes(obj, binding);
+				emitSubTags(obj, binding);
+				endTag();
+			} else {
+				startEmptyTag(tag);
+				emitAttributes(obj, binding);
+			}
+		} catch (XMLStreamException exception) {
+			throw exception;
+		} catch (Exception exception) {
+			throw new XMLStreamException(exception);
 		}
 	}
 
-	private static boolean hasSubTags(Object obj, Class<?> objClass) throws XMLStreamException {
-		for (Field field : Introspection.getFieldsWithAnnotation(objClass, XmlTag.class, true)) {
-			try {
-				Introspection.makeFieldAccessible(field);
-				Object content = field.get(obj);
-				if (content != null) {
-					if (Collection.class.isAssignableFrom(field.getType())) {
-						if (!((Collection<?>) content).isEmpty()) {
-							return true;
-						}
-					} else {
-						return true;
-					}
-				}
-			} catch (Exception exception) {
-				throw new XMLStreamException(exception);
+	private static boolean hasSubTags(Object obj, XmlBinding binding) throws Exception {
+		for (XmlBinding.SubTag subTag : binding.getSubTags()) {
+			Object content = subTag.get(obj);
+			if (content != null && (!subTag.isCollection() || !((Collection<?>) content).isEmpty())) {
+				return true;
 			}
 		}
 		return false;
 	}
 
-	private void emitSubTags(Object obj, Class<?> objClass) throws XMLStreamException {
-		for (Field field : Introspection.getFieldsWithAnnotation(objClass, XmlTag.class, true)) {
-			try {
-				Introspection.makeFieldAccessible(field);
-				Object content = field.get(obj);
-				if (content != null) {
-					XmlTag subTag = field.getAnnotation(XmlTag.class);
-					Class<?> type = field.getType();
-					if (Collection.class.isAssignableFrom(type)) {
-						Collection<?> collection = (Collection<?>) content;
-						if (!field.isAnnotationPresent(XmlNoSort.class)) {
+	private void emitSubTags(Object obj, XmlBinding binding) throws Exception {
+		for (XmlBinding.SubTag subTag : binding.getSubTags()) {
+			Object content = subTag.get(obj);
+			if (content != null) {
+				if (subTag.isCollection()) {
+					Collection<?> collection = (Collection<?>) content;
+					if (!collection.isEmpty()) {
+						if (subTag.isSorted()) {
 							Object[] data = collection.toArray();
 							Arrays.sort(data);
 							collection = Arrays.asList(data);
 						}
-						if (!collection.isEmpty()) {
-							String wrapName = subTag.value();
-							if (!wrapName.isEmpty()) {
-								startTag(wrapName);
-							}
-							for (Object one : collection) {
-								add(one);
-							}
-							if (!wrapName.isEmpty()) {
-								endTag();
-							}
+						String wrapName = subTag.getName();
+						if (!wrapName.isEmpty()) {
+							startTag(wrapName);
+						}
+						for (Object one : collection) {
+							add(one);
+						}
+						if (!wrapName.isEmpty()) {
+							endTag();
 						}
-					} else {
-						add(subTag.value(), content);
 					}
+				} else {
+					add(subTag.getName(), content);
 				}
-			} catch (XMLStreamException exception) {
-				throw exception;
-			} catch (Exception exception) {
-				throw new XMLStreamException(exception);
 			}
 		}
 	}
 
-	private void emitAttributes(Object obj, Class<?> objClass) throws XMLStreamException {
-		addAttributeNot(ATTR_VERSION, getVersionOfTag(objClass), 0);
-		for (Field field : Introspection.getFieldsWithAnnotation(objClass, XmlAttr.class, true)) {
-			String name = field.getAnnotation(XmlAttr.class).value();
-			try {
-				Introspection.makeFieldAccessible(field);
-				Class<?> type = field.getType();
-				if (type == boolean.class) {
-					addAttributeNot(name, field.getBoolean(obj), false);
-				} else if (type == int.class || type == short.class) {
-					addAttributeNot(name, field.getInt(obj), 0);
-				} else if (type == long.class) {
-					addAttributeNot(name, field.getLong(obj), 0);
-				} else if (type == double.class || type == float.class) {
-					addAttributeNot(name, field.getDouble(obj), 0.0);
-				} else {
-					Object content = field.get(obj);
-					if (content != null) {
-						addAttributeNotEmpty(name, content.toString());
-					}
-				}
-			} catch (Exception exception) {
-				throw new XMLStreamException(exception);
-			}
+	private void emitAttributes(Object obj, XmlBinding binding) throws Exception {
+		addAttributeNot(ATTR_VERSION, binding.getVersion(), 0);
+		for (XmlBinding.Attribute attribute : binding.getAttributes()) {
+			attribute.emit(this, obj);
 		}
 	}
 
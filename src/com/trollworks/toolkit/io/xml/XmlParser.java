@@ -12,21 +12,12 @@
 package com.trollworks.toolkit.io.xml;
 
 import com.trollworks.toolkit.annotation.Localize;
-import com.trollworks.toolkit.annotation.XmlAttr;
-import com.trollworks.toolkit.annotation.XmlTag;
-import com.trollworks.toolkit.utility.Introspection;
 import com.trollworks.toolkit.utility.Localization;
 import com.trollworks.toolkit.utility.Numbers;
 
 import java.io.InputStream;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import javax.xml.stream.Location;
@@ -79,83 +70,60 @@ public class XmlParser implements AutoCloseable {
 				context = new XmlParserContext(this);
 			}
 			String marker = getMarker();
-			Class<?> tagClass = obj.getClass();
+			XmlBinding binding = XmlBinding.get(obj.getClass());
 			int version = getIntegerAttribute(XmlGenerator.ATTR_VERSION, 0);
-			if (version > XmlGenerator.getVersionOfTag(tagClass)) {
+			if (version > binding.getVersion()) {
 				throw new XMLStreamException(String.format(TOO_NEW, getCurrentTag()), getLocation());
 			}
-			if (version < XmlGenerator.getMinimumLoadableVersionOfTag(tagClass)) {
+			if (version < binding.getMinimumVersion()) {
 				throw new XMLStreamException(String.format(TOO_OLD, getCurrentTag()), getLocation());
 			}
 			if (version != 0) {
 				context.pushVersion(version);
 			}
-			Set<String> unmatchedAttributes = new HashSet<>();
-			for (int i = getAttributeCount(); --i > 0;) {
-				unmatchedAttributes.add(getAttributeName(i));
-			}
-			unmatchedAttributes.remove(XmlGenerator.ATTR_VERSION);
-			for (Field field : Introspection.getFieldsWithAnnotation(tagClass, XmlAttr.class, true)) {
-				Introspection.makeFieldAccessible(field);
-				XmlAttr attr = field.getAnnotation(XmlAttr.class);
-				String name = attr.value();
-				unmatchedAttributes.remove(name);
-				Class<?> type = field.getType();
-				if (type == boolean.class) {
-					field.setBoolean(obj, isAttributeSet(name, false));
-				} else if (type == int.class) {
-					field.setInt(obj, getIntegerAttribute(name, 0));
-				} else if (type == long.class) {
-					field.setLong(obj, getLongAttribute(name, 0));
-				} else if (type == short.class) {
-					field.setShort(obj, (short) getIntegerAttribute(name, 0));
-				} else if (type == double.class) {
-					field.setDouble(obj, getDoubleAttribute(name, 0.0));
-				} else if (type == float.class) {
-					field.setFloat(obj, (float) getDoubleAttribute(name, 0.0));
-				} else if (type == char.class) {
-					String charStr = getAttribute(name);
-					field.setChar(obj, charStr == null || charStr.isEmpty() ? 0 : charStr.charAt(0));
-				} else if (type == String.class) {
-					field.set(obj, getAttribute(name, "")); //$NON-NLS-1$
-				} else {
-					Constructor<?> constructor = type.getConstructor(String.class);
-					field.set(obj, constructor.newInstance(getAttribute(name, ""))); //$NON-NLS-1$
+			XmlParserAssistant assistant = obj instanceof XmlParserAssistant ? (XmlParserAssistant) obj : null;
+			Set<String> unmatchedAttributes = null;
+			if (assistant != null) {
+				unmatchedAttributes = new HashSet<>();
+				for (int i = getAttributeCount(); --i >= 0;) {
+					unmatchedAttributes.add(getAttributeName(i));
 				}
+				unmatchedAttributes.remove(XmlGenerator.ATTR_VERSION);
 			}
-			if (obj instanceof XmlParserAssistant) {
-				((XmlParserAssistant) obj).xmlAttributesLoaded(context, unmatchedAttributes);
+			for (XmlBinding.Attribute attr : binding.getAttributes()) {
+				if (unmatchedAttributes != null) {
+					unmatchedAttributes.remove(attr.getName());
+				}
+				attr.load(this, obj);
 			}
-			Map<String, Field> subTags = new HashMap<>();
-			for (Field field : Introspection.getFieldsWithAnnotation(tagClass, XmlTag.class, true)) {
-				subTags.put(field.getAnnotation(XmlTag.class).value(), field);
+			if (assistant != null) {
+				assistant.xmlAttributesLoaded(context, unmatchedAttributes);
 			}
 			String tag;
 			while ((tag = nextTag(marker)) != null) {
-				Field field = subTags.get(tag);
-				if (field != null) {
-					Class<?> type = field.getType();
-					if (Collection.class.isAssignableFrom(type)) {
-						loadCollection(obj, context, field);
+				XmlBinding.SubTag subTag = binding.getSubTag(tag);
+				if (subTag != null) {
+					if (subTag.isCollection()) {
+						loadCollection(obj, context, subTag);
 					} else {
 						Object fieldObj = null;
-						if (obj instanceof XmlParserAssistant) {
-							fieldObj = ((XmlParserAssistant) obj).createObjectForXmlTag(context, tag);
+						if (assistant != null) {
+							fieldObj = assistant.createObjectForXmlTag(context, tag);
 						}
 						if (fieldObj == null) {
-							fieldObj = type.newInstance();
+							fieldObj = subTag.newInstance();
 						}
 						loadTagIntoObject(fieldObj, context);
-						field.set(obj, fieldObj);
+						subTag.set(obj, fieldObj);
 					}
-				} else if (obj instanceof XmlParserAssistant) {
-					((XmlParserAssistant) obj).processUnmatchedXmlTag(context, tag);
+				} else if (assistant != null) {
+					assistant.processUnmatchedXmlTag(context, tag);
 				} else {
 					skip();
 				}
 			}
-			if (obj instanceof XmlParserAssistant) {
-				((XmlParserAssistant) obj).xmlLoaded(context);
+			if (assistant != null) {
+				assistant.xmlLoaded(context);
 			}
 			if (version != 0) {
 				context.popVersion();
@@ -168,7 +136,7 @@ public class XmlParser implements AutoCloseable {
 	}
 
 	@SuppressWarnings("unchecked")
-	private void loadCollection(Object obj, XmlParserContext context, Field field) throws XMLStreamException, IllegalArgumentException, IllegalAccessException, InstantiationException {
+	private void loadCollection(Object obj, XmlParserContext context, XmlBinding.SubTag subTag) throws Exception {
 		Object collection = null;
 		String marker = getMarker();
 		String tag;
@@ -182,17 +150,10 @@ public class XmlParser implements AutoCloseable {
 			}
 			loadTagIntoObject(fieldObj, context);
 			if (collection == null) {
-				collection = field.get(obj);
+				collection = subTag.get(obj);
 				if (collection == null) {
-					Class<?> type = field.getType();
-					if (type == List.class) {
-						collection = new ArrayList<>();
-					} else if (type == Set.class) {
-						collection = new HashSet<>();
-					} else {
-						collection = type.newInstance();
-					}
-					field.set(obj, collection);
+					collection = subTag.newInstance();
+					subTag.set(obj, collection);
 				}
 			}
 			if (collection instanceof Collection) {
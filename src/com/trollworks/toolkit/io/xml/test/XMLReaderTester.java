@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 1998-2014 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.xml.test;
+
+import com.trollworks.toolkit.io.xml.XMLNodeType;
+import com.trollworks.toolkit.io.xml.XMLReader;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Parses randomly generated documents both through a {@link java.io.Reader} and directly from
+ * their UTF-8 bytes, making the same random calls to {@link XMLReader#skipTag(String)} and
+ * {@link XMLReader#readText()} on each, and reports any difference in the events, names,
+ * attributes, text, lines or columns seen.
+ */
+public class XMLReaderTester {
+	private static final String[]	NAMES	= { "a", "b", "item", "r" };																					//$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	private static final String[]	TEXT	= { "z", "é", "中", "😀", "&amp;", " ", "\n", "\r\n", "\r", "<!-- c😀 -->" };	//$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$
+
+	public static final void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+		int failures = 0;
+		for (int i = 0; i < count; i++) {
+			String doc = generateDocument(new Random(i));
+			List<String> expected = parse(new Random(i), doc, false);
+			List<String> actual = parse(new Random(i), doc, true);
+			if (!expected.equals(actual)) {
+				if (failures++ < 10) {
+					System.out.println("Document " + i + " differs:\n" + doc.replace("\r", "\\r")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+					for (int j = 0; j < Math.max(expected.size(), actual.size()); j++) {
+						String one = j < expected.size() ? expected.get(j) : null;
+						String two = j < actual.size() ? actual.get(j) : null;
+						if (one == null || !one.equals(two)) {
+							System.out.println("  reader: " + one + "\n  bytes:  " + two); //$NON-NLS-1$ //$NON-NLS-2$
+							break;
+						}
+					}
+				}
+			}
+		}
+		System.out.println(failures + " of " + count + " documents differ"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static String generateDocument(Random random) {
+		StringBuilder buffer = new StringBuilder();
+		if (random.nextBoolean()) {
+			buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"); //$NON-NLS-1$
+			buffer.append(TEXT[6 + random.nextInt(3)]);
+		}
+		generateElement(random, buffer, 0);
+		if (random.nextBoolean()) {
+			buffer.append(TEXT[6 + random.nextInt(3)]);
+		}
+		return buffer.toString();
+	}
+
+	private static void generateElement(Random random, StringBuilder buffer, int depth) {
+		String name = NAMES[random.nextInt(NAMES.length)];
+		buffer.append('<');
+		buffer.append(name);
+		int attributes = random.nextInt(3);
+		for (int i = 0; i < attributes; i++) {
+			buffer.append(random.nextBoolean() ? " " : "\n "); //$NON-NLS-1$ //$NON-NLS-2$
+			buffer.append("k"); //$NON-NLS-1$
+			buffer.append(i);
+			buffer.append("=\""); //$NON-NLS-1$
+			buffer.append(TEXT[random.nextInt(5)]);
+			buffer.append('"');
+		}
+		if (depth > 0 && random.nextInt(5) == 0) {
+			buffer.append("/>"); //$NON-NLS-1$
+			return;
+		}
+		buffer.append('>');
+		int children = depth < 4 ? random.nextInt(5) : 0;
+		for (int i = 0; i < children; i++) {
+			int pieces = random.nextInt(4);
+			for (int j = 0; j < pieces; j++) {
+				buffer.append(TEXT[random.nextInt(TEXT.length)]);
+			}
+			generateElement(random, buffer, depth + 1);
+		}
+		if (random.nextBoolean()) {
+			buffer.append(TEXT[random.nextInt(TEXT.length)]);
+		}
+		buffer.append("</"); //$NON-NLS-1$
+		buffer.append(name);
+		buffer.append('>');
+	}
+
+	private static List<String> parse(Random random, String doc, boolean bytes) {
+		List<String> events = new ArrayList<>();
+		try (XMLReader reader = bytes ? new XMLReader(ByteBuffer.wrap(doc.getBytes(StandardCharsets.UTF_8))) : new XMLReader(new StringReader(doc))) {
+			XMLNodeType type;
+			while ((type = reader.next()) != XMLNodeType.END_DOCUMENT) {
+				events.add(describe(reader));
+				if (type == XMLNodeType.START_TAG) {
+					int action = random.nextInt(10);
+					if (action < 3) {
+						reader.skipTag(reader.getName());
+						events.add("skipped " + describe(reader)); //$NON-NLS-1$
+					} else if (action < 5) {
+						events.add("text " + reader.readText() + " " + describe(reader)); //$NON-NLS-1$ //$NON-NLS-2$
+					}
+				}
+			}
+			events.add(describe(reader));
+		} catch (IOException exception) {
+			events.add(exception.getMessage());
+		}
+		return events;
+	}
+
+	private static String describe(XMLReader reader) {
+		XMLNodeType type = reader.getType();
+		StringBuilder buffer = new StringBuilder(type.name());
+		buffer.append(' ');
+		buffer.append(reader.getLineNumber());
+		buffer.append(':');
+		buffer.append(reader.getColumnNumber());
+		buffer.append(" depth "); //$NON-NLS-1$
+		buffer.append(reader.getDepth());
+		if (type == XMLNodeType.START_TAG || type == XMLNodeType.END_TAG) {
+			buffer.append(' ');
+			buffer.append(reader.getName());
+		}
+		if (type == XMLNodeType.START_TAG) {
+			buffer.append(new TreeMap<>(reader.getAttributes()));
+		} else if (type == XMLNodeType.TEXT) {
+			buffer.append(" ["); //$NON-NLS-1$
+			buffer.append(reader.getText());
+			buffer.append(']');
+		}
+		return buffer.toString();
+	}
+}
@@ -11,20 +11,25 @@
 
 package com.trollworks.toolkit.utility;
 
-import com.trollworks.toolkit.collections.Pair;
-
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /** Helper utilities for introspection. */
 public class Introspection {
-	private static final Map<Pair<Class<?>, Class<? extends Annotation>>, Field[]>	FIELD_MAP	= new HashMap<>();
+	private static final ClassValue<ClassInfo>	CLASS_INFO	= new ClassInfoValue();
+	private static final MethodHandles.Lookup	LOOKUP		= MethodHandles.lookup();
 
 	/**
 	 * Marks the specified field as accessible, even if it would normally be off-limits. Requires
@@ -33,12 +38,22 @@ public class Introspection {
 	 * @param field The {@link Field} to mark as accessible.
 	 */
 	public static void makeFieldAccessible(final Field field) throws SecurityException {
-		if (!field.isAccessible()) {
+		makeAccessible(field);
+	}
+
+	/**
+	 * Marks the specified field, method or constructor as accessible, even if it would normally be
+	 * off-limits. Requires either no {@link SecurityManager} or one that allows making this change.
+	 *
+	 * @param object The {@link AccessibleObject} to mark as accessible.
+	 */
+	public static void makeAccessible(final AccessibleObject object) throws SecurityException {
+		if (!object.isAccessible()) {
 			if (System.getSecurityManager() == null) {
-				field.setAccessible(true);
+				object.setAccessible(true);
 			} else {
 				AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
-					field.setAccessible(true);
+					object.setAccessible(true);
 					return null;
 				});
 			}
@@ -52,29 +67,96 @@ public class Introspection {
 	 * @return The {@link Field}s in the specified {@link Class} and its super-{@link Class}es which
 	 *         are marked with the specified {@link Annotation}.
 	 */
-	public static synchronized Field[] getFieldsWithAnnotation(Class<?> objClass, Class<? extends Annotation> annotationClass, boolean cache) {
-		Pair<Class<?>, Class<? extends Annotation>> key = new Pair<>(objClass, annotationClass);
-		Field[] fields = FIELD_MAP.get(key);
+	public static Field[] getFieldsWithAnnotation(Class<?> objClass, Class<? extends Annotation> annotationClass, boolean cache) {
+		ConcurrentMap<Class<? extends Annotation>, Field[]> map = CLASS_INFO.get(objClass).mFields;
+		Field[] fields = map.get(annotationClass);
 		if (fields == null) {
 			List<Field> fieldList = new ArrayList<>();
-			getFieldsWithAnnotation(objClass, annotationClass, fieldList);
+			Class<?> superClass = objClass.getSuperclass();
+			if (superClass != null) {
+				Collections.addAll(fieldList, getFieldsWithAnnotation(superClass, annotationClass, cache));
+			}
+			for (Field field : objClass.getDeclaredFields()) {
+				if (field.isAnnotationPresent(annotationClass)) {
+					fieldList.add(field);
+				}
+			}
 			fields = fieldList.toArray(new Field[fieldList.size()]);
 			if (cache) {
-				FIELD_MAP.put(key, fields);
+				Field[] existing = map.putIfAbsent(annotationClass, fields);
+				if (existing != null) {
+					fields = existing;
+				}
 			}
 		}
 		return fields;
 	}
 
-	private static void getFieldsWithAnnotation(Class<?> objClass, Class<? extends Annotation> annotationClass, List<Field> fields) {
-		Class<?> superClass = objClass.getSuperclass();
-		if (superClass != null) {
-			getFieldsWithAnnotation(superClass, annotationClass, fields);
+	/**
+	 * @param field The {@link Field} to retrieve a getter for.
+	 * @return A {@link MethodHandle} of type <code>(Object)</code> returning the field's type that
+	 *         reads the field from the object passed in. For static fields, the argument is
+	 *         ignored.
+	 */
+	public static MethodHandle getGetter(Field field) {
+		return CLASS_INFO.get(field.getDeclaringClass()).mGetters.computeIfAbsent(field, Introspection::createGetter);
+	}
+
+	/**
+	 * @param field The {@link Field} to retrieve a setter for.
+	 * @return A {@link MethodHandle} of type <code>(Object, </code>the field's type
+	 *         <code>)void</code> that writes the field of the object passed in. For static fields,
+	 *         the first argument is ignored. Final fields are supported.
+	 */
+	public static MethodHandle getSetter(Field field) {
+		return CLASS_INFO.get(field.getDeclaringClass()).mSetters.computeIfAbsent(field, Introspection::createSetter);
+	}
+
+	private static MethodHandle createGetter(Field field) {
+		makeFieldAccessible(field);
+		try {
+			MethodHandle handle = LOOKUP.unreflectGetter(field);
+			if (Modifier.isStatic(field.getModifiers())) {
+				handle = MethodHandles.dropArguments(handle, 0, Object.class);
+			}
+			return handle.asType(MethodType.methodType(field.getType(), Object.class));
+		} catch (IllegalAccessException exception) {
+			throw new IllegalStateException(exception);
 		}
-		for (Field field : objClass.getDeclaredFields()) {
-			if (field.isAnnotationPresent(annotationClass)) {
-				fields.add(field);
+	}
+
+	private static MethodHandle createSetter(Field field) {
+		makeFieldAccessible(field);
+		Class<?> type = field.getType();
+		try {
+			MethodHandle handle;
+			try {
+				handle = LOOKUP.unreflectSetter(field);
+			} catch (IllegalAccessException exception) {
+				// Final fields can only be written through reflection.
+				String name = type.isPrimitive() ? "set" + Character.toUpperCase(type.getName().charAt(0)) + type.getName().substring(1) : "set"; //$NON-NLS-1$ //$NON-NLS-2$
+				return LOOKUP.unreflect(Field.class.getMethod(name, Object.class, type.isPrimitive() ? type : Object.class)).bindTo(field).asType(MethodType.methodType(void.class, Object.class, type));
 			}
+			if (Modifier.isStatic(field.getModifiers())) {
+				handle = MethodHandles.dropArguments(handle, 0, Object.class);
+			}
+			return handle.asType(MethodType.methodType(void.class, Object.class, type));
+		} catch (IllegalAccessException | NoSuchMethodException exception) {
+			throw new IllegalStateException(exception);
+		}
+	}
+
+	private static final class ClassInfoValue extends ClassValue<ClassInfo> {
+		@Override
+		protected ClassInfo computeValue(Class<?> type) {
+			return new ClassInfo();
 		}
 	}
+
+	/** The introspection data gathered for a single {@link Class}. */
+	private static final class ClassInfo {
+		final ConcurrentMap<Class<? extends Annotation>, Field[]>	mFields		= new ConcurrentHashMap<>();
+		final ConcurrentMap<Field, MethodHandle>					mGetters	= new ConcurrentHashMap<>();
+		final ConcurrentMap<Field, MethodHandle>					mSetters	= new ConcurrentHashMap<>();
+	}
 }
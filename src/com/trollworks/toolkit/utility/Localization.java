@@ -11,7 +11,6 @@
 
 package com.trollworks.toolkit.utility;
 
-import com.trollworks.toolkit.annotation.Localizations;
 import com.trollworks.toolkit.annotation.Localize;
 
 import java.lang.reflect.Field;
@@ -28,12 +27,13 @@ import java.util.Locale;
  */
 @SuppressWarnings("nls")
 public class Localization implements PrivilegedAction<Object> {
-	private static final int		MOD_EXPECTED	= Modifier.STATIC;
-	private static final int		MOD_MASK		= MOD_EXPECTED | Modifier.FINAL;
-	private static final String[]	LOCALES;
-	private Class<?>				mClass;
-	private String					mBundleName;
-	private boolean					mIsAccessible;
+	private static final int			MOD_EXPECTED	= Modifier.STATIC;
+	private static final int			MOD_MASK		= MOD_EXPECTED | Modifier.FINAL;
+	private static final String[]		LOCALES;
+	private static final CallerFinder	CALLER_FINDER;
+	private Class<?>					mClass;
+	private String						mBundleName;
+	private boolean						mIsAccessible;
 
 	static {
 		String nl = Locale.getDefault().toString();
@@ -48,6 +48,14 @@ public class Localization implements PrivilegedAction<Object> {
 		}
 		result.add("");
 		LOCALES = result.toArray(new String[result.size()]);
+		CallerFinder finder;
+		try {
+			finder = new CallerFinder();
+		} catch (SecurityException exception) {
+			// Not permitted to create a SecurityManager, so fall back to using a stack trace.
+			finder = null;
+		}
+		CALLER_FINDER = finder;
 	}
 
 	/**
@@ -59,7 +67,8 @@ public class Localization implements PrivilegedAction<Object> {
 	 */
 	public static void initialize() {
 		try {
-			initialize(Class.forName(new Exception().getStackTrace()[1].getClassName()));
+			Class<?> caller = CALLER_FINDER != null ? CALLER_FINDER.getCaller() : Class.forName(new Exception().getStackTrace()[1].getClassName());
+			initialize(caller);
 		} catch (Throwable throwable) {
 			throwable.printStackTrace(System.err);
 		}
@@ -88,31 +97,46 @@ public class Localization implements PrivilegedAction<Object> {
 	@Override
 	public Object run() {
 		for (Field field : mClass.getDeclaredFields()) {
-			if ((field.isAnnotationPresent(Localize.class) || field.isAnnotationPresent(Localizations.class)) && (field.getModifiers() & MOD_MASK) == MOD_EXPECTED) {
-				try {
-					if (!mIsAccessible || (field.getModifiers() & Modifier.PUBLIC) == 0) {
-						field.setAccessible(true);
+			// Check the cheap things first; the annotations of a field are only parsed when asked
+			// for.
+			int modifiers = field.getModifiers();
+			if ((modifiers & MOD_MASK) == MOD_EXPECTED) {
+				Localize[] annotations = field.getAnnotationsByType(Localize.class);
+				if (annotations.length > 0) {
+					try {
+						if (!mIsAccessible || (modifiers & Modifier.PUBLIC) == 0) {
+							field.setAccessible(true);
+						}
+						field.set(null, getMessage(field, annotations));
+					} catch (Exception e) {
+						System.err.println("Unable to set value of localized message for '" + field.getName() + "' in " + mBundleName);
 					}
-					field.set(null, getMessage(field));
-				} catch (Exception e) {
-					System.err.println("Unable to set value of localized message for '" + field.getName() + "' in " + mBundleName);
 				}
 			}
 		}
 		return null;
 	}
 
-	private static String getMessage(Field field) {
-		Localize[] annotations = field.getAnnotationsByType(Localize.class);
-		if (annotations.length > 0) {
-			for (String locale : LOCALES) {
-				for (Localize one : annotations) {
-					if (locale.equals(one.locale())) {
-						return one.value();
-					}
+	private static String getMessage(Field field, Localize[] annotations) {
+		for (String locale : LOCALES) {
+			for (Localize one : annotations) {
+				if (locale.equals(one.locale())) {
+					return one.value();
 				}
 			}
 		}
 		return "*!*" + field.getName() + "*!*";
 	}
+
+	/**
+	 * Finds the class that called {@link Localization#initialize()} without capturing a full stack
+	 * trace, which is considerably more expensive since every frame gets resolved to a
+	 * {@link StackTraceElement}.
+	 */
+	private static final class CallerFinder extends SecurityManager {
+		Class<?> getCaller() {
+			// [0] is this class, [1] is Localization and [2] is the class that called it.
+			return getClassContext()[2];
+		}
+	}
 }
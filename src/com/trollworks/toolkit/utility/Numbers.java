@@ -219,7 +219,7 @@ public class Numbers {
 			buffer = removeSuffix(buffer);
 		}
 		double max = Double.MAX_VALUE / multiplier;
-		double min = Double.MIN_VALUE / multiplier;
+		double min = -Double.MAX_VALUE / multiplier;
 		try {
 			if (localized) {
 				char decimal = LOCALIZED_DECIMAL_SEPARATOR.charAt(0);
@@ -12,26 +12,44 @@
 package com.trollworks.toolkit.utility;
 
 import com.trollworks.toolkit.annotation.Localize;
+import com.trollworks.toolkit.io.EndianUtils;
+import com.trollworks.toolkit.io.Log;
 import com.trollworks.toolkit.io.SafeFileUpdater;
 import com.trollworks.toolkit.ui.Fonts;
 import com.trollworks.toolkit.utility.notification.Notifier;
+import com.trollworks.toolkit.utility.task.Tasks;
 import com.trollworks.toolkit.utility.text.Conversion;
 
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Point;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-
-/** Provides the implementation of preferences. */
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Provides the implementation of preferences.
+ * <p>
+ * Preferences are stored as a log of changes. Each save appends a checksummed batch holding just
+ * the keys that changed since the last one, and the log is rewritten in full once it grows to
+ * twice the number of live keys. Preference files written in the older XML format are still read,
+ * and are converted on the next save.
+ */
 public class Preferences {
 	@Localize("Global preferences have not been initialized yet!")
 	@Localize(locale = "de", value = "Globale Einstellungen wurden noch nicht initialisiert!")
@@ -41,13 +59,23 @@ public class Preferences {
 		Localization.initialize();
 	}
 
-	private static final String	VERSION_KEY	= "Version";	//$NON-NLS-1$
-	private static final String	DOT			= ".";			//$NON-NLS-1$
-	private static Preferences	INSTANCE	= null;
-	private boolean				mDirty;
-	private Properties			mPrefs;
-	private File				mFile;
-	private Notifier			mNotifier;
+	/** The write-behind delay, in milliseconds, used for the default, global, preferences. */
+	public static final int						DEFAULT_WRITE_BEHIND_DELAY	= 1000;
+	private static final String					VERSION_KEY					= "Version";	//$NON-NLS-1$
+	private static final String					DOT							= ".";			//$NON-NLS-1$
+	private static final int					MAGIC						= 0x544B5031;
+	private static final int					BATCH_HEADER_SIZE			= 8;
+	private static final int					REMOVE						= 0;
+	private static final int					SET							= 1;
+	private static final int					MIN_RECORDS_TO_COMPACT		= 256;
+	private static Preferences					INSTANCE					= null;
+	private final LinkedHashMap<String, String>	mPending					= new LinkedHashMap<>();
+	private Properties							mPrefs;
+	private File								mFile;
+	private Notifier							mNotifier;
+	private volatile int						mWriteBehindDelay;
+	private int									mRecordCount;
+	private boolean								mNeedsCompaction;
 
 	/** @return The default, global, preferences. */
 	public static synchronized Preferences getInstance() {
@@ -66,6 +94,7 @@ public class Preferences {
 	public static synchronized void setPreferenceFile(File prefsFile) {
 		if (INSTANCE == null) {
 			INSTANCE = new Preferences(prefsFile);
+			INSTANCE.setWriteBehindDelay(DEFAULT_WRITE_BEHIND_DELAY);
 		}
 	}
 
@@ -151,14 +180,110 @@ public class Preferences {
 		mFile = prefsFile;
 		mPrefs = new Properties();
 		mNotifier = new Notifier();
+		try {
+			SafeFileUpdater.recover(mFile);
+		} catch (IOException exception) {
+			Log.error(exception);
+		}
 		if (mFile.exists()) {
-			try (InputStream in = new FileInputStream(mFile)) {
-				mPrefs.loadFromXML(in);
+			try {
+				load(Files.readAllBytes(mFile.toPath()));
 			} catch (Exception exception) {
 				// Throw away anything we loaded, since the file must be corrupted.
 				mPrefs = new Properties();
+				mRecordCount = 0;
+				mNeedsCompaction = true;
+			}
+		} else {
+			mNeedsCompaction = true;
+		}
+	}
+
+	private void load(byte[] data) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		if (data.length < 4 || buffer.getInt() != MAGIC) {
+			mPrefs.loadFromXML(new ByteArrayInputStream(data));
+			mNeedsCompaction = true;
+			return;
+		}
+		CRC32 crc = new CRC32();
+		while (buffer.remaining() >= BATCH_HEADER_SIZE) {
+			int length = buffer.getInt();
+			int checksum = buffer.getInt();
+			if (length < 0 || length > buffer.remaining()) {
+				break;
+			}
+			crc.reset();
+			crc.update(data, buffer.position(), length);
+			if ((int) crc.getValue() != checksum) {
+				break;
+			}
+			int end = buffer.position() + length;
+			while (buffer.position() < end) {
+				int op = buffer.get();
+				String key = readString(buffer);
+				if (op == SET) {
+					mPrefs.setProperty(key, readString(buffer));
+				} else {
+					mPrefs.remove(key);
+				}
+				mRecordCount++;
+			}
+		}
+		if (buffer.hasRemaining()) {
+			// The last batch was only partially written, so rewrite the log on the next save.
+			mNeedsCompaction = true;
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = buffer.get();
+			length |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		String text = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return text;
+	}
+
+	private static void writeString(DataOutputStream out, String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		int length = bytes.length;
+		while (length > 0x7F) {
+			out.write(length & 0x7F | 0x80);
+			length >>>= 7;
+		}
+		out.write(length);
+		out.write(bytes);
+	}
+
+	/**
+	 * @param records The keys and values to record. A <code>null</code> value records the removal
+	 *            of its key.
+	 * @return The batch, including its length and checksum header.
+	 */
+	private static byte[] createBatch(Map<?, ?> records) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buffer);
+		out.write(new byte[BATCH_HEADER_SIZE]);
+		for (Map.Entry<?, ?> entry : records.entrySet()) {
+			String value = (String) entry.getValue();
+			out.write(value != null ? SET : REMOVE);
+			writeString(out, (String) entry.getKey());
+			if (value != null) {
+				writeString(out, value);
 			}
 		}
+		byte[] batch = buffer.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(batch, BATCH_HEADER_SIZE, batch.length - BATCH_HEADER_SIZE);
+		EndianUtils.writeBEInt(batch.length - BATCH_HEADER_SIZE, batch, 0);
+		EndianUtils.writeBEInt((int) crc.getValue(), batch, 4);
+		return batch;
 	}
 
 	/** @return The file used to store these preferences. */
@@ -166,6 +291,23 @@ public class Preferences {
 		return mFile;
 	}
 
+	/** @return The number of milliseconds changes wait before being written in the background. */
+	public int getWriteBehindDelay() {
+		return mWriteBehindDelay;
+	}
+
+	/**
+	 * Controls write-behind mode. When enabled, changes are written to disk on a background thread
+	 * shortly after they are made, rather than only when {@link #save()} is called. All changes
+	 * made while a write is pending are coalesced into that write.
+	 *
+	 * @param millis The number of milliseconds to wait after a change before writing it. Pass 0 to
+	 *            disable write-behind mode.
+	 */
+	public void setWriteBehindDelay(int millis) {
+		mWriteBehindDelay = Math.max(millis, 0);
+	}
+
 	/** @return The preference broker. */
 	public Notifier getNotifier() {
 		return mNotifier;
@@ -193,9 +335,11 @@ public class Preferences {
 		// Can't really dispose of the global preferences,
 		// so only do the remaining cleanup for non-global preferences.
 		if (INSTANCE != this) {
-			mPrefs = null;
-			mFile = null;
-			mNotifier = null;
+			synchronized (this) {
+				mPrefs = null;
+				mFile = null;
+				mNotifier = null;
+			}
 		}
 	}
 
@@ -562,7 +706,6 @@ public class Preferences {
 
 		if (!list.isEmpty()) {
 			startBatch();
-			mDirty = true;
 			for (String keyToRemove : list) {
 				removePreference(module, keyToRemove);
 			}
@@ -592,27 +735,87 @@ public class Preferences {
 	 * @return Whether the save was successful or not.
 	 */
 	public boolean save() {
-		if (mDirty) {
-			try {
-				SafeFileUpdater trans = new SafeFileUpdater();
+		try {
+			write();
+		} catch (Exception exception) {
+			return false;
+		}
+		return true;
+	}
 
-				trans.begin();
-				try {
-					File file = trans.getTransactionFile(mFile);
-					try (OutputStream out = new FileOutputStream(file)) {
-						mPrefs.storeToXML(out, BundleInfo.getDefault().getName());
+	private synchronized void write() throws IOException {
+		if (mFile == null) {
+			return;
+		}
+		LinkedHashMap<String, String> changes;
+		synchronized (mPending) {
+			if (mPending.isEmpty() && (!mNeedsCompaction || mPrefs.isEmpty())) {
+				return;
+			}
+			changes = new LinkedHashMap<>(mPending);
+			mPending.clear();
+		}
+		try {
+			if (mNeedsCompaction || mRecordCount + changes.size() > Math.max(MIN_RECORDS_TO_COMPACT, mPrefs.size() * 2)) {
+				compact();
+			} else {
+				try (FileOutputStream out = new FileOutputStream(mFile, true)) {
+					out.write(createBatch(changes));
+					out.getChannel().force(false);
+				}
+				mRecordCount += changes.size();
+			}
+		} catch (IOException exception) {
+			// A failed append may have left a partial batch behind, which would hide any batches
+			// appended after it, so rewrite the whole log next time.
+			mNeedsCompaction = true;
+			// Put back whatever hasn't been superseded by a newer change, so that it is retried.
+			synchronized (mPending) {
+				for (Map.Entry<String, String> entry : changes.entrySet()) {
+					if (!mPending.containsKey(entry.getKey())) {
+						mPending.put(entry.getKey(), entry.getValue());
 					}
-				} catch (IOException ioe) {
-					trans.abort();
-					throw ioe;
 				}
-				trans.commit();
-				mDirty = false;
-			} catch (Exception exception) {
-				return false;
 			}
+			throw exception;
+		}
+	}
+
+	private void compact() throws IOException {
+		Properties snapshot = (Properties) mPrefs.clone();
+		SafeFileUpdater trans = new SafeFileUpdater();
+		trans.begin();
+		try {
+			File file = trans.getTransactionFile(mFile);
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+				out.writeInt(MAGIC);
+				out.write(createBatch(snapshot));
+			}
+		} catch (IOException ioe) {
+			trans.abort();
+			throw ioe;
+		}
+		trans.commit();
+		mRecordCount = snapshot.size();
+		mNeedsCompaction = false;
+	}
+
+	private void writeInBackground() {
+		try {
+			write();
+		} catch (Exception exception) {
+			Log.error(exception);
+		}
+	}
+
+	private void changed(String key, String value) {
+		synchronized (mPending) {
+			mPending.put(key, value);
+		}
+		int delay = mWriteBehindDelay;
+		if (delay > 0) {
+			Tasks.scheduleOnBackgroundThread(this::writeInBackground, delay, TimeUnit.MILLISECONDS, this);
 		}
-		return true;
 	}
 
 	/**
@@ -638,12 +841,12 @@ public class Preferences {
 		if (value != null) {
 			if (!value.equals(mPrefs.getProperty(key))) {
 				mPrefs.setProperty(key, value);
-				mDirty = true;
+				changed(key, value);
 				mNotifier.notify(this, key, value);
 			}
 		} else if (mPrefs.getProperty(key) != null) {
 			mPrefs.remove(key);
-			mDirty = true;
+			changed(key, null);
 			mNotifier.notify(this, key, null);
 		}
 	}
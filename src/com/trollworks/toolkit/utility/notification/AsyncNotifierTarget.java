@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 1998-2014 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.utility.notification;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Objects that want notifications delivered on a thread of their choosing, rather than on the
+ * thread that produced them, must implement this interface.
+ */
+public interface AsyncNotifierTarget extends NotifierTarget {
+	/**
+	 * @return The {@link Executor} to deliver notifications with, such as
+	 *         <code>EventQueue::invokeLater</code> for the UI thread. Notifications are handed over
+	 *         in the order they were produced, so an {@link Executor} that runs tasks one at a time
+	 *         will deliver them in that order.
+	 */
+	public Executor getNotificationExecutor();
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 1998-2014 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.utility.notification;
+
+/**
+ * Objects that want the notifications made to them during a batch to be combined must implement
+ * this interface. While a batch is in progress, notifications for such a target are held back,
+ * and those with the same name are merged into a single notification that is delivered when the
+ * outermost batch ends.
+ */
+public interface CoalescingNotifierTarget extends NotifierTarget {
+	/**
+	 * Called to merge a notification into the one being held back for the same name.
+	 *
+	 * @param name The notification name.
+	 * @param pending The data of the notification being held back.
+	 * @param data The data of the new notification.
+	 * @return The data to hold back in place of the pending data.
+	 */
+	public Object coalesceNotifications(String name, Object pending, Object data);
+}
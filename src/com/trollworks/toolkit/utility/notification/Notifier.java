@@ -11,23 +11,41 @@
 
 package com.trollworks.toolkit.utility.notification;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map.Entry;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
-/** Tracks targets of notifications and provides methods for notifying them. */
+/**
+ * Tracks targets of notifications and provides methods for notifying them. Registration changes
+ * publish a new, immutable set of priority-sorted target arrays, so notifications are delivered
+ * without locking and, once a name has been seen, without allocating.
+ * <p>
+ * Targets may opt into other delivery modes: a {@link CoalescingNotifierTarget} has the
+ * notifications made during a batch merged by name and delivered when the batch ends, and an
+ * {@link AsyncNotifierTarget} has its notifications delivered through its own executor.
+ */
 public class Notifier implements Comparator<NotifierTarget> {
 	/** The separator used between parts of a type. */
-	public static final String							SEPARATOR		= ".";				//$NON-NLS-1$
-	private HashSet<BatchNotifierTarget>				mBatchTargets	= new HashSet<>();
-	private HashMap<String, HashSet<NotifierTarget>>	mProductionMap	= new HashMap<>();
-	private HashMap<NotifierTarget, HashSet<String>>	mNameMap		= new HashMap<>();
-	private BatchNotifierTarget[]						mCurrentBatch;
-	private int											mBatchLevel;
-	private boolean										mEnabled		= true;
+	public static final String															SEPARATOR			= ".";	//$NON-NLS-1$
+	private static final NotifierTarget[]												NO_TARGETS			= new NotifierTarget[0];
+	private static final int															MAX_CACHED_NAMES	= 1024;
+	private HashSet<BatchNotifierTarget>												mBatchTargets		= new HashSet<>();
+	private HashMap<String, LinkedHashSet<NotifierTarget>>								mProductionMap		= new HashMap<>();
+	private HashMap<NotifierTarget, HashSet<String>>									mNameMap			= new HashMap<>();
+	private volatile Snapshot															mSnapshot			= new Snapshot(new HashMap<>());
+	private LinkedHashMap<CoalescingNotifierTarget, LinkedHashMap<String, Coalesced>>	mCoalesced			= new LinkedHashMap<>();
+	private BatchNotifierTarget[]														mCurrentBatch;
+	private volatile int																mBatchLevel;
+	private volatile boolean															mEnabled			= true;
 
 	/**
 	 * Adds all registrations from the specified {@link Notifier} into this one.
@@ -59,21 +77,50 @@ public class Notifier implements Comparator<NotifierTarget> {
 		if (target instanceof BatchNotifierTarget) {
 			mBatchTargets.add((BatchNotifierTarget) target);
 		}
+		ArrayList<String> changed = new ArrayList<>(names.length);
 		for (String name : names) {
 			name = normalizeName(name);
 			if (name.length() > 0) {
-				HashSet<NotifierTarget> set = mProductionMap.get(name);
+				LinkedHashSet<NotifierTarget> set = mProductionMap.get(name);
 				if (set == null) {
-					set = new HashSet<>();
+					set = new LinkedHashSet<>();
 					mProductionMap.put(name, set);
 				}
-				set.add(target);
+				if (set.add(target)) {
+					changed.add(name);
+				}
 				normalizedNames.add(name);
 			}
 		}
 		if (normalizedNames.isEmpty()) {
 			mNameMap.remove(target);
 		}
+		publish(changed);
+	}
+
+	/**
+	 * Publishes a new {@link Snapshot}, with the target arrays for the specified names rebuilt
+	 * from the production map. Must be called while holding this object's lock.
+	 */
+	private void publish(Collection<String> names) {
+		if (!names.isEmpty()) {
+			HashMap<String, NotifierTarget[]> map = new HashMap<>(mSnapshot.mTargets);
+			for (String name : names) {
+				LinkedHashSet<NotifierTarget> set = mProductionMap.get(name);
+				if (set == null) {
+					map.remove(name);
+				} else {
+					NotifierTarget[] targets = set.toArray(new NotifierTarget[set.size()]);
+					Arrays.sort(targets, this);
+					map.put(name, targets);
+				}
+			}
+			mSnapshot = new Snapshot(map);
+		}
+	}
+
+	private static boolean isPlain(NotifierTarget target) {
+		return !(target instanceof CoalescingNotifierTarget || target instanceof AsyncNotifierTarget);
 	}
 
 	private static String normalizeName(String name) {
@@ -98,9 +145,10 @@ public class Notifier implements Comparator<NotifierTarget> {
 			if (target instanceof BatchNotifierTarget) {
 				mBatchTargets.remove(target);
 			}
-			for (String name : mNameMap.get(target)) {
+			HashSet<String> names = mNameMap.remove(target);
+			for (String name : names) {
 				if (name.length() > 0) {
-					HashSet<NotifierTarget> set = mProductionMap.get(name);
+					LinkedHashSet<NotifierTarget> set = mProductionMap.get(name);
 					if (set != null) {
 						set.remove(target);
 						if (set.isEmpty()) {
@@ -109,7 +157,7 @@ public class Notifier implements Comparator<NotifierTarget> {
 					}
 				}
 			}
-			mNameMap.remove(target);
+			publish(names);
 		}
 	}
 
@@ -138,25 +186,78 @@ public class Notifier implements Comparator<NotifierTarget> {
 	 */
 	public void notify(Object producer, String name, Object data) {
 		if (isEnabled()) {
+			Snapshot snapshot = mSnapshot;
+			if (snapshot.mPlain) {
+				for (NotifierTarget target : getTargets(snapshot, name)) {
+					target.handleNotification(producer, name, data);
+				}
+			} else {
+				for (NotifierTarget target : getTargets(snapshot, name)) {
+					if (!(target instanceof CoalescingNotifierTarget && mBatchLevel > 0 && coalesce((CoalescingNotifierTarget) target, producer, name, data))) {
+						deliver(target, producer, name, data);
+					}
+				}
+			}
+		}
+	}
+
+	private static void deliver(NotifierTarget target, Object producer, String name, Object data) {
+		if (target instanceof AsyncNotifierTarget) {
+			((AsyncNotifierTarget) target).getNotificationExecutor().execute(() -> target.handleNotification(producer, name, data));
+		} else {
+			target.handleNotification(producer, name, data);
+		}
+	}
+
+	/** @return <code>false</code> if the batch ended before the notification could be held back. */
+	private synchronized boolean coalesce(CoalescingNotifierTarget target, Object producer, String name, Object data) {
+		if (mBatchLevel < 1) {
+			return false;
+		}
+		LinkedHashMap<String, Coalesced> pending = mCoalesced.get(target);
+		if (pending == null) {
+			pending = new LinkedHashMap<>();
+			mCoalesced.put(target, pending);
+		}
+		Coalesced coalesced = pending.get(name);
+		if (coalesced == null) {
+			pending.put(name, new Coalesced(producer, data));
+		} else {
+			coalesced.mProducer = producer;
+			coalesced.mData = target.coalesceNotifications(name, coalesced.mData, data);
+		}
+		return true;
+	}
+
+	/**
+	 * @param name The notification name.
+	 * @return The targets that consume the name, in delivery order. A target that consumes more
+	 *         than one level of the name appears once for each level.
+	 */
+	private static NotifierTarget[] getTargets(Snapshot snapshot, String name) {
+		if (snapshot.mTargets.isEmpty()) {
+			return NO_TARGETS;
+		}
+		NotifierTarget[] targets = snapshot.mDispatch.get(name);
+		if (targets == null) {
+			ArrayList<NotifierTarget> list = new ArrayList<>();
 			StringTokenizer tokenizer = new StringTokenizer(name, SEPARATOR);
 			StringBuilder builder = new StringBuilder();
 			while (tokenizer.hasMoreTokens()) {
 				builder.append(tokenizer.nextToken());
-				String value = builder.toString();
-				builder.append(SEPARATOR);
-				HashSet<NotifierTarget> set = mProductionMap.get(value);
-				if (set != null) {
-					int size = set.size();
-					if (size > 0) {
-						NotifierTarget[] targets = set.toArray(new NotifierTarget[size]);
-						Arrays.sort(targets, this);
-						for (NotifierTarget target : targets) {
-							target.handleNotification(producer, name, data);
-						}
-					}
+				NotifierTarget[] consumers = snapshot.mTargets.get(builder.toString());
+				if (consumers != null) {
+					Collections.addAll(list, consumers);
 				}
+				builder.append(SEPARATOR);
+			}
+			targets = list.isEmpty() ? NO_TARGETS : list.toArray(new NotifierTarget[list.size()]);
+			// Names that embed ids or other varying parts could grow the cache without bound.
+			if (snapshot.mDispatch.size() < MAX_CACHED_NAMES) {
+				snapshot.mDispatch.put(name, targets);
 			}
 		}
+		return targets;
 	}
 
 	/**
@@ -185,11 +286,25 @@ public class Notifier implements Comparator<NotifierTarget> {
 	/**
 	 * Informs all {@link BatchNotifierTarget}s that were present when {@link #startBatch()} was
 	 * called that a batch of notifications just finished. If batch level is still greater than zero
-	 * after being decremented, then no notifications will be done.
+	 * after being decremented, then no notifications will be done. Otherwise, the notifications held
+	 * back for {@link CoalescingNotifierTarget}s are delivered first.
 	 */
 	public synchronized void endBatch() {
 		if (isEnabled()) {
 			if (--mBatchLevel < 1) {
+				if (!mCoalesced.isEmpty()) {
+					LinkedHashMap<CoalescingNotifierTarget, LinkedHashMap<String, Coalesced>> coalesced = mCoalesced;
+					mCoalesced = new LinkedHashMap<>();
+					for (Entry<CoalescingNotifierTarget, LinkedHashMap<String, Coalesced>> entry : coalesced.entrySet()) {
+						CoalescingNotifierTarget target = entry.getKey();
+						for (Entry<String, Coalesced> pending : entry.getValue().entrySet()) {
+							// Skip targets that were removed while the batch was in progress.
+							if (mNameMap.containsKey(target)) {
+								deliver(target, pending.getValue().mProducer, pending.getKey(), pending.getValue().mData);
+							}
+						}
+					}
+				}
 				if (mCurrentBatch != null) {
 					for (BatchNotifierTarget target : mCurrentBatch) {
 						target.leaveBatchMode();
@@ -201,10 +316,12 @@ public class Notifier implements Comparator<NotifierTarget> {
 	}
 
 	/** Removes all targets. */
-	public void reset() {
+	public synchronized void reset() {
 		mBatchTargets.clear();
 		mProductionMap.clear();
 		mNameMap.clear();
+		mCoalesced.clear();
+		mSnapshot = new Snapshot(new HashMap<>());
 	}
 
 	/**
@@ -212,7 +329,7 @@ public class Notifier implements Comparator<NotifierTarget> {
 	 *
 	 * @param exclude The {@link NotifierTarget}(s) to exclude.
 	 */
-	public void reset(NotifierTarget... exclude) {
+	public synchronized void reset(NotifierTarget... exclude) {
 		HashMap<NotifierTarget, HashSet<String>> set = new HashMap<>();
 		for (NotifierTarget target : exclude) {
 			if (target != null) {
@@ -241,4 +358,36 @@ public class Notifier implements Comparator<NotifierTarget> {
 		}
 		return 0;
 	}
+
+	/** An immutable view of the registered targets, shared by all notifying threads. */
+	private static final class Snapshot {
+		/** The priority-sorted targets for each normalized name. */
+		final HashMap<String, NotifierTarget[]>			mTargets;
+		/** The combined targets for each notification name that has been delivered. */
+		final ConcurrentHashMap<String, NotifierTarget[]>	mDispatch	= new ConcurrentHashMap<>();
+		/** Whether all of the targets take plain, synchronous delivery. */
+		final boolean										mPlain;
+
+		Snapshot(HashMap<String, NotifierTarget[]> targets) {
+			mTargets = targets;
+			boolean plain = true;
+			for (NotifierTarget[] array : targets.values()) {
+				for (NotifierTarget target : array) {
+					plain &= isPlain(target);
+				}
+			}
+			mPlain = plain;
+		}
+	}
+
+	/** A notification being held back for a {@link CoalescingNotifierTarget}. */
+	private static final class Coalesced {
+		Object	mProducer;
+		Object	mData;
+
+		Coalesced(Object producer, Object data) {
+			mProducer = producer;
+			mData = data;
+		}
+	}
 }
@@ -16,7 +16,10 @@ package com.trollworks.toolkit.utility.notification;
  * interface.
  */
 public interface NotifierTarget {
-	/** @return The relative notification priority. Higher gets delivered first. */
+	/**
+	 * @return The relative notification priority. Higher gets delivered first. The priority is
+	 *         read when the target is registered with a {@link Notifier}.
+	 */
 	public int getNotificationPriority();
 
 	/**